@@ -2,6 +2,11 @@ plugins {
     alias(libs.plugins.android.application)
 }
 
+// The narrative generator's tables are trained from the scripts at build time and shipped as a
+// resource; BeatGeneratorTest fails when they are stale, and generateBeatTables rewrites them.
+val beatTables = file("src/main/resources/com/example/memoglitch/model/beat_tables.bin")
+val generatingBeatTables = gradle.startParameter.taskNames.any { it.endsWith("generateBeatTables") }
+
 android {
     namespace = "com.example.memoglitch"
     compileSdk = 36
@@ -29,6 +34,17 @@ android {
         sourceCompatibility = JavaVersion.VERSION_11
         targetCompatibility = JavaVersion.VERSION_11
     }
+    testOptions {
+        // The engine traces through android.os; unit tests run against the stub android.jar.
+        unitTests.isReturnDefaultValues = true
+        unitTests.all {
+            if (generatingBeatTables) {
+                it.systemProperty("memoglitch.beatTables.output", beatTables.absolutePath)
+                it.filter.includeTestsMatching("*.BeatGeneratorTest")
+                it.outputs.upToDateWhen { false }
+            }
+        }
+    }
 }
 
 dependencies {
@@ -43,4 +59,10 @@ dependencies {
     testImplementation(libs.junit)
     androidTestImplementation(libs.ext.junit)
     androidTestImplementation(libs.espresso.core)
-}
\ No newline at end of file
+}
+
+tasks.register("generateBeatTables") {
+    group = "build"
+    description = "Retrains the narrative generator from the scripts and rewrites the shipped tables."
+    dependsOn("testDebugUnitTest")
+}
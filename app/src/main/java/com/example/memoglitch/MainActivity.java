@@ -1,9 +1,15 @@
 package com.example.memoglitch;
 
 import android.content.Intent;
+import android.graphics.drawable.AnimationDrawable;
+import android.graphics.drawable.Drawable;
 import android.os.Bundle;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.view.Choreographer;
 import android.view.HapticFeedbackConstants;
 import android.view.KeyEvent;
+import android.view.LayoutInflater;
 import android.view.View;
 import android.view.inputmethod.EditorInfo;
 import android.widget.Button;
@@ -14,6 +20,8 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.activity.EdgeToEdge;
+import androidx.annotation.NonNull;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.content.ContextCompat;
 import androidx.core.graphics.Insets;
@@ -23,9 +31,12 @@ import androidx.lifecycle.ViewModelProvider;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
-import com.example.memoglitch.model.StoryManager;
+import com.example.memoglitch.model.ConversationSnapshot;
+import com.example.memoglitch.model.Message;
+import com.example.memoglitch.model.MessageHistory;
+import com.example.memoglitch.model.metrics.TraceRecorder;
 import com.example.memoglitch.ui.adapter.MessageAdapter;
-import com.example.memoglitch.ui.glitch.GlitchEffectFragment;
+import com.example.memoglitch.ui.glitch.GlitchOverlayView;
 import com.example.memoglitch.ui.settings.SettingsActivity;
 import com.example.memoglitch.viewmodel.DialogueViewModel;
 import com.example.memoglitch.viewmodel.EmotionViewModel;
@@ -34,11 +45,17 @@ import com.example.memoglitch.viewmodel.MemoryViewModel;
 import com.example.memoglitch.viewmodel.SessionViewModel;
 import com.example.memoglitch.viewmodel.StoryViewModel;
 
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
 /**
  * Main chat screen where the player converses with Echo.
  */
 public class MainActivity extends AppCompatActivity {
 
+    private static final int SEARCH_SNIPPET_LENGTH = 80;
+
     private DialogueViewModel dialogueViewModel;
     private StoryViewModel storyViewModel;
     private GlitchViewModel glitchViewModel;
@@ -52,6 +69,7 @@ public class MainActivity extends AppCompatActivity {
     private Button sendButton;
     private TextView headerSubtitle;
     private TextView typingIndicator;
+    private GlitchOverlayView glitchOverlay;
     private View normalCircle;
     private View glitchCircle;
     private View revealCircle;
@@ -59,11 +77,15 @@ public class MainActivity extends AppCompatActivity {
     private TextView glitchLabel;
     private TextView revealLabel;
 
+    private View skeletonHistory;
+    private RecyclerView messageRecyclerView;
+
     private boolean vibrationEnabled = true;
-    private String lastGlitchPayload;
+    private long lastGlitchSeed;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        TraceRecorder.begin("main.create");
         super.onCreate(savedInstanceState);
         EdgeToEdge.enable(this);
         setContentView(R.layout.activity_main);
@@ -75,6 +97,9 @@ public class MainActivity extends AppCompatActivity {
         initViewModels();
         initViews();
         observeViewModels();
+        TraceRecorder.end("main.create");
+        Choreographer.getInstance().postFrameCallback(
+                frameTimeNanos -> TraceRecorder.instant("main.first_frame"));
     }
 
     private void initViewModels() {
@@ -94,9 +119,13 @@ public class MainActivity extends AppCompatActivity {
         sendButton = findViewById(R.id.sendButton);
         headerSubtitle = findViewById(R.id.headerSubtitle);
         ImageButton settingsButton = findViewById(R.id.settingsButton);
+        ImageButton searchButton = findViewById(R.id.searchButton);
         Button restartButton = findViewById(R.id.restartButton);
         Button backToStartButton = findViewById(R.id.backToStartButton);
         typingIndicator = findViewById(R.id.typingIndicator);
+        glitchOverlay = findViewById(R.id.glitchOverlay);
+        skeletonHistory = findViewById(R.id.skeletonHistory);
+        messageRecyclerView = recyclerView;
 
         View storyIndicator = findViewById(R.id.storyIndicator);
         normalCircle = storyIndicator.findViewById(R.id.stageNormalCircle);
@@ -109,6 +138,8 @@ public class MainActivity extends AppCompatActivity {
         recyclerView.setLayoutManager(new LinearLayoutManager(this));
         recyclerView.setItemAnimator(null);
         messageAdapter = new MessageAdapter();
+        messageAdapter.setHistoryPageListener(dialogueViewModel::requestHistoryPage);
+        messageAdapter.setMessageLongPressListener(this::confirmRewind);
         recyclerView.setAdapter(messageAdapter);
 
         sendButton.setOnClickListener(v -> {
@@ -118,6 +149,21 @@ public class MainActivity extends AppCompatActivity {
             userInput.setText("");
         });
 
+        userInput.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                dialogueViewModel.onDraftChanged(s);
+            }
+        });
+
         userInput.setOnEditorActionListener((TextView v, int actionId, KeyEvent event) -> {
             if (actionId == EditorInfo.IME_ACTION_SEND || (event != null && event.getKeyCode() == KeyEvent.KEYCODE_ENTER
                     && event.getAction() == KeyEvent.ACTION_DOWN)) {
@@ -127,6 +173,8 @@ public class MainActivity extends AppCompatActivity {
             return false;
         });
 
+        searchButton.setOnClickListener(v -> showSearchDialog());
+
         settingsButton.setOnClickListener(v -> {
             Intent intent = new Intent(this, SettingsActivity.class);
             startActivity(intent);
@@ -147,28 +195,104 @@ public class MainActivity extends AppCompatActivity {
         });
 
         dialogueViewModel.getMessagesLiveData().observe(this, messages -> {
-            messageAdapter.submitList(messages);
-            recyclerView.post(() -> {
+            int previousCount = messageAdapter.getItemCount();
+            messageAdapter.submitHistory(messages, () -> {
                 int lastPosition = messageAdapter.getItemCount() - 1;
-                if (lastPosition >= 0) {
+                // Evictions and paged-in text republish the same rows; keep the reader's place.
+                if (lastPosition >= 0 && lastPosition + 1 != previousCount) {
                     recyclerView.scrollToPosition(lastPosition);
                 }
             });
         });
     }
 
+    private void showSearchDialog() {
+        View content = LayoutInflater.from(this).inflate(R.layout.dialog_search, null, false);
+        EditText queryInput = content.findViewById(R.id.searchQuery);
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.search_button)
+                .setView(content)
+                .setPositiveButton(R.string.search_action,
+                        (dialog, which) -> showSearchResults(queryInput.getText().toString()))
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
+    /**
+     * Lists the matches newest first; picking one scrolls the chat to that message.
+     */
+    private void showSearchResults(@NonNull String query) {
+        MessageHistory history = dialogueViewModel.getMessagesLiveData().getValue();
+        final int[] rows = dialogueViewModel.searchHistory(query);
+        if (history == null || rows.length == 0) {
+            Toast.makeText(this, R.string.search_no_results, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm", Locale.getDefault());
+        CharSequence[] labels = new CharSequence[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            int row = rows[i];
+            StringBuilder label = new StringBuilder()
+                    .append(history.getSender(row) == Message.Sender.USER ? "You" : "Echo")
+                    .append(" · ")
+                    .append(timeFormat.format(new Date(history.getTimestamp(row))))
+                    .append('\n');
+            if (!history.isTextResident(row)) {
+                // Evicted text is only read off the main thread; the row shows it once paged in.
+                label.append('…');
+                labels[i] = label;
+                continue;
+            }
+            CharSequence text = history.getTextView(row);
+            if (text.length() > SEARCH_SNIPPET_LENGTH) {
+                label.append(text, 0, SEARCH_SNIPPET_LENGTH).append('…');
+            } else {
+                label.append(text);
+            }
+            labels[i] = label;
+        }
+        new AlertDialog.Builder(this)
+                .setTitle(getString(R.string.search_results_title, rows.length))
+                .setItems(labels, (dialog, which) -> messageRecyclerView.scrollToPosition(rows[which]))
+                .show();
+    }
+
+    /**
+     * Offers to rewind to {@code position}, unless no turn that can be rewound to ends there.
+     */
+    private boolean confirmRewind(int position) {
+        if (!dialogueViewModel.canRewindTo(position)) {
+            return false;
+        }
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.rewind_title)
+                .setMessage(R.string.rewind_message)
+                .setPositiveButton(R.string.rewind_action, (dialog, which) -> {
+                    if (!dialogueViewModel.rewindTo(position)) {
+                        Toast.makeText(this, R.string.rewind_unavailable, Toast.LENGTH_SHORT).show();
+                    }
+                })
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+        return true;
+    }
+
     private void observeViewModels() {
-        storyViewModel.getStageLiveData().observe(this, this::renderStage);
+        dialogueViewModel.getLoadingLiveData().observe(this, loading -> {
+            if (loading != null) {
+                renderLoading(loading);
+            }
+        });
+
+        storyViewModel.getStageIndicator().observe(this, this::renderStage);
 
         glitchViewModel.getGlitchState().observe(this, state -> {
             if (state == null) {
                 return;
             }
-            if (state.isActive() && state.getDistortedText() != null
-                    && !state.getDistortedText().equals(lastGlitchPayload)) {
-                lastGlitchPayload = state.getDistortedText();
-                GlitchEffectFragment fragment = GlitchEffectFragment.newInstance(state.getDistortedText());
-                fragment.show(getSupportFragmentManager(), "glitch");
+            if (state.isActive() && state.getSeed() != lastGlitchSeed) {
+                lastGlitchSeed = state.getSeed();
+                glitchOverlay.trigger(state);
             }
         });
 
@@ -192,9 +316,6 @@ public class MainActivity extends AppCompatActivity {
 
         dialogueViewModel.getTypingLiveData().observe(this, typing -> {
             if (typing != null) {
-                sendButton.setEnabled(!typing);
-                sendButton.setAlpha(typing ? 0.5f : 1f);
-                sendButton.setText(typing ? "…" : "→");
                 if (typing) {
                     typingIndicator.setVisibility(View.VISIBLE);
                     typingIndicator.setAlpha(0f);
@@ -215,12 +336,31 @@ public class MainActivity extends AppCompatActivity {
         });
     }
 
-    private void renderStage(StoryManager.Stage stage) {
-        if (stage == null) {
+    /**
+     * Shows placeholder bubbles until the persisted history has been hydrated off the main thread.
+     */
+    private void renderLoading(boolean loading) {
+        skeletonHistory.setVisibility(loading ? View.VISIBLE : View.GONE);
+        messageRecyclerView.setVisibility(loading ? View.INVISIBLE : View.VISIBLE);
+        int[] bubbles = {R.id.skeletonBubbleAi, R.id.skeletonBubbleUser, R.id.skeletonBubbleAiLong};
+        for (int id : bubbles) {
+            Drawable background = skeletonHistory.findViewById(id).getBackground();
+            if (background instanceof AnimationDrawable) {
+                if (loading) {
+                    ((AnimationDrawable) background).start();
+                } else {
+                    ((AnimationDrawable) background).stop();
+                }
+            }
+        }
+    }
+
+    private void renderStage(ConversationSnapshot.StageIndicator indicator) {
+        if (indicator == null) {
             return;
         }
         resetStageIndicators();
-        switch (stage) {
+        switch (indicator) {
             case NORMAL:
                 applyStageHighlight(normalCircle, normalLabel, R.drawable.stage_circle_active, R.color.primary_blue);
                 break;
@@ -228,10 +368,6 @@ public class MainActivity extends AppCompatActivity {
                 applyStageHighlight(glitchCircle, glitchLabel, R.drawable.stage_circle_current, R.color.glitchAccent);
                 break;
             case REVEAL:
-            case CHOICE:
-            case CLOSURE:
-            case ERASURE:
-            case LOOP:
                 applyStageHighlight(revealCircle, revealLabel, R.drawable.stage_circle_current, R.color.gray_600);
                 break;
         }
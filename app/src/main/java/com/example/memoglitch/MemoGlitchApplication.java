@@ -0,0 +1,81 @@
+package com.example.memoglitch;
+
+import android.app.Activity;
+import android.app.Application;
+import android.os.Bundle;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.example.memoglitch.model.metrics.FlightRecorder;
+
+import java.io.File;
+
+/**
+ * Installs the flight recorder before any other component runs, so crashes during startup are
+ * caught too, and has it watch the main thread for stalls only while a screen is started.
+ */
+public class MemoGlitchApplication extends Application {
+
+    private static final String FLIGHT_RECORDER_DIR = "flight_recorder";
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        FlightRecorder.install(new File(getFilesDir(), FLIGHT_RECORDER_DIR));
+        registerActivityLifecycleCallbacks(new StartedActivities());
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (level >= TRIM_MEMORY_UI_HIDDEN) {
+            FlightRecorder.setMainThreadWatched(false);
+        }
+    }
+
+    /**
+     * Counts started activities; the main thread is watched from the first onStart to the last
+     * onStop.
+     */
+    private static final class StartedActivities implements ActivityLifecycleCallbacks {
+
+        private int started;
+
+        @Override
+        public void onActivityStarted(@NonNull Activity activity) {
+            if (started++ == 0) {
+                FlightRecorder.setMainThreadWatched(true);
+            }
+        }
+
+        @Override
+        public void onActivityStopped(@NonNull Activity activity) {
+            if (--started == 0) {
+                FlightRecorder.setMainThreadWatched(false);
+            }
+        }
+
+        @Override
+        public void onActivityCreated(@NonNull Activity activity,
+                                      @Nullable Bundle savedInstanceState) {
+        }
+
+        @Override
+        public void onActivityResumed(@NonNull Activity activity) {
+        }
+
+        @Override
+        public void onActivityPaused(@NonNull Activity activity) {
+        }
+
+        @Override
+        public void onActivitySaveInstanceState(@NonNull Activity activity,
+                                                @NonNull Bundle outState) {
+        }
+
+        @Override
+        public void onActivityDestroyed(@NonNull Activity activity) {
+        }
+    }
+}
@@ -11,6 +11,9 @@ import androidx.core.graphics.Insets;
 import androidx.core.view.ViewCompat;
 import androidx.core.view.WindowInsetsCompat;
 
+import com.example.memoglitch.model.ConversationEngine;
+import com.example.memoglitch.model.metrics.TraceRecorder;
+
 /**
  * Entry screen for MemoGlitch with introduction and navigation actions.
  */
@@ -18,9 +21,12 @@ public class StartActivity extends AppCompatActivity {
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        TraceRecorder.begin("start.create");
         super.onCreate(savedInstanceState);
         EdgeToEdge.enable(this);
         setContentView(R.layout.activity_start);
+        // The player usually lingers here; build the engine and restore the session meanwhile.
+        ConversationEngine.prewarm(this);
 
         View root = findViewById(R.id.startRoot);
         ViewCompat.setOnApplyWindowInsetsListener(root, (v, insets) -> {
@@ -38,5 +44,6 @@ public class StartActivity extends AppCompatActivity {
         });
 
         exitButton.setOnClickListener(v -> finishAffinity());
+        TraceRecorder.end("start.create");
     }
 }
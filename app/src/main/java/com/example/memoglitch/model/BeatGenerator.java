@@ -0,0 +1,500 @@
+package com.example.memoglitch.model;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.example.memoglitch.model.metrics.Gauge;
+import com.example.memoglitch.model.metrics.Metrics;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Word-level Markov model over Echo's own lines, for stages whose script has run out. Two words
+ * of context pick the next word; contexts with a single continuation fall back to one word now
+ * and then, so lines recombine instead of replaying the corpus. Every transition remembers which
+ * stages used it, and generation prefers the current stage's transitions and starts only from its
+ * opening words, so a LOOP line still sounds like LOOP.
+ *
+ * <p>Immutable once built: the vocabulary and both transition orders live in primitive arrays
+ * (compressed rows for one-word contexts, sorted pair keys for two-word contexts) whose size is
+ * capped at {@link #MAX_WORDS} words and {@link #MAX_TRANSITIONS} transitions per order.
+ * Generation is a pure function of stage and seed; callers draw the seed from the session's
+ * restorable random source, so rewinds and dry runs replay it.
+ *
+ * <p>The tables are trained at build time and shipped as the {@link #TABLES_RESOURCE} Java
+ * resource, tagged with a fingerprint of the corpus they were trained on. The app trains them
+ * itself only when that fingerprint no longer matches its scripts. {@code BeatGeneratorTest}
+ * fails when the shipped copy is stale; {@code ./gradlew :app:generateBeatTables} rewrites it.
+ */
+final class BeatGenerator {
+
+    static final int MAX_WORDS = 4096;
+    static final int MAX_TRANSITIONS = 16384;
+    private static final int START = 0;
+    private static final int END = 1;
+    private static final int MIN_WORDS = 6;
+    static final int MAX_LINE_WORDS = 28;
+    private static final int MAX_ATTEMPTS = 4;
+    // Chance of keeping a two-word context that allows only one continuation.
+    private static final int KEEP_SINGLE_CONTEXT_PERCENT = 55;
+    // Chance of restricting a pick to transitions the current stage uses, when there are any.
+    private static final int STAGE_BIAS_PERCENT = 85;
+    private static final long HASH_SEED = 0xCBF29CE484222325L;
+    static final String TABLES_RESOURCE = "beat_tables.bin";
+    // "BGT" and the table layout version; bump the version when training or the layout changes.
+    private static final int MAGIC = 0x42475401;
+    private static final Gauge TABLE_BYTES = Metrics.gauge("narrative.generator.bytes");
+
+    /**
+     * Collects corpus lines; {@link #build()} turns them into the compact tables. Adding lines
+     * only records them and updates the corpus fingerprint, so checking shipped tables against
+     * the corpus costs no tokenising.
+     */
+    static final class Trainer {
+
+        private final List<String> corpus = new ArrayList<>();
+        private final List<Integer> corpusMasks = new ArrayList<>();
+        private long fingerprint = mixHash(HASH_SEED, MAGIC);
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final List<String> words = new ArrayList<>();
+        private final List<int[]> lines = new ArrayList<>();
+        private final List<Integer> masks = new ArrayList<>();
+        private int transitions;
+
+        /**
+         * Adds {@code line} as used by the stages in {@code stageMask}, one bit per
+         * {@link StoryManager.Stage#ordinal()}. Lines that would push the tables past their
+         * ceiling are skipped when the tables are built.
+         */
+        @NonNull
+        Trainer addLine(@NonNull String line, int stageMask) {
+            corpus.add(line);
+            corpusMasks.add(stageMask);
+            for (int i = 0; i < line.length(); i++) {
+                fingerprint = mixHash(fingerprint, line.charAt(i));
+            }
+            fingerprint = mixHash(mixHash(fingerprint, -1), stageMask);
+            return this;
+        }
+
+        /**
+         * Identifies the corpus added so far, and the training and layout version.
+         */
+        long fingerprint() {
+            return fingerprint;
+        }
+
+        private void encode(@NonNull String line, int stageMask) {
+            String[] tokens = line.trim().split("\\s+");
+            if (tokens.length == 0 || tokens[0].isEmpty()
+                    || transitions + tokens.length + 1 > MAX_TRANSITIONS) {
+                return;
+            }
+            int newWords = 0;
+            for (String token : tokens) {
+                if (!ids.containsKey(token)) {
+                    newWords++;
+                }
+            }
+            if (words.size() + newWords > MAX_WORDS) {
+                return;
+            }
+            int[] encoded = new int[tokens.length];
+            for (int i = 0; i < tokens.length; i++) {
+                Integer id = ids.get(tokens[i]);
+                if (id == null) {
+                    id = words.size();
+                    ids.put(tokens[i], id);
+                    words.add(tokens[i]);
+                }
+                encoded[i] = id;
+            }
+            lines.add(encoded);
+            masks.add(stageMask);
+            transitions += tokens.length + 1;
+        }
+
+        @NonNull
+        BeatGenerator build() {
+            ids.clear();
+            words.clear();
+            words.add(null);
+            words.add(null);
+            lines.clear();
+            masks.clear();
+            transitions = 0;
+            for (int i = 0; i < corpus.size(); i++) {
+                encode(corpus.get(i), corpusMasks.get(i));
+            }
+            int wordCount = words.size();
+            // One-word contexts: counting sort of every transition by its context word.
+            int[] firstStart = new int[wordCount + 1];
+            long[] pairs = new long[transitions];
+            int p = 0;
+            for (int[] line : lines) {
+                int prev2 = START;
+                int prev1 = START;
+                for (int i = 0; i <= line.length; i++) {
+                    int next = i < line.length ? line[i] : END;
+                    firstStart[prev1 + 1]++;
+                    pairs[p++] = pairKey(prev2, prev1);
+                    prev2 = prev1;
+                    prev1 = next;
+                }
+            }
+            for (int i = 0; i < wordCount; i++) {
+                firstStart[i + 1] += firstStart[i];
+            }
+            int[] firstNext = new int[transitions];
+            byte[] firstMask = new byte[transitions];
+            int[] fill = Arrays.copyOf(firstStart, wordCount);
+
+            // Two-word contexts: distinct sorted keys, then the same counting sort by key index.
+            long[] sortedPairs = pairs.clone();
+            Arrays.sort(sortedPairs);
+            int distinct = 0;
+            for (int i = 0; i < sortedPairs.length; i++) {
+                if (i == 0 || sortedPairs[i] != sortedPairs[i - 1]) {
+                    sortedPairs[distinct++] = sortedPairs[i];
+                }
+            }
+            long[] pairKeys = Arrays.copyOf(sortedPairs, distinct);
+            int[] pairStart = new int[distinct + 1];
+            for (long key : pairs) {
+                pairStart[Arrays.binarySearch(pairKeys, key) + 1]++;
+            }
+            for (int i = 0; i < distinct; i++) {
+                pairStart[i + 1] += pairStart[i];
+            }
+            int[] pairNext = new int[transitions];
+            byte[] pairMask = new byte[transitions];
+            int[] pairFill = Arrays.copyOf(pairStart, distinct);
+
+            long[] lineHashes = new long[lines.size()];
+            for (int l = 0; l < lines.size(); l++) {
+                int[] line = lines.get(l);
+                byte mask = (byte) (int) masks.get(l);
+                int prev2 = START;
+                int prev1 = START;
+                long hash = HASH_SEED;
+                for (int i = 0; i <= line.length; i++) {
+                    int next = i < line.length ? line[i] : END;
+                    int slot = fill[prev1]++;
+                    firstNext[slot] = next;
+                    firstMask[slot] = mask;
+                    int pairSlot = pairFill[Arrays.binarySearch(pairKeys, pairKey(prev2, prev1))]++;
+                    pairNext[pairSlot] = next;
+                    pairMask[pairSlot] = mask;
+                    hash = mixHash(hash, next);
+                    prev2 = prev1;
+                    prev1 = next;
+                }
+                lineHashes[l] = hash;
+            }
+            Arrays.sort(lineHashes);
+            return new BeatGenerator(fingerprint, words.toArray(new String[0]), firstStart,
+                    firstNext, firstMask, pairKeys, pairStart, pairNext, pairMask, lineHashes);
+        }
+    }
+
+    /**
+     * SplitMix64; a local instance per call keeps generation reentrant.
+     */
+    private static final class Rng {
+        private long state;
+
+        Rng(long seed) {
+            state = seed;
+        }
+
+        int nextPercent() {
+            return nextInt(100);
+        }
+
+        int nextInt(int bound) {
+            state += 0x9E3779B97F4A7C15L;
+            long z = state;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            z ^= z >>> 31;
+            return (int) ((z >>> 33) % bound);
+        }
+    }
+
+    private final long fingerprint;
+    private final String[] words;
+    private final int[] firstStart;
+    private final int[] firstNext;
+    private final byte[] firstMask;
+    private final long[] pairKeys;
+    private final int[] pairStart;
+    private final int[] pairNext;
+    private final byte[] pairMask;
+    // Corpus lines, so a walk that happens to replay one verbatim is retried.
+    private final long[] lineHashes;
+
+    private BeatGenerator(long fingerprint, @NonNull String[] words, @NonNull int[] firstStart,
+                          @NonNull int[] firstNext, @NonNull byte[] firstMask,
+                          @NonNull long[] pairKeys, @NonNull int[] pairStart,
+                          @NonNull int[] pairNext, @NonNull byte[] pairMask,
+                          @NonNull long[] lineHashes) {
+        this.fingerprint = fingerprint;
+        this.words = words;
+        this.firstStart = firstStart;
+        this.firstNext = firstNext;
+        this.firstMask = firstMask;
+        this.pairKeys = pairKeys;
+        this.pairStart = pairStart;
+        this.pairNext = pairNext;
+        this.pairMask = pairMask;
+        this.lineHashes = lineHashes;
+        long bytes = 4L * (firstStart.length + firstNext.length + pairStart.length
+                + pairNext.length) + firstMask.length + pairMask.length
+                + 8L * (pairKeys.length + lineHashes.length);
+        TABLE_BYTES.set(bytes);
+    }
+
+    /**
+     * Reads the tables shipped with the app, or returns null if they are missing, unreadable or
+     * were trained on a corpus other than the one {@code fingerprint} identifies.
+     */
+    @Nullable
+    static BeatGenerator loadShipped(long fingerprint) {
+        try (InputStream in = BeatGenerator.class.getResourceAsStream(TABLES_RESOURCE)) {
+            return in != null ? read(in, fingerprint) : null;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads tables written by {@link #write}, or returns null if they were trained on a corpus
+     * other than the one {@code fingerprint} identifies.
+     */
+    @Nullable
+    static BeatGenerator read(@NonNull InputStream in, long fingerprint) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        if (data.readInt() != MAGIC || data.readLong() != fingerprint) {
+            return null;
+        }
+        String[] words = new String[data.readInt()];
+        for (int i = END + 1; i < words.length; i++) {
+            words[i] = data.readUTF();
+        }
+        return new BeatGenerator(fingerprint, words, readInts(data), readInts(data),
+                readBytes(data), readLongs(data), readInts(data), readInts(data),
+                readBytes(data), readLongs(data));
+    }
+
+    /**
+     * Writes the tables in the form {@link #read} and {@link #loadShipped} expect.
+     */
+    void write(@NonNull OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeLong(fingerprint);
+        data.writeInt(words.length);
+        for (int i = END + 1; i < words.length; i++) {
+            data.writeUTF(words[i]);
+        }
+        writeInts(data, firstStart);
+        writeInts(data, firstNext);
+        writeBytes(data, firstMask);
+        writeLongs(data, pairKeys);
+        writeInts(data, pairStart);
+        writeInts(data, pairNext);
+        writeBytes(data, pairMask);
+        writeLongs(data, lineHashes);
+        data.flush();
+    }
+
+    @NonNull
+    private static int[] readInts(@NonNull DataInputStream data) throws IOException {
+        int[] values = new int[data.readInt()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = data.readInt();
+        }
+        return values;
+    }
+
+    @NonNull
+    private static long[] readLongs(@NonNull DataInputStream data) throws IOException {
+        long[] values = new long[data.readInt()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = data.readLong();
+        }
+        return values;
+    }
+
+    @NonNull
+    private static byte[] readBytes(@NonNull DataInputStream data) throws IOException {
+        byte[] values = new byte[data.readInt()];
+        data.readFully(values);
+        return values;
+    }
+
+    private static void writeInts(@NonNull DataOutputStream data, @NonNull int[] values)
+            throws IOException {
+        data.writeInt(values.length);
+        for (int value : values) {
+            data.writeInt(value);
+        }
+    }
+
+    private static void writeLongs(@NonNull DataOutputStream data, @NonNull long[] values)
+            throws IOException {
+        data.writeInt(values.length);
+        for (long value : values) {
+            data.writeLong(value);
+        }
+    }
+
+    private static void writeBytes(@NonNull DataOutputStream data, @NonNull byte[] values)
+            throws IOException {
+        data.writeInt(values.length);
+        data.write(values);
+    }
+
+    /**
+     * Appends a generated line for {@code stage} to {@code out}, with placeholders such as
+     * {@code {{input}}} left for the caller to expand. The same stage and seed give the same line.
+     */
+    void generate(@NonNull StringBuilder out, @NonNull StoryManager.Stage stage, long seed) {
+        int stageBit = 1 << stage.ordinal();
+        Rng rng = new Rng(seed);
+        int mark = out.length();
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            out.setLength(mark);
+            long hash = walk(out, mark, stageBit, rng);
+            if (Arrays.binarySearch(lineHashes, hash) < 0 && countWords(out, mark) >= MIN_WORDS) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Appends one walk from the start context to {@code out}, whose line starts at {@code from},
+     * and returns its hash.
+     */
+    private long walk(@NonNull StringBuilder out, int from, int stageBit, @NonNull Rng rng) {
+        int prev2 = START;
+        int prev1 = START;
+        long hash = HASH_SEED;
+        int count = 0;
+        while (count < MAX_LINE_WORDS) {
+            int next = nextWord(prev2, prev1, stageBit, rng);
+            if (next == END && count < MIN_WORDS && prev1 != START) {
+                // Too short to stand as a reply; try once more from the last word alone.
+                next = pick(firstStart[prev1], firstStart[prev1 + 1], firstNext, firstMask,
+                        stageBit, rng);
+            }
+            if (next == END) {
+                break;
+            }
+            if (count > 0) {
+                out.append(' ');
+            }
+            out.append(words[next]);
+            hash = mixHash(hash, next);
+            prev2 = prev1;
+            prev1 = next;
+            count++;
+        }
+        terminate(out, from);
+        return mixHash(hash, END);
+    }
+
+    private int nextWord(int prev2, int prev1, int stageBit, @NonNull Rng rng) {
+        int pair = Arrays.binarySearch(pairKeys, pairKey(prev2, prev1));
+        if (pair >= 0) {
+            int from = pairStart[pair];
+            int to = pairStart[pair + 1];
+            if (prev1 == START || !singleContinuation(from, to)
+                    || rng.nextPercent() < KEEP_SINGLE_CONTEXT_PERCENT) {
+                return pick(from, to, pairNext, pairMask, stageBit, rng);
+            }
+        }
+        return pick(firstStart[prev1], firstStart[prev1 + 1], firstNext, firstMask, stageBit, rng);
+    }
+
+    private boolean singleContinuation(int from, int to) {
+        for (int i = from + 1; i < to; i++) {
+            if (pairNext[i] != pairNext[from]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int pick(int from, int to, @NonNull int[] next, @NonNull byte[] masks,
+                            int stageBit, @NonNull Rng rng) {
+        if (from == to) {
+            return END;
+        }
+        int matching = 0;
+        for (int i = from; i < to; i++) {
+            if ((masks[i] & stageBit) != 0) {
+                matching++;
+            }
+        }
+        if (matching == 0 || rng.nextPercent() >= STAGE_BIAS_PERCENT) {
+            return next[from + rng.nextInt(to - from)];
+        }
+        int k = rng.nextInt(matching);
+        for (int i = from; i < to; i++) {
+            if ((masks[i] & stageBit) != 0 && k-- == 0) {
+                return next[i];
+            }
+        }
+        return next[from];
+    }
+
+    /**
+     * Ends a walk cut off mid-sentence with a full stop.
+     */
+    private static void terminate(@NonNull StringBuilder out, int from) {
+        int end = out.length();
+        while (end > from && ",;:-".indexOf(out.charAt(end - 1)) >= 0) {
+            end--;
+        }
+        out.setLength(end);
+        if (end == from) {
+            return;
+        }
+        char last = out.charAt(end - 1);
+        if (last == '"' && end > from + 1) {
+            last = out.charAt(end - 2);
+        }
+        if (".!?…".indexOf(last) < 0) {
+            out.append('.');
+        }
+    }
+
+    private static int countWords(@NonNull CharSequence line, int from) {
+        int words = line.length() > from ? 1 : 0;
+        for (int i = from; i < line.length(); i++) {
+            if (line.charAt(i) == ' ') {
+                words++;
+            }
+        }
+        return words;
+    }
+
+    private static long pairKey(int prev2, int prev1) {
+        return ((long) prev2 << 32) | prev1;
+    }
+
+    private static long mixHash(long hash, int word) {
+        return (hash ^ word) * 0x100000001B3L;
+    }
+}
@@ -1,34 +1,269 @@
 package com.example.memoglitch.model;
 
 import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
 
+import androidx.annotation.MainThread;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+
+import com.example.memoglitch.model.events.EventPublisher;
+import com.example.memoglitch.model.events.Flow;
+import com.example.memoglitch.model.events.OneShotEvent;
+import com.example.memoglitch.model.metrics.Counter;
+import com.example.memoglitch.model.metrics.FlightRecorder;
+import com.example.memoglitch.model.metrics.LatencyHistogram;
+import com.example.memoglitch.model.metrics.Metrics;
+import com.example.memoglitch.model.metrics.TraceRecorder;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Coordinates all model-layer components for the conversation experience.
  */
 public class ConversationEngine {
 
+    private static final LatencyHistogram RESTORE_LATENCY = Metrics.histogram("session.restore");
+    private static final LatencyHistogram REWIND_LATENCY = Metrics.histogram("engine.rewind");
+    private static final Counter SPECULATION_HITS = Metrics.counter("dialogue.speculation.hits");
+    private static final Counter SPECULATION_MISSES = Metrics.counter("dialogue.speculation.misses");
+    // Rows indexed between index writes; unwritten rows are re-indexed from the history on load.
+    private static final int SEARCH_INDEX_PERSIST_INTERVAL = 64;
+    // Rows kept in hot storage by maintenance, and the fewest worth moving to the archive.
+    private static final int HOT_HISTORY_ROWS = 500;
+    private static final int MIN_ARCHIVE_ROWS = HistoryArchive.BLOCK_ROWS * 2;
+    private static final ExecutorService BACKGROUND_EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            runnable.run();
+        }, "engine-background");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Runs event subscribers that do not bring their own executor.
+    private static final ExecutorService EVENT_EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            runnable.run();
+        }, "engine-events");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final int EVENT_BUFFER = 256;
+
     private static ConversationEngine instance;
 
-    private final DataRepository repository;
-    private final StoryManager storyManager;
-    private final MemorySystem memorySystem;
-    private final EmotionCurve emotionCurve;
-    private final GlitchEffect glitchEffect;
-    private final NarrativeScript narrativeScript;
-    private final DialogueSystem dialogueSystem;
-    private final ConversationStateStore stateStore;
+    private final Context appContext;
+    private final Lazy<DataRepository> repository;
+    private final Lazy<StoryManager> storyManager = new Lazy<>(StoryManager::new);
+    private final Lazy<MemorySystem> memorySystem = new Lazy<>(MemorySystem::new);
+    private final Lazy<EmotionCurve> emotionCurve = new Lazy<>(EmotionCurve::new);
+    private final Lazy<GlitchEffect> glitchEffect = new Lazy<>(GlitchEffect::new);
+    private final Lazy<NarrativeScript> narrativeScript = new Lazy<>(NarrativeScript::new);
+    private final Lazy<DialogueSystem> dialogueSystem = new Lazy<>(() -> new DialogueSystem(
+            getStoryManager(), getMemorySystem(), getEmotionCurve(), getGlitchEffect(), getNarrativeScript()));
+    // Dry runs only; owned by the background executor.
+    private final Lazy<DialogueSystem> scratchDialogue = new Lazy<>(() ->
+            DialogueSystem.newScratch(getEmotionCurve()));
+    private final EventPublisher<EngineEvent> events = new EventPublisher<>(EVENT_EXECUTOR, EVENT_BUFFER);
+    private final Lazy<ConversationStateStore> stateStore = new Lazy<>(() ->
+            new ConversationStateStore(events));
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final HistoryWindow historyWindow;
+    private final Lazy<TranscriptExporter> transcriptExporter;
+    private final MutableLiveData<TranscriptExporter.Progress> exportProgress = new MutableLiveData<>();
+    private final MutableLiveData<OneShotEvent<TranscriptExporter.Progress>> exportFinished =
+            new MutableLiveData<>();
+    @Nullable
+    private TranscriptExporter.Task exportTask;
+    private volatile int sessionEpoch;
+    private boolean hydrationStarted;
+    private HistoryIndex searchIndex = new HistoryIndex();
+    private int persistedIndexRows;
+    private boolean reindexing;
+    private final TurnJournal turnJournal = new TurnJournal();
+    // Newest draft awaiting a dry run; a task is queued only when it was empty.
+    private final AtomicReference<Draft> pendingDraft = new AtomicReference<>();
+    @Nullable
+    private DialogueSystem.Speculation speculation;
+
+    /**
+     * Input being typed, with the engine state it would be answered from.
+     */
+    private static final class Draft {
+        final String userInput;
+        final TurnJournal.EngineState base;
+
+        Draft(@NonNull String userInput, @NonNull TurnJournal.EngineState base) {
+            this.userInput = userInput;
+            this.base = base;
+        }
+    }
+
+    /**
+     * Counts published events by type on the event thread, requesting them half a buffer at a
+     * time.
+     */
+    private static final class EventCounter implements Flow.Subscriber<EngineEvent> {
+
+        private static final Counter[] COUNTERS = new Counter[EngineEvent.Type.values().length];
+
+        static {
+            for (EngineEvent.Type type : EngineEvent.Type.values()) {
+                COUNTERS[type.ordinal()] = Metrics.counter(
+                        "events." + type.name().toLowerCase(Locale.US));
+            }
+        }
+
+        private final EventPublisher<EngineEvent> events;
+        private Flow.Subscription subscription;
+        private int received;
+
+        EventCounter(@NonNull EventPublisher<EngineEvent> events) {
+            this.events = events;
+        }
+
+        @Override
+        public void onSubscribe(@NonNull Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(EVENT_BUFFER);
+        }
+
+        @Override
+        public void onNext(@NonNull EngineEvent event) {
+            COUNTERS[event.getType().ordinal()].increment();
+            if (++received == EVENT_BUFFER / 2) {
+                received = 0;
+                subscription.request(EVENT_BUFFER / 2);
+            }
+        }
+
+        @Override
+        public void onError(@NonNull Throwable throwable) {
+            events.subscribe(new EventCounter(events));
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+
+    /**
+     * Saves the history on the background executor each time a message is appended or the
+     * history is replaced. Only the latest history matters, so histories delivered while a save
+     * is queued collapse into it, and delivery only records it: everything is requested and the
+     * buffer bounds the backlog. If a stalled save lets the buffer overflow, the saver
+     * resubscribes and saves the published history instead.
+     */
+    private final class HistorySaver implements Flow.Subscriber<EngineEvent> {
+
+        // Newest history awaiting a save; a save task is queued only when it was null. Touched
+        // only on the background executor.
+        @Nullable
+        private MessageHistory pending;
+
+        @Override
+        public void onSubscribe(@NonNull Flow.Subscription subscription) {
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(@NonNull EngineEvent event) {
+            MessageHistory history = event.getHistory();
+            if (history == null) {
+                return;
+            }
+            if (pending == null) {
+                // Runs after the rest of this delivery, so it saves the newest of them.
+                BACKGROUND_EXECUTOR.execute(this::saveLatest);
+            }
+            pending = history;
+        }
+
+        private void saveLatest() {
+            MessageHistory latest = pending;
+            pending = null;
+            getRepository().saveMessages(latest);
+        }
+
+        @Override
+        public void onError(@NonNull Throwable throwable) {
+            events.subscribe(new HistorySaver(), BACKGROUND_EXECUTOR, EVENT_BUFFER);
+            // Read after resubscribing, so the new subscription misses nothing newer.
+            mainHandler.post(() -> {
+                final MessageHistory current = getStateStore().getSnapshot().getMessages();
+                BACKGROUND_EXECUTOR.execute(() -> getRepository().saveMessages(current));
+            });
+        }
 
+        @Override
+        public void onComplete() {
+        }
+    }
+
+    /**
+     * Follows the published history with the search index on the main thread, where the index is
+     * queried. Histories from a lineage abandoned since they were published are skipped; the
+     * replacement event that follows brings the index over. If the buffer overflows, the indexer
+     * resubscribes and catches the index up with the published history.
+     */
+    private final class SearchIndexer implements Flow.Subscriber<EngineEvent> {
+
+        @Override
+        public void onSubscribe(@NonNull Flow.Subscription subscription) {
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(@NonNull EngineEvent event) {
+            MessageHistory history = event.getHistory();
+            if (history != null
+                    && history.isPrefixOf(getStateStore().getSnapshot().getMessages())) {
+                indexHistory(history);
+            }
+        }
+
+        @Override
+        public void onError(@NonNull Throwable throwable) {
+            events.subscribe(new SearchIndexer(), mainHandler::post, EVENT_BUFFER);
+            indexHistory(getStateStore().getSnapshot().getMessages());
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+
+    /**
+     * Only records how to build each component; nothing is constructed until first use or
+     * {@link #prewarm(Context)}.
+     */
     private ConversationEngine(@NonNull Context context) {
-        repository = new DataRepository(context.getApplicationContext());
-        storyManager = new StoryManager();
-        memorySystem = new MemorySystem();
-        emotionCurve = new EmotionCurve();
-        glitchEffect = new GlitchEffect();
-        narrativeScript = new NarrativeScript();
-        dialogueSystem = new DialogueSystem(storyManager, memorySystem, emotionCurve, glitchEffect, narrativeScript);
-        stateStore = new ConversationStateStore();
+        TraceRecorder.begin("engine.init");
+        try {
+            appContext = context.getApplicationContext();
+            repository = new Lazy<>(() -> new DataRepository(appContext));
+            transcriptExporter = new Lazy<>(() -> new TranscriptExporter(
+                    appContext.getContentResolver(), getRepository().getMessageBodies()));
+            historyWindow = new HistoryWindow(stateStore, repository, BACKGROUND_EXECUTOR, mainHandler);
+            appContext.registerComponentCallbacks(historyWindow);
+            events.subscribe(new EventCounter(events));
+            events.subscribe(new HistorySaver(), BACKGROUND_EXECUTOR, EVENT_BUFFER);
+            events.subscribe(new SearchIndexer(), mainHandler::post, EVENT_BUFFER);
+        } finally {
+            TraceRecorder.end("engine.init");
+        }
     }
 
     public static synchronized ConversationEngine getInstance(@NonNull Context context) {
@@ -38,43 +273,470 @@ public class ConversationEngine {
         return instance;
     }
 
+    /**
+     * Builds the engine's components and starts hydrating the saved session on a background
+     * thread, so the chat screen opens onto warm scripts and an already restored history. Safe to
+     * call repeatedly and from any thread.
+     */
+    public static void prewarm(@NonNull Context context) {
+        final Context appContext = context.getApplicationContext();
+        BACKGROUND_EXECUTOR.execute(() -> {
+            TraceRecorder.begin("engine.prewarm");
+            ConversationEngine engine = getInstance(appContext);
+            engine.getDialogueSystem();
+            engine.getRepository();
+            TraceRecorder.end("engine.prewarm");
+            engine.hydrateSession();
+        });
+    }
+
     @NonNull
     public DataRepository getRepository() {
-        return repository;
+        return repository.get();
     }
 
     @NonNull
     public StoryManager getStoryManager() {
-        return storyManager;
+        return storyManager.get();
     }
 
     @NonNull
     public MemorySystem getMemorySystem() {
-        return memorySystem;
+        return memorySystem.get();
     }
 
     @NonNull
     public EmotionCurve getEmotionCurve() {
-        return emotionCurve;
+        return emotionCurve.get();
     }
 
     @NonNull
     public GlitchEffect getGlitchEffect() {
-        return glitchEffect;
+        return glitchEffect.get();
     }
 
     @NonNull
     public DialogueSystem getDialogueSystem() {
-        return dialogueSystem;
+        return dialogueSystem.get();
     }
 
     @NonNull
     public NarrativeScript getNarrativeScript() {
-        return narrativeScript;
+        return narrativeScript.get();
     }
 
     @NonNull
     public ConversationStateStore getStateStore() {
-        return stateStore;
+        return stateStore.get();
+    }
+
+    /**
+     * Returns the stream of everything that happens in the conversation, from stage changes to
+     * each appended message; history saves and the search index follow it too. Subscribers are
+     * signalled on their own executor and hold a bounded buffer; one that falls a buffer behind is
+     * ended with {@link EventPublisher.OverflowException} and should resubscribe and resync from
+     * {@link ConversationStateStore#getSnapshot()}.
+     */
+    @NonNull
+    public EventPublisher<EngineEvent> getEvents() {
+        return events;
+    }
+
+    /**
+     * Progress of the latest transcript export, kept for as long as the process so a settings
+     * screen opened mid-export shows it.
+     */
+    @NonNull
+    public LiveData<TranscriptExporter.Progress> getExportProgressLiveData() {
+        return exportProgress;
+    }
+
+    /**
+     * Emits once per transcript export that finished or failed; cancelled exports are not
+     * reported.
+     */
+    @NonNull
+    public LiveData<OneShotEvent<TranscriptExporter.Progress>> getExportFinishedLiveData() {
+        return exportFinished;
+    }
+
+    /**
+     * Streams the current history to {@code target} in the background, replacing any export that
+     * is still running. The export runs to completion even if the screen that started it goes
+     * away.
+     */
+    @MainThread
+    public void exportTranscript(@NonNull Uri target, @NonNull TranscriptExporter.Format format,
+                                 boolean includeDistortion) {
+        cancelTranscriptExport();
+        exportTask = transcriptExporter.get().export(getStateStore().getSnapshot().getMessages(),
+                target, format, includeDistortion, this::onExportProgress);
+    }
+
+    @MainThread
+    public void cancelTranscriptExport() {
+        TranscriptExporter.Task task = exportTask;
+        if (task == null) {
+            return;
+        }
+        task.cancel();
+        exportTask = null;
+        exportProgress.setValue(new TranscriptExporter.Progress(
+                TranscriptExporter.Progress.State.CANCELLED, 0, 0));
+    }
+
+    @WorkerThread
+    private void onExportProgress(@NonNull TranscriptExporter.Task task,
+                                  @NonNull TranscriptExporter.Progress progress) {
+        mainHandler.post(() -> {
+            if (task != exportTask) {
+                // Replaced or cancelled since; its progress would hide the current state.
+                return;
+            }
+            exportProgress.setValue(progress);
+            if (progress.getState() != TranscriptExporter.Progress.State.RUNNING) {
+                exportTask = null;
+                exportFinished.setValue(new OneShotEvent<>(progress));
+            }
+        });
+    }
+
+    /**
+     * Returns the search index over the published history. Main thread only.
+     */
+    @MainThread
+    @NonNull
+    public HistoryIndex getSearchIndex() {
+        return searchIndex;
+    }
+
+    /**
+     * Records that {@code messages} was just appended to or reset, keeping the in-memory text
+     * window in place. Saving and indexing follow the events its commit publishes.
+     */
+    @MainThread
+    public void onHistoryChanged(@NonNull MessageHistory messages) {
+        historyWindow.onHistoryChanged(messages);
+    }
+
+    /**
+     * Writes the full text of an oversized message on the background executor, ahead of the save
+     * of the history that holds its preview, which follows that history's commit.
+     */
+    @MainThread
+    public void storeMessageBody(final int row, @NonNull final String body) {
+        BACKGROUND_EXECUTOR.execute(() -> {
+            try {
+                getRepository().getMessageBodies().write(row, body);
+            } catch (IOException e) {
+                // The preview in the history is all that is kept.
+            }
+        });
+    }
+
+    /**
+     * Deletes the stored bodies of rows past the end of {@code messages} after a rewind or reset,
+     * ahead of any body written for a message that takes one of those rows.
+     */
+    @MainThread
+    public void pruneMessageBodies(@NonNull MessageHistory messages) {
+        final int rows = messages.size();
+        BACKGROUND_EXECUTOR.execute(() -> getRepository().getMessageBodies().deleteFrom(rows));
+    }
+
+    /**
+     * Deletes the persisted search index after a reset, behind any save of the old session's
+     * index already queued.
+     */
+    @MainThread
+    public void deleteSearchIndex() {
+        BACKGROUND_EXECUTOR.execute(() -> getRepository().deleteSearchIndex());
+    }
+
+    /**
+     * Loads the evicted text around {@code row} back into the published history if it is not
+     * already in memory.
+     */
+    @MainThread
+    public void requestHistoryPage(int row) {
+        historyWindow.requestPage(row);
+    }
+
+    /**
+     * Brings the search index up to date and writes it out in the background every few dozen rows.
+     */
+    @MainThread
+    private void indexHistory(@NonNull MessageHistory messages) {
+        if (!searchIndex.extend(messages)) {
+            rebuildSearchIndex(messages);
+            return;
+        }
+        int indexedRows = searchIndex.getIndexedRows();
+        if (indexedRows < persistedIndexRows) {
+            // A reset: the repository dropped the index file along with the session.
+            persistedIndexRows = indexedRows;
+        } else if (indexedRows - persistedIndexRows >= SEARCH_INDEX_PERSIST_INTERVAL) {
+            persistSearchIndex();
+        }
+    }
+
+    /**
+     * Indexes {@code messages} from scratch on the background executor, for a history the index
+     * cannot follow on the main thread, and swaps the result in once it catches up with the
+     * published history. Searches find nothing meanwhile.
+     */
+    @MainThread
+    private void rebuildSearchIndex(@NonNull final MessageHistory messages) {
+        if (reindexing) {
+            return;
+        }
+        reindexing = true;
+        BACKGROUND_EXECUTOR.execute(() -> {
+            final HistoryIndex rebuilt = new HistoryIndex();
+            rebuilt.update(messages);
+            mainHandler.post(() -> {
+                reindexing = false;
+                MessageHistory current = getStateStore().getSnapshot().getMessages();
+                if (!rebuilt.extend(current)) {
+                    rebuildSearchIndex(current);
+                    return;
+                }
+                searchIndex = rebuilt;
+                persistSearchIndex();
+            });
+        });
+    }
+
+    @MainThread
+    private void persistSearchIndex() {
+        final HistoryIndex.Snapshot snapshot = searchIndex.snapshot();
+        persistedIndexRows = snapshot.getIndexedRows();
+        BACKGROUND_EXECUTOR.execute(() -> getRepository().saveSearchIndex(snapshot));
+    }
+
+    /**
+     * Starts journaling turns from the current component state, that of a history of
+     * {@code rows} rows; called once a session is restored or reset.
+     */
+    @MainThread
+    public void startTurnJournal(int rows) {
+        turnJournal.start(rows, captureState());
+        updateRewindFloor();
+    }
+
+    /**
+     * Records the component state after a reply brought the history to {@code rows} rows.
+     */
+    @MainThread
+    public void recordTurn(int rows) {
+        turnJournal.record(rows, captureState());
+        updateRewindFloor();
+    }
+
+    /**
+     * Keeps the rows the journal can still rewind to out of the archive, which rewinds cannot
+     * cut back.
+     */
+    @MainThread
+    private void updateRewindFloor() {
+        getRepository().setRewindFloor(turnJournal.getOldestRows());
+    }
+
+    /**
+     * Whether the conversation can be cut back to its first {@code rows} rows: a turn must have
+     * ended there since the journal started, among the last turns it keeps, and past the rows
+     * already moved to the archive.
+     */
+    @MainThread
+    public boolean canRewindTo(int rows) {
+        return rows >= getRepository().getArchivedRows() && turnJournal.stateAt(rows) != null;
+    }
+
+    /**
+     * Restores the components to the turn that left {@code messages}, a truncation of the
+     * published history, and follows the search index back to it. The caller publishes and saves
+     * {@code messages}.
+     */
+    @MainThread
+    public boolean rewindTo(@NonNull MessageHistory messages) {
+        long start = System.nanoTime();
+        int rows = messages.size();
+        TurnJournal.EngineState state = turnJournal.stateAt(rows);
+        if (state == null || rows < getRepository().getArchivedRows()) {
+            return false;
+        }
+        FlightRecorder.record(FlightRecorder.Kind.REWIND, rows, 0L);
+        getDialogueSystem().restoreState(state);
+        turnJournal.truncate(rows);
+        updateRewindFloor();
+        if (!reindexing) {
+            // Otherwise the rebuild in flight misses this history and starts over.
+            searchIndex.truncate(messages);
+            persistSearchIndex();
+        }
+        pruneMessageBodies(messages);
+        REWIND_LATENCY.recordSince(start);
+        return true;
+    }
+
+    @NonNull
+    private TurnJournal.EngineState captureState() {
+        return getDialogueSystem().saveState();
+    }
+
+    /**
+     * Builds, on the background executor, the reply {@code draft} would get if sent now, so the
+     * turn can skip the pipeline when it is. Drafts queued behind a running dry run collapse into
+     * the latest; the live components are only read here, never written.
+     */
+    @MainThread
+    public void speculate(@NonNull String draft) {
+        if (draft.trim().isEmpty() || getStateStore().getSnapshot().isLoading()) {
+            speculation = null;
+            return;
+        }
+        TurnJournal.EngineState base = captureState();
+        if (speculation != null && speculation.matches(draft, base)) {
+            return;
+        }
+        if (pendingDraft.getAndSet(new Draft(draft, base)) == null) {
+            BACKGROUND_EXECUTOR.execute(() -> {
+                Draft latest = pendingDraft.getAndSet(null);
+                if (latest == null) {
+                    return;
+                }
+                final DialogueSystem.Speculation built =
+                        scratchDialogue.get().speculate(latest.base, latest.userInput);
+                mainHandler.post(() -> speculation = built);
+            });
+        }
+    }
+
+    /**
+     * Returns the precomputed reply to {@code userInput}, with the components advanced as
+     * {@link DialogueSystem#buildResponse} would have, or null if no dry run matches the input and
+     * the current state; the caller then builds the reply itself.
+     */
+    @MainThread
+    @Nullable
+    public DialogueSystem.DialogueResult takeSpeculation(@NonNull String userInput,
+                                                         int inputCount) {
+        DialogueSystem.Speculation taken = speculation;
+        speculation = null;
+        if (taken == null) {
+            return null;
+        }
+        if (inputCount != 1 || !taken.matches(userInput, captureState())) {
+            SPECULATION_MISSES.increment();
+            return null;
+        }
+        SPECULATION_HITS.increment();
+        return getDialogueSystem().commit(taken);
+    }
+
+    /**
+     * Archives cold history on the background executor, where it is ordered with history saves,
+     * then runs {@code onFinished} on that thread.
+     */
+    void runStorageMaintenance(@NonNull AtomicBoolean cancelled, @NonNull Runnable onFinished) {
+        BACKGROUND_EXECUTOR.execute(() -> {
+            try {
+                if (!cancelled.get()) {
+                    getRepository().archiveColdMessages(HOT_HISTORY_ROWS, MIN_ARCHIVE_ROWS,
+                            cancelled);
+                }
+            } finally {
+                onFinished.run();
+            }
+        });
+    }
+
+    /**
+     * Identifies the current session; replies scheduled under an older epoch must be dropped.
+     */
+    public int getSessionEpoch() {
+        return sessionEpoch;
+    }
+
+    public void advanceSessionEpoch() {
+        sessionEpoch++;
+    }
+
+    /**
+     * Reads the persisted session on a background thread, once per process. The store reports
+     * {@link ConversationSnapshot#isLoading()} until the history is published on the main thread.
+     */
+    public synchronized void hydrateSession() {
+        if (hydrationStarted) {
+            return;
+        }
+        hydrationStarted = true;
+        final int epoch = sessionEpoch;
+        final long start = System.nanoTime();
+        BACKGROUND_EXECUTOR.execute(() -> {
+            HistoryMaintenanceService.schedule(appContext);
+            TraceRecorder.begin("session.restore");
+            final MessageHistory messages = getRepository().loadMessages();
+            final StoryManager.Stage savedStage = getRepository().loadStage();
+            final boolean falseMemoryShared = getRepository().wasFalseMemoryShared();
+            final int userMessageCount = countUserMessages(messages);
+            HistoryIndex loadedIndex = getRepository().loadSearchIndex(messages);
+            final HistoryIndex index = loadedIndex != null ? loadedIndex : new HistoryIndex();
+            final int persistedRows = index.getIndexedRows();
+            index.update(messages);
+            TraceRecorder.end("session.restore");
+            mainHandler.post(() -> applyHydratedSession(epoch, start, messages, savedStage,
+                    falseMemoryShared, userMessageCount, index, persistedRows));
+        });
+    }
+
+    /**
+     * Applies the loaded session to the story components and publishes it. Component state is
+     * only touched here, on the main thread, so turns never race the background read.
+     */
+    @MainThread
+    private void applyHydratedSession(int epoch, long start, @NonNull MessageHistory messages,
+                                      @NonNull StoryManager.Stage savedStage, boolean falseMemoryShared,
+                                      int userMessageCount, @NonNull HistoryIndex index,
+                                      int persistedRows) {
+        if (epoch != sessionEpoch) {
+            // Reset while loading: the clean session is already published.
+            getStateStore().edit().setLoading(false).commit();
+            return;
+        }
+        getNarrativeScript().ingestHistory(messages);
+        getStoryManager().setUserMessageCount(userMessageCount);
+        getStoryManager().setStage(savedStage);
+        getStoryManager().setFirstFalseMemoryShared(falseMemoryShared);
+        startTurnJournal(messages.size());
+        searchIndex = index;
+        persistedIndexRows = persistedRows;
+        if (index.getIndexedRows() > persistedRows) {
+            persistSearchIndex();
+        }
+        getStateStore().edit()
+                .setMessages(messages)
+                .setStage(getStoryManager().getCurrentStage())
+                .setEmotion(getEmotionCurve().stateForStage(getStoryManager().getCurrentStage()))
+                .setDissonance(computeDissonance())
+                .setLoading(false)
+                .commit();
+        historyWindow.onHistoryChanged(messages);
+        RESTORE_LATENCY.recordSince(start);
+    }
+
+    public int computeDissonance() {
+        return Math.min(100, getStoryManager().getUserMessageCount() * 15
+                + getStoryManager().getCurrentStage().ordinal() * 25);
+    }
+
+    private static int countUserMessages(@NonNull MessageHistory messages) {
+        int count = 0;
+        for (int i = 0; i < messages.size(); i++) {
+            if (messages.getSender(i) == Message.Sender.USER) {
+                count++;
+            }
+        }
+        return count;
     }
 }
@@ -0,0 +1,95 @@
+package com.example.memoglitch.model;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Immutable view of the conversation published by {@link ConversationStateStore} once per
+ * transaction, so observers never see a half-applied turn.
+ */
+public final class ConversationSnapshot {
+
+    /**
+     * The three-step progress indicator shown under the header; later stages share the last step.
+     */
+    public enum StageIndicator {
+        NORMAL,
+        GLITCH,
+        REVEAL;
+
+        @NonNull
+        public static StageIndicator forStage(@NonNull StoryManager.Stage stage) {
+            switch (stage) {
+                case NORMAL:
+                    return NORMAL;
+                case GLITCH:
+                    return GLITCH;
+                default:
+                    return REVEAL;
+            }
+        }
+    }
+
+    private final MessageHistory messages;
+    private final StoryManager.Stage stage;
+    private final GlitchEffect.GlitchState glitchState;
+    private final EmotionCurve.EmotionState emotionState;
+    private final boolean typing;
+    private final int dissonance;
+    private final boolean loading;
+
+    ConversationSnapshot(@NonNull MessageHistory messages,
+                         @NonNull StoryManager.Stage stage,
+                         @NonNull GlitchEffect.GlitchState glitchState,
+                         @NonNull EmotionCurve.EmotionState emotionState,
+                         boolean typing,
+                         int dissonance,
+                         boolean loading) {
+        this.messages = messages;
+        this.stage = stage;
+        this.glitchState = glitchState;
+        this.emotionState = emotionState;
+        this.typing = typing;
+        this.dissonance = dissonance;
+        this.loading = loading;
+    }
+
+    @NonNull
+    public MessageHistory getMessages() {
+        return messages;
+    }
+
+    @NonNull
+    public StoryManager.Stage getStage() {
+        return stage;
+    }
+
+    @NonNull
+    public StageIndicator getStageIndicator() {
+        return StageIndicator.forStage(stage);
+    }
+
+    @NonNull
+    public GlitchEffect.GlitchState getGlitchState() {
+        return glitchState;
+    }
+
+    @NonNull
+    public EmotionCurve.EmotionState getEmotionState() {
+        return emotionState;
+    }
+
+    public boolean isTyping() {
+        return typing;
+    }
+
+    public int getDissonance() {
+        return dissonance;
+    }
+
+    /**
+     * True until the persisted session has been read; the history is empty while loading.
+     */
+    public boolean isLoading() {
+        return loading;
+    }
+}
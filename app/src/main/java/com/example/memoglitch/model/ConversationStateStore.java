@@ -2,26 +2,153 @@ package com.example.memoglitch.model;
 
 import androidx.annotation.NonNull;
 import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MediatorLiveData;
 import androidx.lifecycle.MutableLiveData;
+import androidx.lifecycle.Observer;
+
+import com.example.memoglitch.model.events.EventPublisher;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
 
 /**
- * Shared store that exposes LiveData objects consumed by multiple ViewModels.
+ * Shared store that exposes LiveData objects consumed by multiple ViewModels. Conversation state
+ * is published as one {@link ConversationSnapshot} per {@link Transaction}; the per-slice LiveData
+ * are memoized selectors over it that only emit when their slice actually changes. Each commit
+ * also publishes what changed as {@link EngineEvent}s, for consumers off the main thread that
+ * need every change rather than the latest state.
  */
 public class ConversationStateStore {
 
-    private final MutableLiveData<List<Message>> messagesLiveData = new MutableLiveData<>(new ArrayList<>());
-    private final MutableLiveData<StoryManager.Stage> stageLiveData = new MutableLiveData<>(StoryManager.Stage.NORMAL);
-    private final MutableLiveData<GlitchEffect.GlitchState> glitchLiveData = new MutableLiveData<>(new GlitchEffect.GlitchState(false, ""));
-    private final MutableLiveData<EmotionCurve.EmotionState> emotionLiveData = new MutableLiveData<>(new EmotionCurve().stateForStage(StoryManager.Stage.NORMAL));
-    private final MutableLiveData<Boolean> typingLiveData = new MutableLiveData<>(false);
+    private final EventPublisher<EngineEvent> events;
+
+    private final MutableLiveData<ConversationSnapshot> snapshotLiveData = new MutableLiveData<>(
+            new ConversationSnapshot(MessageHistory.empty(),
+                    StoryManager.Stage.NORMAL,
+                    GlitchEffect.INACTIVE,
+                    new EmotionCurve().stateForStage(StoryManager.Stage.NORMAL),
+                    false,
+                    0,
+                    true));
+    private final LiveData<MessageHistory> messagesLiveData = select(ConversationSnapshot::getMessages);
+    private final LiveData<StoryManager.Stage> stageLiveData = select(ConversationSnapshot::getStage);
+    private final LiveData<ConversationSnapshot.StageIndicator> stageIndicatorLiveData =
+            select(ConversationSnapshot::getStageIndicator);
+    private final LiveData<GlitchEffect.GlitchState> glitchLiveData = select(ConversationSnapshot::getGlitchState);
+    private final LiveData<EmotionCurve.EmotionState> emotionLiveData = select(ConversationSnapshot::getEmotionState);
+    private final LiveData<Boolean> typingLiveData = select(ConversationSnapshot::isTyping);
+    private final LiveData<Integer> dissonanceLiveData = select(ConversationSnapshot::getDissonance);
+    private final LiveData<Boolean> loadingLiveData = select(ConversationSnapshot::isLoading);
     private final MutableLiveData<Float> textSizeLiveData = new MutableLiveData<>(14f);
     private final MutableLiveData<Boolean> vibrationEnabledLiveData = new MutableLiveData<>(true);
-    private final MutableLiveData<Integer> dissonanceLiveData = new MutableLiveData<>(0);
 
-    public LiveData<List<Message>> getMessagesLiveData() {
+    ConversationStateStore(@NonNull EventPublisher<EngineEvent> events) {
+        this.events = events;
+    }
+
+    /**
+     * Accumulates changes against the current snapshot and publishes them together on
+     * {@link #commit()}. Must be used on the main thread.
+     */
+    public final class Transaction {
+
+        private MessageHistory messages;
+        private StoryManager.Stage stage;
+        private GlitchEffect.GlitchState glitchState;
+        private EmotionCurve.EmotionState emotionState;
+        private boolean typing;
+        private int dissonance;
+        private boolean loading;
+        private final List<EngineEvent> raised = new ArrayList<>(2);
+
+        private Transaction(@NonNull ConversationSnapshot base) {
+            messages = base.getMessages();
+            stage = base.getStage();
+            glitchState = base.getGlitchState();
+            emotionState = base.getEmotionState();
+            typing = base.isTyping();
+            dissonance = base.getDissonance();
+            loading = base.isLoading();
+        }
+
+        @NonNull
+        public Transaction setMessages(@NonNull MessageHistory messages) {
+            this.messages = messages;
+            return this;
+        }
+
+        @NonNull
+        public Transaction setStage(@NonNull StoryManager.Stage stage) {
+            this.stage = stage;
+            return this;
+        }
+
+        @NonNull
+        public Transaction setGlitch(@NonNull GlitchEffect.GlitchState glitchState) {
+            this.glitchState = glitchState;
+            return this;
+        }
+
+        @NonNull
+        public Transaction setEmotion(@NonNull EmotionCurve.EmotionState emotionState) {
+            this.emotionState = emotionState;
+            return this;
+        }
+
+        @NonNull
+        public Transaction setTyping(boolean typing) {
+            this.typing = typing;
+            return this;
+        }
+
+        @NonNull
+        public Transaction setDissonance(int dissonance) {
+            this.dissonance = dissonance;
+            return this;
+        }
+
+        @NonNull
+        public Transaction setLoading(boolean loading) {
+            this.loading = loading;
+            return this;
+        }
+
+        /**
+         * Publishes {@code event} on commit, after the events derived from the new snapshot's
+         * messages and before those derived from its stage and glitch.
+         */
+        @NonNull
+        public Transaction raise(@NonNull EngineEvent event) {
+            raised.add(event);
+            return this;
+        }
+
+        public void commit() {
+            ConversationSnapshot previous = getSnapshot();
+            ConversationSnapshot next = new ConversationSnapshot(messages, stage, glitchState,
+                    emotionState, typing, dissonance, loading);
+            snapshotLiveData.setValue(next);
+            publishChanges(previous, next, raised);
+        }
+    }
+
+    @NonNull
+    public Transaction edit() {
+        return new Transaction(getSnapshot());
+    }
+
+    @NonNull
+    public ConversationSnapshot getSnapshot() {
+        return Objects.requireNonNull(snapshotLiveData.getValue());
+    }
+
+    public LiveData<ConversationSnapshot> getSnapshotLiveData() {
+        return snapshotLiveData;
+    }
+
+    public LiveData<MessageHistory> getMessagesLiveData() {
         return messagesLiveData;
     }
 
@@ -29,6 +156,10 @@ public class ConversationStateStore {
         return stageLiveData;
     }
 
+    public LiveData<ConversationSnapshot.StageIndicator> getStageIndicatorLiveData() {
+        return stageIndicatorLiveData;
+    }
+
     public LiveData<GlitchEffect.GlitchState> getGlitchLiveData() {
         return glitchLiveData;
     }
@@ -41,6 +172,10 @@ public class ConversationStateStore {
         return typingLiveData;
     }
 
+    public LiveData<Boolean> getLoadingLiveData() {
+        return loadingLiveData;
+    }
+
     public LiveData<Float> getTextSizeLiveData() {
         return textSizeLiveData;
     }
@@ -53,35 +188,83 @@ public class ConversationStateStore {
         return dissonanceLiveData;
     }
 
-    public void setMessages(@NonNull List<Message> messages) {
-        messagesLiveData.setValue(messages);
-    }
-
-    public void setStage(@NonNull StoryManager.Stage stage) {
-        stageLiveData.setValue(stage);
+    public void setTextSize(float textSize) {
+        Float current = textSizeLiveData.getValue();
+        if (current == null || current != textSize) {
+            textSizeLiveData.setValue(textSize);
+        }
     }
 
-    public void setGlitch(@NonNull GlitchEffect.GlitchState glitchState) {
-        glitchLiveData.setValue(glitchState);
+    public void setVibrationEnabled(boolean enabled) {
+        vibrationEnabledLiveData.setValue(enabled);
     }
 
-    public void setEmotion(@NonNull EmotionCurve.EmotionState emotionState) {
-        emotionLiveData.setValue(emotionState);
+    /**
+     * Publishes the events between two consecutive snapshots. Rows restored by hydration are
+     * announced as one replacement rather than row by row.
+     */
+    private void publishChanges(@NonNull ConversationSnapshot previous,
+                                @NonNull ConversationSnapshot next,
+                                @NonNull List<EngineEvent> raised) {
+        if (events.getSubscriberCount() == 0) {
+            return;
+        }
+        MessageHistory before = previous.getMessages();
+        MessageHistory after = next.getMessages();
+        if (before != after) {
+            if (previous.isLoading() || !before.isPrefixOf(after)) {
+                events.publish(EngineEvent.historyReplaced(next.getStage(), after));
+            } else {
+                for (int row = before.size(); row < after.size(); row++) {
+                    events.publish(EngineEvent.messageAppended(after, row));
+                }
+            }
+        }
+        for (int i = 0; i < raised.size(); i++) {
+            events.publish(raised.get(i));
+        }
+        if (next.getStage() != previous.getStage()) {
+            events.publish(EngineEvent.stageChanged(next.getStage()));
+        }
+        GlitchEffect.GlitchState glitch = next.getGlitchState();
+        if (glitch != previous.getGlitchState() && glitch.isActive()) {
+            events.publish(EngineEvent.glitchTriggered(next.getStage(), glitch));
+        }
     }
 
-    public void setTyping(boolean typing) {
-        typingLiveData.setValue(typing);
-    }
+    /**
+     * Derives a slice of the snapshot that re-emits only when the selected value changes, so
+     * observers of untouched slices are not re-dispatched.
+     */
+    @NonNull
+    private <T> LiveData<T> select(@NonNull Function<ConversationSnapshot, T> selector) {
+        MediatorLiveData<T> slice = new MediatorLiveData<>();
+        slice.addSource(snapshotLiveData, new Observer<ConversationSnapshot>() {
+            private boolean initialised;
+            private T last;
 
-    public void setTextSize(float textSize) {
-        textSizeLiveData.setValue(textSize);
-    }
-
-    public void setVibrationEnabled(boolean enabled) {
-        vibrationEnabledLiveData.setValue(enabled);
+            @Override
+            public void onChanged(ConversationSnapshot snapshot) {
+                T value = selector.apply(snapshot);
+                if (initialised && isSameSlice(last, value)) {
+                    return;
+                }
+                initialised = true;
+                last = value;
+                slice.setValue(value);
+            }
+        });
+        return slice;
     }
 
-    public void setDissonance(int dissonance) {
-        dissonanceLiveData.setValue(dissonance);
+    /**
+     * Slices carried over from the previous snapshot keep their reference, so identity is enough
+     * for objects (and avoids an O(n) list comparison); boxed primitives compare by value.
+     */
+    private static boolean isSameSlice(Object previous, Object next) {
+        if (previous == next) {
+            return true;
+        }
+        return (next instanceof Number || next instanceof Boolean) && next.equals(previous);
     }
 }
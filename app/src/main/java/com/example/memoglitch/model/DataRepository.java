@@ -4,60 +4,279 @@ import android.content.Context;
 import android.content.SharedPreferences;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.example.memoglitch.model.metrics.Counter;
+import com.example.memoglitch.model.metrics.FlightRecorder;
+import com.example.memoglitch.model.metrics.Gauge;
+import com.example.memoglitch.model.metrics.LatencyHistogram;
+import com.example.memoglitch.model.metrics.Metrics;
+import com.example.memoglitch.model.metrics.TraceRecorder;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 
 /**
- * Handles local persistence using SharedPreferences.
+ * Handles local persistence using SharedPreferences. The history is split into a hot tail kept
+ * in preferences and a compressed {@link HistoryArchive} of older rows, which maintenance fills
+ * while the device is idle.
  */
 public class DataRepository {
 
     private static final String PREF_NAME = "identity_glitch_prefs";
     private static final String KEY_MESSAGES = "messages";
+    private static final String KEY_STRINGS = "strings";
     private static final String KEY_STAGE = "stage";
     private static final String KEY_TEXT_SIZE = "text_size";
     private static final String KEY_VIBRATION = "vibration";
+    private static final String KEY_TRANSCRIPT_DISTORTION = "transcript_distortion";
     private static final String KEY_FALSE_MEMORY_SHARED = "false_memory";
+    private static final String KEY_ARCHIVED_ROWS = "archived_rows";
+    private static final String SEARCH_INDEX_FILE = "history_index.bin";
+    private static final String ARCHIVE_DIR = "history_archive";
+    private static final String SPILL_DIR = "history_spill";
+    private static final String BODIES_DIR = "message_bodies";
     private static final float DEFAULT_TEXT_SIZE = 14f;
+    // Evicted rows archived per spill read; bounds the text a save holds in memory at once.
+    private static final int ARCHIVE_CHUNK_ROWS = 8 * HistoryArchive.BLOCK_ROWS;
+    private static final LatencyHistogram SAVE_LATENCY = Metrics.histogram("repository.save_messages");
+    private static final LatencyHistogram LOAD_LATENCY = Metrics.histogram("repository.load_messages");
+    private static final Gauge PERSISTED_MESSAGES = Metrics.gauge("repository.persisted_messages");
+    private static final LatencyHistogram ARCHIVE_LATENCY = Metrics.histogram("archive.maintenance");
+    private static final Counter ARCHIVED_MESSAGES = Metrics.counter("archive.archived_messages");
+    private static final Counter ARCHIVE_CORRUPT_CHUNKS = Metrics.counter("archive.corrupt_chunks");
+    private static final Gauge ARCHIVE_SEGMENTS = Metrics.gauge("archive.segments");
 
     private final SharedPreferences preferences;
+    private final File searchIndexFile;
+    private final File spillDir;
+    private final HistoryArchive archive;
+    private final MessageBodies messageBodies;
+    // Rows moved to the archive; hot storage holds the rows after them. -1 until first read.
+    private volatile int archivedRows = -1;
+    // Bumped by clearSession, so a maintenance pass that raced a reset does not commit.
+    private volatile int sessionGeneration;
+    // Rows from here on may still be rewound over, so they are never archived.
+    private volatile int rewindFloor = Integer.MAX_VALUE;
+    // The history last loaded or saved, which saving again would only rewrite.
+    @Nullable
+    private volatile MessageHistory persisted;
 
     public DataRepository(@NonNull Context context) {
         preferences = context.getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE);
+        searchIndexFile = new File(context.getFilesDir(), SEARCH_INDEX_FILE);
+        spillDir = new File(context.getCacheDir(), SPILL_DIR);
+        archive = new HistoryArchive(new File(context.getFilesDir(), ARCHIVE_DIR));
+        messageBodies = new MessageBodies(new File(context.getFilesDir(), BODIES_DIR));
+    }
+
+    /**
+     * Full text of messages too long to keep in the history.
+     */
+    @NonNull
+    public MessageBodies getMessageBodies() {
+        return messageBodies;
+    }
+
+    /**
+     * Persists the history. Rows already evicted from memory are first moved to the archive, up
+     * to the rewind floor, so hot storage only ever holds the rows after the archive: as records
+     * referencing a table of distinct texts, so a line Echo repeats is written once. Evicted text
+     * is read back from the spill a range at a time, so this runs on a worker thread.
+     */
+    @WorkerThread
+    public void saveMessages(@NonNull MessageHistory messages) {
+        if (messages == persisted) {
+            return;
+        }
+        long start = System.nanoTime();
+        TraceRecorder.begin("repository.save_messages");
+        try {
+            int generation = sessionGeneration;
+            int archived = Math.min(archivedRows(), messages.size());
+            int archiveTo = Math.min(messages.getEvictedRows(), rewindFloor);
+            if (archiveTo <= archived || !archiveEvicted(messages, archived, archiveTo)) {
+                archiveTo = archived;
+            }
+            SharedPreferences.Editor editor = preferences.edit();
+            int saved;
+            try {
+                saved = putMessages(editor, messages, archiveTo);
+            } catch (IOException e) {
+                // The spill went with a newer lineage, whose own save follows.
+                return;
+            }
+            synchronized (this) {
+                if (generation != sessionGeneration) {
+                    // Reset meanwhile; the save of the new session follows. Segments archived
+                    // here are past the archived rows and dropped by the next archive write.
+                    return;
+                }
+                // Rows and archived count change together, so a lost write loses both.
+                editor.putInt(KEY_ARCHIVED_ROWS, archiveTo).apply();
+                archivedRows = archiveTo;
+                persisted = messages;
+            }
+            FlightRecorder.recordSince(FlightRecorder.Kind.SAVE, saved, start);
+            PERSISTED_MESSAGES.set(saved);
+        } finally {
+            TraceRecorder.end("repository.save_messages");
+            SAVE_LATENCY.recordSince(start);
+        }
+    }
+
+    /**
+     * Sets the earliest row a rewind can still cut the history back to. Rows from there on stay
+     * in hot storage, since only hot rows can be rewound over. Called as turns are journaled.
+     */
+    public void setRewindFloor(int rows) {
+        rewindFloor = rows;
     }
 
-    public void saveMessages(@NonNull List<Message> messages) {
+    /**
+     * Appends evicted rows {@code [from, to)} of {@code messages}, the rows right after the
+     * archive, to the archive, reading each chunk of text from the spill in one pass. Returns
+     * false, with the archive back at {@code from} rows, if anything fails.
+     */
+    private boolean archiveEvicted(@NonNull MessageHistory messages, int from, int to) {
+        if (archive.truncate(from) != from) {
+            return false;
+        }
+        try {
+            for (int chunk = from; chunk < to; chunk += ARCHIVE_CHUNK_ROWS) {
+                int end = Math.min(to, chunk + ARCHIVE_CHUNK_ROWS);
+                MessageHistory paged = messages.withPage(chunk, messages.readEvicted(chunk, end));
+                archive.append(paged, chunk, end);
+            }
+        } catch (IOException e) {
+            archive.truncate(from);
+            return false;
+        }
+        ARCHIVED_MESSAGES.add(to - from);
+        ARCHIVE_SEGMENTS.set(archive.getSegmentCount());
+        return true;
+    }
+
+    /**
+     * Writes rows {@code [from, size)} of {@code messages} into {@code editor} and returns how
+     * many were written. Evicted rows among them are read from the spill in one range.
+     */
+    private static int putMessages(@NonNull SharedPreferences.Editor editor,
+                                   @NonNull MessageHistory messages, int from) throws IOException {
+        StringTable.Entries texts = messages.getTexts();
+        int evictedTo = Math.max(from, messages.getEvictedRows());
+        String[] evictedTexts = evictedTo > from
+                ? messages.readEvicted(from, evictedTo) : new String[0];
+        int[] refs = new int[texts.count];
+        Arrays.fill(refs, -1);
+        Map<String, Integer> evictedRefs = new HashMap<>();
+        JSONArray strings = new JSONArray();
         JSONArray array = new JSONArray();
-        for (Message message : messages) {
+        for (int i = from; i < messages.size(); i++) {
+            int textId = messages.getTextId(i);
+            int ref;
+            if (textId < 0) {
+                String text = evictedTexts[i - from];
+                Integer known = evictedRefs.get(text);
+                if (known == null) {
+                    known = strings.length();
+                    evictedRefs.put(text, known);
+                    strings.put(text);
+                }
+                ref = known;
+            } else {
+                if (refs[textId] < 0) {
+                    refs[textId] = strings.length();
+                    strings.put(texts.get(textId));
+                }
+                ref = refs[textId];
+            }
             JSONObject object = new JSONObject();
             try {
-                object.put("sender", message.getSender().name());
-                object.put("text", message.getText());
-                object.put("glitch", message.isGlitch());
-                object.put("timestamp", message.getTimestamp());
-                object.put("stage", message.getStageAtSend().name());
+                object.put("sender", messages.getSender(i).name());
+                object.put("ref", ref);
+                object.put("glitch", messages.isGlitch(i));
+                if (messages.getGlitchIntensity(i) > 0f) {
+                    object.put("seed", messages.getGlitchSeed(i));
+                    object.put("intensity", (double) messages.getGlitchIntensity(i));
+                }
+                object.put("timestamp", messages.getTimestamp(i));
+                object.put("stage", messages.getStage(i).name());
             } catch (JSONException e) {
                 // Skip this message if serialization fails.
                 continue;
             }
             array.put(object);
         }
-        preferences.edit().putString(KEY_MESSAGES, array.toString()).apply();
+        editor.putString(KEY_STRINGS, strings.toString())
+                .putString(KEY_MESSAGES, array.toString());
+        return array.length();
     }
 
+    /**
+     * Restores the history: archived rows come back with their text evicted to a spill backed by
+     * the archive, followed by the hot rows from preferences.
+     */
+    @WorkerThread
     @NonNull
-    public List<Message> loadMessages() {
+    public MessageHistory loadMessages() {
+        long start = System.nanoTime();
+        TraceRecorder.begin("repository.load_messages");
+        clearSpills();
+        MessageHistory messages = readMessages(readArchivedMessages());
+        persisted = messages;
+        TraceRecorder.end("repository.load_messages");
+        LOAD_LATENCY.recordSince(start);
+        FlightRecorder.recordSince(FlightRecorder.Kind.LOAD, messages.size(), start);
+        PERSISTED_MESSAGES.set(messages.size() - archivedRows());
+        return messages;
+    }
+
+    @NonNull
+    private MessageHistory readArchivedMessages() {
+        int archived = archivedRows();
+        // Also drops segments left by a maintenance pass that never committed, or by a reset.
+        int rows = archive.truncate(archived);
+        if (rows > 0) {
+            try {
+                MessageHistory metadata = archive.appendMetadata(MessageHistory.empty());
+                MessageHistory messages = metadata.evictBefore(rows, createSpill(archive));
+                setArchivedRows(rows);
+                return messages;
+            } catch (IOException e) {
+                // An unreadable archive is dropped; the hot rows are still restored.
+                ARCHIVE_CORRUPT_CHUNKS.increment();
+                rows = archive.truncate(0);
+            }
+        }
+        setArchivedRows(rows);
+        return MessageHistory.empty();
+    }
+
+    @NonNull
+    private MessageHistory readMessages(@NonNull MessageHistory messages) {
         String json = preferences.getString(KEY_MESSAGES, null);
-        List<Message> messages = new ArrayList<>();
         if (json == null) {
             return messages;
         }
         try {
+            String[] strings = readStrings();
             JSONArray array = new JSONArray(json);
             for (int i = 0; i < array.length(); i++) {
                 JSONObject object = array.optJSONObject(i);
@@ -65,19 +284,190 @@ public class DataRepository {
                     continue;
                 }
                 String senderString = object.optString("sender", Message.Sender.AI.name());
-                String text = object.optString("text", "");
+                int ref = object.optInt("ref", -1);
+                // Records saved before the string table carry their text inline.
+                String text = ref >= 0 && ref < strings.length
+                        ? strings[ref] : object.optString("text", "");
                 boolean glitch = object.optBoolean("glitch", false);
+                long seed = object.optLong("seed", 0L);
+                float intensity = (float) object.optDouble("intensity", 0d);
                 long timestamp = object.optLong("timestamp", System.currentTimeMillis());
                 String stageString = object.optString("stage", StoryManager.Stage.NORMAL.name());
                 Message.Sender sender = Message.Sender.valueOf(senderString);
                 StoryManager.Stage stage = StoryManager.Stage.valueOf(stageString);
-                messages.add(new Message(sender, text, glitch, timestamp, stage));
+                // Rows go straight into the columns; no Message is materialised per entry.
+                messages = messages.append(sender, text, glitch, seed, intensity, timestamp, stage);
             }
         } catch (JSONException ignored) {
         }
         return messages;
     }
 
+    @NonNull
+    private String[] readStrings() throws JSONException {
+        String json = preferences.getString(KEY_STRINGS, null);
+        if (json == null) {
+            return new String[0];
+        }
+        JSONArray array = new JSONArray(json);
+        String[] strings = new String[array.length()];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = array.optString(i, "");
+        }
+        return strings;
+    }
+
+    /**
+     * Moves the hot rows older than the newest {@code hotRows} into the archive once at least
+     * {@code minRows} can go, then rewrites hot storage with only the remaining rows. Existing
+     * archive chunks are re-verified first. Rows from the rewind floor on are never moved. The
+     * archive is written and read back before hot storage is committed, and a pass interrupted in
+     * between is undone on the next load. Returns the number of rows archived.
+     */
+    @WorkerThread
+    public int archiveColdMessages(int hotRows, int minRows, @NonNull AtomicBoolean cancelled) {
+        long start = System.nanoTime();
+        TraceRecorder.begin("archive.maintenance");
+        try {
+            int generation = sessionGeneration;
+            int archived = archivedRows();
+            if (archive.truncate(archived) != archived) {
+                // Segments are missing; leave the rows in hot storage rather than misnumber them.
+                return 0;
+            }
+            int corrupt = archive.verify();
+            if (corrupt > 0) {
+                ARCHIVE_CORRUPT_CHUNKS.add(corrupt);
+            }
+            MessageHistory hot = readMessages(MessageHistory.empty());
+            // Rows a rewind can still return to must stay hot, where it can drop them.
+            int move = Math.min(hot.size() - hotRows, rewindFloor - archived);
+            if (move < minRows || cancelled.get()) {
+                return 0;
+            }
+            SharedPreferences.Editor editor = preferences.edit();
+            try {
+                archive.append(hot, 0, move);
+                putMessages(editor, hot, move);
+            } catch (IOException e) {
+                archive.truncate(archived);
+                return 0;
+            }
+            boolean committed;
+            synchronized (this) {
+                committed = !cancelled.get() && generation == sessionGeneration
+                        && move <= rewindFloor - archived;
+                if (committed) {
+                    // Rows and archived count are written together, so if the write is lost
+                    // the next load trims the archive back to the rows still in hot storage.
+                    editor.putInt(KEY_ARCHIVED_ROWS, archived + move).apply();
+                    archivedRows = archived + move;
+                }
+            }
+            if (!committed) {
+                archive.truncate(generation != sessionGeneration ? 0 : archived);
+                return 0;
+            }
+            ARCHIVED_MESSAGES.add(move);
+            PERSISTED_MESSAGES.set(hot.size() - move);
+            FlightRecorder.recordSince(FlightRecorder.Kind.ARCHIVE, move, start);
+            return move;
+        } finally {
+            ARCHIVE_SEGMENTS.set(archive.getSegmentCount());
+            TraceRecorder.end("archive.maintenance");
+            ARCHIVE_LATENCY.recordSince(start);
+        }
+    }
+
+    /**
+     * Number of leading rows held in the archive rather than hot storage.
+     */
+    public int getArchivedRows() {
+        return archivedRows();
+    }
+
+    private int archivedRows() {
+        int rows = archivedRows;
+        if (rows < 0) {
+            rows = preferences.getInt(KEY_ARCHIVED_ROWS, 0);
+            archivedRows = rows;
+        }
+        return rows;
+    }
+
+    private void setArchivedRows(int rows) {
+        if (rows != archivedRows()) {
+            archivedRows = rows;
+            preferences.edit().putInt(KEY_ARCHIVED_ROWS, rows).apply();
+        }
+    }
+
+    /**
+     * Creates an empty spill for evicted text, starting after the rows of {@code archive} if
+     * given.
+     */
+    @WorkerThread
+    @NonNull
+    TextSpill createSpill(@Nullable HistoryArchive archive) throws IOException {
+        if (!spillDir.isDirectory() && !spillDir.mkdirs()) {
+            throw new IOException("Cannot create " + spillDir);
+        }
+        return new TextSpill(File.createTempFile("history", ".spill", spillDir), archive);
+    }
+
+    /**
+     * Deletes spills left by earlier processes; called before this process creates any.
+     */
+    private void clearSpills() {
+        File[] files = spillDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Writes the search index next to the history. The file is replaced atomically, so a crash
+     * mid-write leaves the previous index, which the next load catches up from the history.
+     */
+    @WorkerThread
+    public void saveSearchIndex(@NonNull HistoryIndex.Snapshot snapshot) {
+        File temp = new File(searchIndexFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp)))) {
+            HistoryIndex.write(snapshot, out);
+        } catch (IOException e) {
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(searchIndexFile)) {
+            temp.delete();
+        }
+    }
+
+    @WorkerThread
+    public void deleteSearchIndex() {
+        searchIndexFile.delete();
+    }
+
+    /**
+     * Returns the persisted index if it still describes a prefix of {@code messages}, or null.
+     */
+    @WorkerThread
+    @Nullable
+    public HistoryIndex loadSearchIndex(@NonNull MessageHistory messages) {
+        if (!searchIndexFile.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(searchIndexFile)))) {
+            return HistoryIndex.read(in, messages);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
     public void saveStage(@NonNull StoryManager.Stage stage) {
         preferences.edit().putString(KEY_STAGE, stage.name()).apply();
     }
@@ -112,9 +502,32 @@ public class DataRepository {
         return preferences.getBoolean(KEY_VIBRATION, true);
     }
 
-    public void clearSession() {
+    /**
+     * Whether exported transcripts show glitched replies as the player saw them rather than as
+     * the clean text Echo composed.
+     */
+    public void saveTranscriptDistortionEnabled(boolean enabled) {
+        preferences.edit().putBoolean(KEY_TRANSCRIPT_DISTORTION, enabled).apply();
+    }
+
+    public boolean isTranscriptDistortionEnabled() {
+        return preferences.getBoolean(KEY_TRANSCRIPT_DISTORTION, true);
+    }
+
+    /**
+     * Forgets the session. Archive segments are left for the next load or maintenance pass to
+     * delete, and the search index for {@link #deleteSearchIndex}, so a reset never waits on file
+     * I/O.
+     */
+    public synchronized void clearSession() {
+        FlightRecorder.record(FlightRecorder.Kind.RESET);
+        sessionGeneration++;
+        archivedRows = 0;
+        persisted = null;
         preferences.edit()
                 .remove(KEY_MESSAGES)
+                .remove(KEY_STRINGS)
+                .remove(KEY_ARCHIVED_ROWS)
                 .remove(KEY_STAGE)
                 .remove(KEY_FALSE_MEMORY_SHARED)
                 .apply();
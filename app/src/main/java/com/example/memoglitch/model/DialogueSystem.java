@@ -1,32 +1,43 @@
 package com.example.memoglitch.model;
 
+import androidx.annotation.MainThread;
 import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
 
-import java.util.ArrayList;
-import java.util.List;
+import com.example.memoglitch.model.metrics.Counter;
+import com.example.memoglitch.model.metrics.FlightRecorder;
+import com.example.memoglitch.model.metrics.LatencyHistogram;
+import com.example.memoglitch.model.metrics.Metrics;
+import com.example.memoglitch.model.metrics.TraceRecorder;
 
 /**
  * Orchestrates response generation by combining story, memory, emotion, and glitch systems.
  */
 public class DialogueSystem {
 
-    public static class DialogueResult {
+    private static final String LINE_SEPARATOR = "\n\n";
+    private static final LatencyHistogram BUILD_LATENCY = Metrics.histogram("dialogue.build_response");
+    private static final Counter TURNS = Metrics.counter("dialogue.turns");
+    private static final Counter MERGED_INPUTS = Metrics.counter("dialogue.merged_inputs");
+    private static final LatencyHistogram SPECULATE_LATENCY = Metrics.histogram("dialogue.speculate");
+
+    /**
+     * Outcome of one turn. Immutable, so a result stays valid after later turns.
+     */
+    public static final class DialogueResult {
         private final Message message;
         private final GlitchEffect.GlitchState glitchState;
         private final EmotionCurve.EmotionState emotionState;
-        private final String falseMemory;
-        private final String prediction;
-
-        public DialogueResult(@NonNull Message message,
-                              @NonNull GlitchEffect.GlitchState glitchState,
-                              @NonNull EmotionCurve.EmotionState emotionState,
-                              String falseMemory,
-                              String prediction) {
+        private final boolean falseMemoryShared;
+
+        DialogueResult(@NonNull Message message,
+                       @NonNull GlitchEffect.GlitchState glitchState,
+                       @NonNull EmotionCurve.EmotionState emotionState,
+                       boolean falseMemoryShared) {
             this.message = message;
             this.glitchState = glitchState;
             this.emotionState = emotionState;
-            this.falseMemory = falseMemory;
-            this.prediction = prediction;
+            this.falseMemoryShared = falseMemoryShared;
         }
 
         @NonNull
@@ -44,12 +55,41 @@ public class DialogueSystem {
             return emotionState;
         }
 
-        public String getFalseMemory() {
-            return falseMemory;
+        public boolean isFalseMemoryShared() {
+            return falseMemoryShared;
+        }
+    }
+
+    /**
+     * A reply built ahead of time for one input, together with the engine state it was built
+     * from and the state the turn left behind. Immutable, so it can be handed between threads.
+     */
+    public static final class Speculation {
+        final String userInput;
+        final TurnJournal.EngineState base;
+        final TurnJournal.EngineState after;
+        final String text;
+        final StoryManager.Stage stage;
+        final GlitchEffect.GlitchState glitchState;
+        final boolean falseMemoryShared;
+
+        Speculation(@NonNull String userInput, @NonNull TurnJournal.EngineState base,
+                    @NonNull TurnJournal.EngineState after, @NonNull DialogueResult result) {
+            this.userInput = userInput;
+            this.base = base;
+            this.after = after;
+            this.text = result.message.getText();
+            this.stage = result.message.getStageAtSend();
+            this.glitchState = result.glitchState;
+            this.falseMemoryShared = result.falseMemoryShared;
         }
 
-        public String getPrediction() {
-            return prediction;
+        /**
+         * Whether committing this reply for {@code userInput} from {@code current} gives exactly
+         * the turn {@link #buildResponse} would. The reply quotes the input, so it must match.
+         */
+        boolean matches(@NonNull String userInput, @NonNull TurnJournal.EngineState current) {
+            return this.userInput.equals(userInput) && base.sameAs(current);
         }
     }
 
@@ -58,58 +98,220 @@ public class DialogueSystem {
     private final EmotionCurve emotionCurve;
     private final GlitchEffect glitchEffect;
     private final NarrativeScript narrativeScript;
+    // False for dry runs, whose stages would otherwise read as live turns in traces.
+    private final boolean instrumented;
+    private final StringBuilder reply = new StringBuilder(256);
 
     public DialogueSystem(@NonNull StoryManager storyManager,
                           @NonNull MemorySystem memorySystem,
                           @NonNull EmotionCurve emotionCurve,
                           @NonNull GlitchEffect glitchEffect,
                           @NonNull NarrativeScript narrativeScript) {
+        this(storyManager, memorySystem, emotionCurve, glitchEffect, narrativeScript, true);
+    }
+
+    private DialogueSystem(@NonNull StoryManager storyManager,
+                           @NonNull MemorySystem memorySystem,
+                           @NonNull EmotionCurve emotionCurve,
+                           @NonNull GlitchEffect glitchEffect,
+                           @NonNull NarrativeScript narrativeScript,
+                           boolean instrumented) {
         this.storyManager = storyManager;
         this.memorySystem = memorySystem;
         this.emotionCurve = emotionCurve;
         this.glitchEffect = glitchEffect;
         this.narrativeScript = narrativeScript;
+        this.instrumented = instrumented;
     }
 
-    public DialogueResult buildResponse(@NonNull String userInput) {
-        String memoryFragment = memorySystem.peekUserFragment();
-        storyManager.registerUserMessage(userInput);
-        StoryManager.Stage stage = storyManager.getCurrentStage();
-        memorySystem.recordUserInput(userInput);
+    /**
+     * Returns a dialogue system over fresh components of its own, for dry runs that must never
+     * touch the live story state. Its turns are reported only as {@code dialogue.speculate}, not
+     * in the per-stage spans and latencies of live turns.
+     */
+    @NonNull
+    static DialogueSystem newScratch(@NonNull EmotionCurve emotionCurve) {
+        return new DialogueSystem(new StoryManager(), new MemorySystem(), emotionCurve,
+                new GlitchEffect(), new NarrativeScript(false), false);
+    }
 
-        List<String> lines = new ArrayList<>();
-        lines.add(narrativeScript.compose(stage, userInput, storyManager.getUserMessageCount(), memoryFragment));
+    @NonNull
+    TurnJournal.EngineState saveState() {
+        return new TurnJournal.EngineState(storyManager.saveState(), memorySystem.saveState(),
+                narrativeScript.savePositions(), glitchEffect.getRandomState());
+    }
 
-        String falseMemory = memorySystem.chooseFalseMemory(stage, userInput);
-        if (falseMemory != null) {
-            storyManager.setFirstFalseMemoryShared();
-            lines.add(falseMemory);
-        }
+    void restoreState(@NonNull TurnJournal.EngineState state) {
+        storyManager.restoreState(state.story);
+        memorySystem.restoreState(state.memory);
+        narrativeScript.restorePositions(state.narrativePositions);
+        glitchEffect.setRandomState(state.glitchRandomState);
+    }
 
-        String prediction = memorySystem.predictNextThought(stage);
-        if (prediction != null) {
-            lines.add(prediction);
+    /**
+     * Dry run: builds the reply {@code userInput} would get from {@code base}, starting this
+     * system's components from that state. Only for a {@link #newScratch} instance, which then
+     * belongs to the calling worker thread.
+     */
+    @WorkerThread
+    @NonNull
+    Speculation speculate(@NonNull TurnJournal.EngineState base, @NonNull String userInput) {
+        long start = System.nanoTime();
+        TraceRecorder.begin("dialogue.speculate");
+        try {
+            restoreState(base);
+            DialogueResult built = composeResponse(userInput, 1);
+            return new Speculation(userInput, base, saveState(), built);
+        } finally {
+            TraceRecorder.end("dialogue.speculate");
+            SPECULATE_LATENCY.recordSince(start);
         }
+    }
 
-        String combined = joinLines(lines);
-        GlitchEffect.GlitchState glitchState = glitchEffect.evaluate(stage, combined);
+    /**
+     * Takes the turn {@code speculation} built: the components jump to the state it left behind
+     * and the reply is stamped with the current time, as if {@link #buildResponse} had just run.
+     */
+    @MainThread
+    @NonNull
+    DialogueResult commit(@NonNull Speculation speculation) {
+        FlightRecorder.record(FlightRecorder.Kind.TURN, 1, speculation.userInput.hashCode());
+        StoryManager.Stage before = storyManager.getCurrentStage();
+        restoreState(speculation.after);
+        GlitchEffect.GlitchState glitchState = speculation.glitchState;
         Message message = new Message(Message.Sender.AI,
-                glitchState.getDistortedText(),
+                speculation.text,
                 glitchState.isActive(),
+                glitchState.getSeed(),
+                glitchState.getIntensity(),
                 System.currentTimeMillis(),
-                stage);
-        EmotionCurve.EmotionState emotionState = emotionCurve.stateForStage(stage);
-        return new DialogueResult(message, glitchState, emotionState, falseMemory, prediction);
+                speculation.stage);
+        DialogueResult result = new DialogueResult(message, glitchState,
+                emotionCurve.stateForStage(speculation.stage), speculation.falseMemoryShared);
+        TURNS.increment();
+        recordOutcome(before, result);
+        return result;
     }
 
-    private String joinLines(@NonNull List<String> lines) {
-        StringBuilder builder = new StringBuilder();
-        for (int i = 0; i < lines.size(); i++) {
-            builder.append(lines.get(i));
-            if (i < lines.size() - 1) {
-                builder.append("\n\n");
+    public DialogueResult buildResponse(@NonNull String userInput) {
+        return buildResponse(userInput, 1);
+    }
+
+    /**
+     * Builds one reply for {@code inputCount} player messages merged into {@code userInput}.
+     */
+    public DialogueResult buildResponse(@NonNull String userInput, int inputCount) {
+        long start = System.nanoTime();
+        FlightRecorder.record(FlightRecorder.Kind.TURN, inputCount, userInput.hashCode());
+        StoryManager.Stage before = storyManager.getCurrentStage();
+        TraceRecorder.begin("dialogue.build_response");
+        DialogueResult built;
+        try {
+            built = composeResponse(userInput, inputCount);
+        } finally {
+            TraceRecorder.end("dialogue.build_response");
+        }
+        BUILD_LATENCY.recordSince(start);
+        TURNS.increment();
+        MERGED_INPUTS.add(inputCount - 1);
+        recordOutcome(before, built);
+        return built;
+    }
+
+    /**
+     * Notes in the flight recorder what a live turn changed. Dry runs are not recorded.
+     */
+    private void recordOutcome(@NonNull StoryManager.Stage before, @NonNull DialogueResult built) {
+        StoryManager.Stage after = storyManager.getCurrentStage();
+        if (after != before) {
+            FlightRecorder.record(FlightRecorder.Kind.STAGE, before.ordinal(), after.ordinal());
+        }
+        if (built.isFalseMemoryShared()) {
+            FlightRecorder.record(FlightRecorder.Kind.FALSE_MEMORY);
+        }
+        GlitchEffect.GlitchState glitch = built.getGlitchState();
+        if (glitch.isActive()) {
+            FlightRecorder.record(FlightRecorder.Kind.GLITCH,
+                    Math.round(glitch.getIntensity() * 1000f), glitch.getSeed());
+        }
+    }
+
+    private void beginSpan(@NonNull String name) {
+        if (instrumented) {
+            TraceRecorder.begin(name);
+        }
+    }
+
+    private void endSpan(@NonNull String name) {
+        if (instrumented) {
+            TraceRecorder.end(name);
+        }
+    }
+
+    /**
+     * Writes every line of the reply into one reused builder. Besides the reply text, a
+     * steady-state turn allocates only the {@link Message}, its {@link DialogueResult}, the
+     * generator's seed state, the input fragment {@link MemorySystem} keeps and, on glitch turns,
+     * the {@link GlitchEffect.GlitchState}; a speculated turn adds its {@link Speculation} and
+     * the two states it carries.
+     */
+    private DialogueResult composeResponse(@NonNull String userInput, int inputCount) {
+        String memoryFragment;
+        StoryManager.Stage stage;
+        beginSpan("dialogue.story");
+        try {
+            memoryFragment = memorySystem.peekUserFragment();
+            storyManager.registerUserMessages(userInput, inputCount);
+            stage = storyManager.getCurrentStage();
+            memorySystem.recordUserInput(userInput);
+        } finally {
+            endSpan("dialogue.story");
+        }
+
+        reply.setLength(0);
+        beginSpan("dialogue.narrative");
+        try {
+            narrativeScript.composeInto(reply, stage, userInput,
+                    storyManager.getUserMessageCount(), memoryFragment, glitchEffect.getRandom());
+        } finally {
+            endSpan("dialogue.narrative");
+        }
+
+        boolean falseMemory;
+        beginSpan("dialogue.memory");
+        try {
+            int mark = reply.length();
+            reply.append(LINE_SEPARATOR);
+            falseMemory = memorySystem.appendFalseMemory(reply, stage, userInput);
+            if (falseMemory) {
+                storyManager.setFirstFalseMemoryShared();
+                mark = reply.length();
+                reply.append(LINE_SEPARATOR);
             }
+            if (!memorySystem.appendPrediction(reply, stage)) {
+                reply.setLength(mark);
+            }
+        } finally {
+            endSpan("dialogue.memory");
+        }
+
+        String combined;
+        GlitchEffect.GlitchState glitchState;
+        beginSpan("dialogue.glitch");
+        try {
+            combined = reply.toString();
+            glitchState = glitchEffect.evaluate(stage, combined);
+        } finally {
+            endSpan("dialogue.glitch");
         }
-        return builder.toString();
+        Message message = new Message(Message.Sender.AI,
+                combined,
+                glitchState.isActive(),
+                glitchState.getSeed(),
+                glitchState.getIntensity(),
+                System.currentTimeMillis(),
+                stage);
+        return new DialogueResult(message, glitchState, emotionCurve.stateForStage(stage),
+                falseMemory);
     }
 }
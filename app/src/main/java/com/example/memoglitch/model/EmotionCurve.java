@@ -26,25 +26,23 @@ public class EmotionCurve {
         }
     }
 
+    /**
+     * One shared, immutable state per stage, indexed by {@link StoryManager.Stage#ordinal()}.
+     */
+    private static final EmotionState[] STATES = new EmotionState[StoryManager.Stage.values().length];
+
+    static {
+        STATES[StoryManager.Stage.NORMAL.ordinal()] = new EmotionState(450L, "CALM");
+        STATES[StoryManager.Stage.GLITCH.ordinal()] = new EmotionState(700L, "DISSONANT");
+        STATES[StoryManager.Stage.REVEAL.ordinal()] = new EmotionState(900L, "OMNISCIENT");
+        STATES[StoryManager.Stage.CHOICE.ordinal()] = new EmotionState(820L, "INSISTENT");
+        STATES[StoryManager.Stage.CLOSURE.ordinal()] = new EmotionState(650L, "RESOLVED");
+        STATES[StoryManager.Stage.ERASURE.ordinal()] = new EmotionState(1000L, "FRAYED");
+        STATES[StoryManager.Stage.LOOP.ordinal()] = new EmotionState(780L, "RECURSIVE");
+    }
+
     @NonNull
     public EmotionState stateForStage(@NonNull StoryManager.Stage stage) {
-        switch (stage) {
-            case NORMAL:
-                return new EmotionState(450L, "CALM");
-            case GLITCH:
-                return new EmotionState(700L, "DISSONANT");
-            case REVEAL:
-                return new EmotionState(900L, "OMNISCIENT");
-            case CHOICE:
-                return new EmotionState(820L, "INSISTENT");
-            case CLOSURE:
-                return new EmotionState(650L, "RESOLVED");
-            case ERASURE:
-                return new EmotionState(1000L, "FRAYED");
-            case LOOP:
-                return new EmotionState(780L, "RECURSIVE");
-            default:
-                return new EmotionState(500L, "CALM");
-        }
+        return STATES[stage.ordinal()];
     }
 }
@@ -0,0 +1,134 @@
+package com.example.memoglitch.model;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * One thing that happened in the conversation, as published by
+ * {@link ConversationEngine#getEvents()}. Immutable, so subscribers may read it on any thread.
+ */
+public final class EngineEvent {
+
+    public enum Type {
+        /** The engine took up one or more queued inputs; {@link #getInputCount()} says how many. */
+        TURN_STARTED,
+        /** The story moved to {@link #getStage()}. */
+        STAGE_CHANGED,
+        /** Echo told the player its false memory. */
+        FALSE_MEMORY_SHARED,
+        /** A glitch started; {@link #getGlitchState()} describes it. */
+        GLITCH_TRIGGERED,
+        /** Row {@link #getRow()} was appended to {@link #getHistory()}. */
+        MESSAGE_APPENDED,
+        /**
+         * The history was replaced rather than appended to, by hydration, a reset or a rewind;
+         * consumers that mirror it should start over from {@link #getHistory()}.
+         */
+        HISTORY_REPLACED
+    }
+
+    private final Type type;
+    private final long timestamp;
+    private final StoryManager.Stage stage;
+    private final int row;
+    private final int inputCount;
+    @Nullable
+    private final MessageHistory history;
+    @Nullable
+    private final GlitchEffect.GlitchState glitchState;
+
+    private EngineEvent(@NonNull Type type, @NonNull StoryManager.Stage stage, int row,
+                        int inputCount, @Nullable MessageHistory history,
+                        @Nullable GlitchEffect.GlitchState glitchState) {
+        this.type = type;
+        this.timestamp = System.currentTimeMillis();
+        this.stage = stage;
+        this.row = row;
+        this.inputCount = inputCount;
+        this.history = history;
+        this.glitchState = glitchState;
+    }
+
+    @NonNull
+    public static EngineEvent turnStarted(@NonNull StoryManager.Stage stage, int inputCount) {
+        return new EngineEvent(Type.TURN_STARTED, stage, -1, inputCount, null, null);
+    }
+
+    @NonNull
+    static EngineEvent stageChanged(@NonNull StoryManager.Stage stage) {
+        return new EngineEvent(Type.STAGE_CHANGED, stage, -1, 0, null, null);
+    }
+
+    @NonNull
+    public static EngineEvent falseMemoryShared(@NonNull StoryManager.Stage stage) {
+        return new EngineEvent(Type.FALSE_MEMORY_SHARED, stage, -1, 0, null, null);
+    }
+
+    @NonNull
+    static EngineEvent glitchTriggered(@NonNull StoryManager.Stage stage,
+                                       @NonNull GlitchEffect.GlitchState glitchState) {
+        return new EngineEvent(Type.GLITCH_TRIGGERED, stage, -1, 0, null, glitchState);
+    }
+
+    @NonNull
+    static EngineEvent messageAppended(@NonNull MessageHistory history, int row) {
+        return new EngineEvent(Type.MESSAGE_APPENDED, history.getStage(row), row, 0, history, null);
+    }
+
+    @NonNull
+    static EngineEvent historyReplaced(@NonNull StoryManager.Stage stage,
+                                       @NonNull MessageHistory history) {
+        return new EngineEvent(Type.HISTORY_REPLACED, stage, -1, 0, history, null);
+    }
+
+    @NonNull
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Wall-clock time the event was raised.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * The story stage when the event was raised, or of the appended row.
+     */
+    @NonNull
+    public StoryManager.Stage getStage() {
+        return stage;
+    }
+
+    /**
+     * The appended row, or -1 for other events.
+     */
+    public int getRow() {
+        return row;
+    }
+
+    public int getInputCount() {
+        return inputCount;
+    }
+
+    /**
+     * The history as of this event, for {@link Type#MESSAGE_APPENDED} and
+     * {@link Type#HISTORY_REPLACED}; row reads on it are safe off the main thread.
+     */
+    @Nullable
+    public MessageHistory getHistory() {
+        return history;
+    }
+
+    @Nullable
+    public GlitchEffect.GlitchState getGlitchState() {
+        return glitchState;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return row >= 0 ? type + "@" + row + "(" + stage + ")" : type + "(" + stage + ")";
+    }
+}
@@ -10,79 +10,152 @@ import java.util.Random;
  */
 public class GlitchEffect {
 
+    static final String NOISE = "█▒░";
+    static final String SUFFIX = " ⧉";
+
     public static class GlitchState {
         private final boolean active;
-        private final String distortedText;
+        private final String baseText;
+        private final long seed;
+        private final float intensity;
+        private String distortedText;
 
-        public GlitchState(boolean active, String distortedText) {
+        public GlitchState(boolean active, @NonNull String baseText, long seed, float intensity) {
             this.active = active;
-            this.distortedText = distortedText;
+            this.baseText = baseText;
+            this.seed = seed;
+            this.intensity = intensity;
         }
 
         public boolean isActive() {
             return active;
         }
 
+        @NonNull
+        public String getBaseText() {
+            return baseText;
+        }
+
+        public long getSeed() {
+            return seed;
+        }
+
+        public float getIntensity() {
+            return intensity;
+        }
+
+        /**
+         * Materialises the distortion on first access; inactive states return the clean text.
+         */
+        @NonNull
         public String getDistortedText() {
+            if (distortedText == null) {
+                distortedText = active ? distort(baseText, seed, intensity) : baseText;
+            }
             return distortedText;
         }
     }
 
-    private final Random random = new Random();
+    /**
+     * Shared state for turns that do not glitch; inactive states carry no text or seed.
+     */
+    public static final GlitchState INACTIVE = new GlitchState(false, "", 0L, 0f);
+
+    private final RestorableRandom random = new RestorableRandom();
+
+    long getRandomState() {
+        return random.getState();
+    }
+
+    void setRandomState(long state) {
+        random.setState(state);
+    }
+
+    /**
+     * The session's random source. Other components that draw from it, such as the narrative
+     * generator, are saved and restored with the glitch state.
+     */
+    @NonNull
+    Random getRandom() {
+        return random;
+    }
 
     public GlitchState evaluate(@NonNull StoryManager.Stage stage, @NonNull String baseText) {
         if (stage == StoryManager.Stage.NORMAL) {
-            return new GlitchState(false, baseText);
+            return INACTIVE;
         }
         float triggerChance;
+        float intensity;
         switch (stage) {
             case GLITCH:
                 triggerChance = 0.35f;
+                intensity = 0.6f;
                 break;
             case REVEAL:
                 triggerChance = 0.55f;
+                intensity = 0.85f;
                 break;
             case CHOICE:
                 triggerChance = 0.45f;
+                intensity = 0.75f;
                 break;
             case CLOSURE:
                 triggerChance = 0.20f;
+                intensity = 0.4f;
                 break;
             case ERASURE:
                 triggerChance = 0.65f;
+                intensity = 1f;
                 break;
             case LOOP:
                 triggerChance = 0.5f;
+                intensity = 0.8f;
                 break;
             default:
                 triggerChance = 0.3f;
+                intensity = 0.5f;
                 break;
         }
         boolean trigger = random.nextFloat() < triggerChance;
         if (!trigger) {
-            return new GlitchState(false, baseText);
+            return INACTIVE;
         }
-        return new GlitchState(true, distort(baseText));
+        return new GlitchState(true, baseText, random.nextLong(), intensity);
     }
 
-    private String distort(String text) {
-        StringBuilder distorted = new StringBuilder();
-        String noise = "█▒░";
+    /**
+     * Deterministically distorts {@code text}: the same seed and intensity always produce the same
+     * output, so only the descriptor needs to be stored alongside the clean text.
+     */
+    @NonNull
+    public static String distort(@NonNull CharSequence text, long seed, float intensity) {
+        if (intensity <= 0f) {
+            return text.toString();
+        }
+        Random random = new Random(seed);
+        float whitespaceChance = 0.25f * intensity;
+        float noiseChance = intensity / 6f;
+        StringBuilder distorted = new StringBuilder(text.length() + SUFFIX.length());
         for (int i = 0; i < text.length(); i++) {
             char c = text.charAt(i);
-            if (Character.isLetter(c) && random.nextBoolean()) {
-                distorted.append(Character.toUpperCase(c));
-            } else if (Character.isWhitespace(c) && random.nextInt(4) == 0) {
-                distorted.append("\u2007");
-            } else if (random.nextInt(6) == 0) {
-                distorted.append(noise.charAt(random.nextInt(noise.length())));
+            if (Character.isWhitespace(c) && random.nextFloat() < whitespaceChance) {
+                distorted.append('\u2007');
+            } else if (!Character.isWhitespace(c) && random.nextFloat() < noiseChance) {
+                distorted.append(NOISE.charAt(random.nextInt(NOISE.length())));
             } else {
                 distorted.append(c);
             }
         }
-        if (random.nextBoolean()) {
-            distorted.append(" ⧉");
+        if (random.nextFloat() < 0.5f * intensity) {
+            distorted.append(SUFFIX);
         }
         return distorted.toString().toUpperCase(Locale.US);
     }
+
+    /**
+     * Returns whether {@code c} is one of the glyphs {@link #distort} injects.
+     */
+    public static boolean isNoiseGlyph(char c) {
+        return NOISE.indexOf(c) >= 0 || c == SUFFIX.charAt(1);
+    }
 }
@@ -0,0 +1,496 @@
+package com.example.memoglitch.model;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Cold tier of the history: rows moved out of hot storage, kept in immutable segment files of
+ * deflated blocks. Each segment starts with its row metadata (one compressed chunk, read whole
+ * when a session is restored) and an index of text blocks of {@link #BLOCK_ROWS} rows, so
+ * reading one row's text inflates a single block. Every chunk carries a CRC32 of its
+ * uncompressed bytes, checked on each read and by {@link #verify()}.
+ *
+ * <p>Segments are named after their first row and must cover {@code [0, getRows())} without
+ * gaps; a segment is written to a temporary file, synced, renamed into place and read back before
+ * {@link #append} returns. All methods block on file I/O.
+ */
+@WorkerThread
+final class HistoryArchive {
+
+    static final int BLOCK_ROWS = 128;
+    private static final int SEGMENT_ROWS = 4096;
+    private static final int FILE_MAGIC = 0x4D474152; // "MGAR"
+    private static final int FILE_VERSION = 1;
+    private static final int HEADER_BYTES = 6 * 4;
+    private static final int INDEX_ENTRY_BYTES = 8 + 3 * 4;
+    private static final int METADATA_ROW_BYTES = 3 + 8 + 4 + 8;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".mga";
+
+    /**
+     * Location of a compressed chunk within a segment file.
+     */
+    private static final class Chunk {
+        final long offset;
+        final int length;
+        final int rawLength;
+        final int crc;
+
+        Chunk(long offset, int length, int rawLength, int crc) {
+            this.offset = offset;
+            this.length = length;
+            this.rawLength = rawLength;
+            this.crc = crc;
+        }
+    }
+
+    private static final class Segment {
+        final File file;
+        final int firstRow;
+        final int rowCount;
+        final Chunk metadata;
+        final Chunk[] blocks;
+
+        Segment(@NonNull File file, int firstRow, int rowCount, @NonNull Chunk metadata,
+                @NonNull Chunk[] blocks) {
+            this.file = file;
+            this.firstRow = firstRow;
+            this.rowCount = rowCount;
+            this.metadata = metadata;
+            this.blocks = blocks;
+        }
+
+        int endRow() {
+            return firstRow + rowCount;
+        }
+    }
+
+    private final File directory;
+    @Nullable
+    private List<Segment> segments;
+    // Last inflated block, as row reads tend to walk neighbouring rows.
+    @Nullable
+    private Segment cachedSegment;
+    private int cachedBlock = -1;
+    @Nullable
+    private String[] cachedTexts;
+
+    HistoryArchive(@NonNull File directory) {
+        this.directory = directory;
+    }
+
+    synchronized int getRows() {
+        List<Segment> open = segments();
+        return open.isEmpty() ? 0 : open.get(open.size() - 1).endRow();
+    }
+
+    synchronized int getSegmentCount() {
+        return segments().size();
+    }
+
+    /**
+     * Drops the segments at or past {@code rows}, e.g. ones written by a maintenance pass that
+     * died before hot storage was rewritten, and returns the rows left.
+     */
+    synchronized int truncate(int rows) {
+        List<Segment> open = segments();
+        while (!open.isEmpty() && open.get(open.size() - 1).endRow() > rows) {
+            delete(open.remove(open.size() - 1));
+        }
+        return getRows();
+    }
+
+    synchronized void clear() {
+        for (Segment segment : segments()) {
+            delete(segment);
+        }
+        segments().clear();
+    }
+
+    /**
+     * Archives rows {@code [from, to)} of {@code history} as archive rows starting at
+     * {@link #getRows()}, and checks what was written by reading it back.
+     */
+    synchronized void append(@NonNull MessageHistory history, int from, int to)
+            throws IOException {
+        List<Segment> open = segments();
+        for (int start = from; start < to; start += SEGMENT_ROWS) {
+            int end = Math.min(to, start + SEGMENT_ROWS);
+            Segment segment = writeSegment(history, start, end, getRows());
+            try {
+                checkSegment(segment, history, start);
+            } catch (IOException e) {
+                delete(segment);
+                throw e;
+            }
+            open.add(segment);
+        }
+    }
+
+    /**
+     * Appends every archived row to {@code history} with empty text; the caller evicts them and
+     * serves their text from this archive.
+     */
+    @NonNull
+    synchronized MessageHistory appendMetadata(@NonNull MessageHistory history)
+            throws IOException {
+        Message.Sender[] senders = Message.Sender.values();
+        StoryManager.Stage[] stages = StoryManager.Stage.values();
+        for (Segment segment : segments()) {
+            byte[] raw;
+            try (RandomAccessFile data = new RandomAccessFile(segment.file, "r")) {
+                raw = readChunk(data, segment.metadata);
+            }
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(raw));
+            for (int i = 0; i < segment.rowCount; i++) {
+                Message.Sender sender = senders[in.readUnsignedByte()];
+                StoryManager.Stage stage = stages[in.readUnsignedByte()];
+                boolean glitch = in.readUnsignedByte() != 0;
+                long seed = in.readLong();
+                float intensity = in.readFloat();
+                long timestamp = in.readLong();
+                history = history.append(sender, "", glitch, seed, intensity, timestamp, stage);
+            }
+        }
+        return history;
+    }
+
+    @NonNull
+    synchronized String readText(int row) throws IOException {
+        Segment segment = segmentFor(row);
+        int offset = row - segment.firstRow;
+        return blockTexts(segment, offset / BLOCK_ROWS)[offset % BLOCK_ROWS];
+    }
+
+    @NonNull
+    synchronized String[] readTexts(int from, int to) throws IOException {
+        String[] texts = new String[to - from];
+        for (int row = from; row < to; row++) {
+            texts[row - from] = readText(row);
+        }
+        return texts;
+    }
+
+    /**
+     * Re-reads every chunk of every segment and returns how many fail their checksum.
+     */
+    synchronized int verify() {
+        int corrupt = 0;
+        for (Segment segment : segments()) {
+            try (RandomAccessFile data = new RandomAccessFile(segment.file, "r")) {
+                corrupt += isIntact(data, segment.metadata) ? 0 : 1;
+                for (Chunk block : segment.blocks) {
+                    corrupt += isIntact(data, block) ? 0 : 1;
+                }
+            } catch (IOException e) {
+                corrupt += 1 + segment.blocks.length;
+            }
+        }
+        return corrupt;
+    }
+
+    @NonNull
+    private List<Segment> segments() {
+        if (segments == null) {
+            segments = openSegments();
+        }
+        return segments;
+    }
+
+    /**
+     * Reads the headers of the segments on disk, keeping the contiguous run that starts at row 0.
+     */
+    @NonNull
+    private List<Segment> openSegments() {
+        List<Segment> open = new ArrayList<>();
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return open;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)) {
+                // Leftover temporary file from an interrupted write.
+                file.delete();
+                continue;
+            }
+            Segment segment = readHeader(file);
+            int expectedFirst = open.isEmpty() ? 0 : open.get(open.size() - 1).endRow();
+            if (segment == null || segment.firstRow != expectedFirst) {
+                file.delete();
+                continue;
+            }
+            open.add(segment);
+        }
+        return open;
+    }
+
+    @Nullable
+    private static Segment readHeader(@NonNull File file) {
+        try (RandomAccessFile data = new RandomAccessFile(file, "r")) {
+            if (data.readInt() != FILE_MAGIC || data.readInt() != FILE_VERSION) {
+                return null;
+            }
+            int firstRow = data.readInt();
+            int rowCount = data.readInt();
+            int blockCount = data.readInt();
+            data.readInt(); // Reserved.
+            if (rowCount <= 0 || blockCount != (rowCount + BLOCK_ROWS - 1) / BLOCK_ROWS) {
+                return null;
+            }
+            Chunk metadata = readIndexEntry(data);
+            Chunk[] blocks = new Chunk[blockCount];
+            for (int i = 0; i < blockCount; i++) {
+                blocks[i] = readIndexEntry(data);
+            }
+            return new Segment(file, firstRow, rowCount, metadata, blocks);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @NonNull
+    private static Chunk readIndexEntry(@NonNull RandomAccessFile data) throws IOException {
+        return new Chunk(data.readLong(), data.readInt(), data.readInt(), data.readInt());
+    }
+
+    @NonNull
+    private Segment writeSegment(@NonNull MessageHistory history, int from, int to, int firstRow)
+            throws IOException {
+        int rowCount = to - from;
+        int blockCount = (rowCount + BLOCK_ROWS - 1) / BLOCK_ROWS;
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        long offset = HEADER_BYTES + (long) (blockCount + 1) * INDEX_ENTRY_BYTES;
+        try {
+            Chunk metadata = writeChunk(body, offset, metadataBytes(history, from, to), deflater);
+            Chunk[] blocks = new Chunk[blockCount];
+            for (int block = 0; block < blockCount; block++) {
+                int start = from + block * BLOCK_ROWS;
+                int end = Math.min(to, start + BLOCK_ROWS);
+                blocks[block] = writeChunk(body, offset + body.size(),
+                        textBytes(history, start, end), deflater);
+            }
+            File file = new File(directory, String.format(Locale.US, "%s%010d%s",
+                    SEGMENT_PREFIX, firstRow, SEGMENT_SUFFIX));
+            File temp = new File(directory, file.getName() + ".tmp");
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Cannot create " + directory);
+            }
+            try (FileOutputStream stream = new FileOutputStream(temp)) {
+                DataOutputStream out = new DataOutputStream(stream);
+                out.writeInt(FILE_MAGIC);
+                out.writeInt(FILE_VERSION);
+                out.writeInt(firstRow);
+                out.writeInt(rowCount);
+                out.writeInt(blockCount);
+                out.writeInt(0);
+                writeIndexEntry(out, metadata);
+                for (Chunk block : blocks) {
+                    writeIndexEntry(out, block);
+                }
+                body.writeTo(out);
+                out.flush();
+                stream.getFD().sync();
+            }
+            if (!temp.renameTo(file)) {
+                temp.delete();
+                throw new IOException("Cannot rename " + temp);
+            }
+            return new Segment(file, firstRow, rowCount, metadata, blocks);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static void writeIndexEntry(@NonNull DataOutputStream out, @NonNull Chunk chunk)
+            throws IOException {
+        out.writeLong(chunk.offset);
+        out.writeInt(chunk.length);
+        out.writeInt(chunk.rawLength);
+        out.writeInt(chunk.crc);
+    }
+
+    @NonNull
+    private static Chunk writeChunk(@NonNull ByteArrayOutputStream body, long offset,
+                                    @NonNull byte[] raw, @NonNull Deflater deflater) {
+        CRC32 crc = new CRC32();
+        crc.update(raw, 0, raw.length);
+        deflater.reset();
+        deflater.setInput(raw);
+        deflater.finish();
+        byte[] buffer = new byte[8192];
+        int start = body.size();
+        while (!deflater.finished()) {
+            int length = deflater.deflate(buffer);
+            body.write(buffer, 0, length);
+        }
+        return new Chunk(offset, body.size() - start, raw.length, (int) crc.getValue());
+    }
+
+    @NonNull
+    private static byte[] metadataBytes(@NonNull MessageHistory history, int from, int to)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream((to - from) * METADATA_ROW_BYTES);
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (int row = from; row < to; row++) {
+            out.writeByte(history.getSender(row).ordinal());
+            out.writeByte(history.getStage(row).ordinal());
+            out.writeByte(history.isGlitch(row) ? 1 : 0);
+            out.writeLong(history.getGlitchSeed(row));
+            out.writeFloat(history.getGlitchIntensity(row));
+            out.writeLong(history.getTimestamp(row));
+        }
+        return bytes.toByteArray();
+    }
+
+    @NonNull
+    private static byte[] textBytes(@NonNull MessageHistory history, int from, int to)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (int row = from; row < to; row++) {
+            byte[] text = history.getText(row).getBytes(StandardCharsets.UTF_8);
+            out.writeInt(text.length);
+            out.write(text);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Reads the new segment back through the normal read path and compares it with its source.
+     */
+    private void checkSegment(@NonNull Segment segment, @NonNull MessageHistory history, int from)
+            throws IOException {
+        for (int block = 0; block < segment.blocks.length; block++) {
+            String[] texts = blockTexts(segment, block);
+            for (int i = 0; i < texts.length; i++) {
+                if (!texts[i].equals(history.getText(from + block * BLOCK_ROWS + i))) {
+                    throw new IOException("Archived text differs at row "
+                            + (segment.firstRow + block * BLOCK_ROWS + i));
+                }
+            }
+        }
+        try (RandomAccessFile data = new RandomAccessFile(segment.file, "r")) {
+            readChunk(data, segment.metadata);
+        }
+    }
+
+    @NonNull
+    private Segment segmentFor(int row) throws IOException {
+        List<Segment> open = segments();
+        int low = 0;
+        int high = open.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            Segment segment = open.get(mid);
+            if (row < segment.firstRow) {
+                high = mid - 1;
+            } else if (row >= segment.endRow()) {
+                low = mid + 1;
+            } else {
+                return segment;
+            }
+        }
+        throw new IOException("Row " + row + " is not archived");
+    }
+
+    @NonNull
+    private String[] blockTexts(@NonNull Segment segment, int block) throws IOException {
+        if (cachedSegment == segment && cachedBlock == block && cachedTexts != null) {
+            return cachedTexts;
+        }
+        byte[] raw;
+        try (RandomAccessFile data = new RandomAccessFile(segment.file, "r")) {
+            raw = readChunk(data, segment.blocks[block]);
+        }
+        int rows = Math.min(BLOCK_ROWS, segment.rowCount - block * BLOCK_ROWS);
+        String[] texts = new String[rows];
+        int position = 0;
+        for (int i = 0; i < rows; i++) {
+            int length = ((raw[position] & 0xFF) << 24) | ((raw[position + 1] & 0xFF) << 16)
+                    | ((raw[position + 2] & 0xFF) << 8) | (raw[position + 3] & 0xFF);
+            position += 4;
+            if (length < 0 || position + length > raw.length) {
+                throw new IOException("Malformed block " + block + " in " + segment.file);
+            }
+            texts[i] = new String(raw, position, length, StandardCharsets.UTF_8);
+            position += length;
+        }
+        cachedSegment = segment;
+        cachedBlock = block;
+        cachedTexts = texts;
+        return texts;
+    }
+
+    @NonNull
+    private static byte[] readChunk(@NonNull RandomAccessFile data, @NonNull Chunk chunk)
+            throws IOException {
+        byte[] compressed = new byte[chunk.length];
+        data.seek(chunk.offset);
+        data.readFully(compressed);
+        byte[] raw = new byte[chunk.rawLength];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            int length = 0;
+            while (length < raw.length && !inflater.finished()) {
+                int inflated = inflater.inflate(raw, length, raw.length - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += inflated;
+            }
+            if (length != raw.length) {
+                throw new IOException("Truncated chunk at " + chunk.offset);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt chunk at " + chunk.offset, e);
+        } finally {
+            inflater.end();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(raw, 0, raw.length);
+        if ((int) crc.getValue() != chunk.crc) {
+            throw new IOException("Checksum mismatch at " + chunk.offset);
+        }
+        return raw;
+    }
+
+    private static boolean isIntact(@NonNull RandomAccessFile data, @NonNull Chunk chunk) {
+        try {
+            readChunk(data, chunk);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void delete(@NonNull Segment segment) {
+        if (cachedSegment == segment) {
+            cachedSegment = null;
+            cachedTexts = null;
+        }
+        segment.file.delete();
+    }
+}
@@ -0,0 +1,444 @@
+package com.example.memoglitch.model;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.example.memoglitch.model.metrics.LatencyHistogram;
+import com.example.memoglitch.model.metrics.Metrics;
+import com.example.memoglitch.model.metrics.TraceRecorder;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Inverted index over the clean text of a {@link MessageHistory}: each lower-cased word maps to
+ * the ascending rows that contain it. The index follows the history by appending only the rows
+ * it has not seen, and terms are kept sorted so a prefix query walks one contiguous range.
+ * Queries intersect per-word row bit sets and apply sender and stage filters against the history
+ * columns, newest rows first, so a 100k-row session is searched without rescanning any text.
+ *
+ * <p>Followed and queried on the main thread, where {@link #extend} only ever indexes appended
+ * rows whose text is in memory; a history it cannot follow is indexed from scratch with
+ * {@link #update} on a background thread. {@link #snapshot()} hands an immutable copy of the term
+ * table to a background writer.
+ */
+public final class HistoryIndex {
+
+    private static final int FILE_MAGIC = 0x4D474958; // "MGIX"
+    private static final int FILE_VERSION = 1;
+    private static final int MAX_TERM_LENGTH = 32;
+    private static final LatencyHistogram UPDATE_LATENCY = Metrics.histogram("search.update");
+    private static final LatencyHistogram QUERY_LATENCY = Metrics.histogram("search.query");
+
+    /**
+     * Rows containing one term. Rows are only appended, and the array is replaced when it grows,
+     * so a snapshot of (array, count) stays valid while indexing continues.
+     */
+    private static final class Postings {
+        int[] rows = new int[4];
+        int count;
+
+        void add(int row) {
+            if (count > 0 && rows[count - 1] == row) {
+                return;
+            }
+            if (count == rows.length) {
+                rows = Arrays.copyOf(rows, count * 2);
+            }
+            rows[count++] = row;
+        }
+    }
+
+    /**
+     * A parsed search: words matched as prefixes plus optional sender and stage filters, written
+     * as {@code from:you}, {@code from:echo} and {@code stage:glitch}.
+     */
+    public static final class Query {
+
+        private final String[] words;
+        @Nullable
+        private final Message.Sender sender;
+        @Nullable
+        private final StoryManager.Stage stage;
+
+        Query(@NonNull String[] words, @Nullable Message.Sender sender,
+              @Nullable StoryManager.Stage stage) {
+            this.words = words;
+            this.sender = sender;
+            this.stage = stage;
+        }
+
+        @NonNull
+        public static Query parse(@NonNull String text) {
+            List<String> words = new ArrayList<>();
+            Message.Sender sender = null;
+            StoryManager.Stage stage = null;
+            for (String token : text.trim().split("\\s+")) {
+                String lower = token.toLowerCase(Locale.US);
+                if (lower.startsWith("from:")) {
+                    Message.Sender parsed = parseSender(lower.substring(5));
+                    if (parsed != null) {
+                        sender = parsed;
+                        continue;
+                    }
+                } else if (lower.startsWith("stage:")) {
+                    StoryManager.Stage parsed = parseStage(lower.substring(6));
+                    if (parsed != null) {
+                        stage = parsed;
+                        continue;
+                    }
+                }
+                // Query words are split the same way message text is.
+                StringBuilder term = new StringBuilder();
+                for (int i = 0; i <= lower.length(); i++) {
+                    char c = i < lower.length() ? lower.charAt(i) : ' ';
+                    if (Character.isLetterOrDigit(c)) {
+                        if (term.length() < MAX_TERM_LENGTH) {
+                            term.append(c);
+                        }
+                    } else if (term.length() > 0) {
+                        words.add(term.toString());
+                        term.setLength(0);
+                    }
+                }
+            }
+            return new Query(words.toArray(new String[0]), sender, stage);
+        }
+
+        public boolean isEmpty() {
+            return words.length == 0 && sender == null && stage == null;
+        }
+
+        @Nullable
+        private static Message.Sender parseSender(@NonNull String value) {
+            switch (value) {
+                case "you":
+                case "user":
+                    return Message.Sender.USER;
+                case "echo":
+                case "ai":
+                    return Message.Sender.AI;
+                default:
+                    return null;
+            }
+        }
+
+        @Nullable
+        private static StoryManager.Stage parseStage(@NonNull String value) {
+            for (StoryManager.Stage stage : StoryManager.Stage.values()) {
+                if (stage.name().equalsIgnoreCase(value)) {
+                    return stage;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Immutable copy of the term table for persisting off the main thread.
+     */
+    public static final class Snapshot {
+        final String[] terms;
+        final int[][] rows;
+        final int[] counts;
+        final int indexedRows;
+        final long lastTimestamp;
+
+        Snapshot(@NonNull String[] terms, @NonNull int[][] rows, @NonNull int[] counts,
+                 int indexedRows, long lastTimestamp) {
+            this.terms = terms;
+            this.rows = rows;
+            this.counts = counts;
+            this.indexedRows = indexedRows;
+            this.lastTimestamp = lastTimestamp;
+        }
+
+        public int getIndexedRows() {
+            return indexedRows;
+        }
+    }
+
+    private final TreeMap<String, Postings> terms = new TreeMap<>();
+    private final StringBuilder term = new StringBuilder(MAX_TERM_LENGTH);
+    @Nullable
+    private MessageHistory indexed;
+    private int indexedRows;
+    private long lastTimestamp;
+
+    public int getIndexedRows() {
+        return indexedRows;
+    }
+
+    /**
+     * Indexes the rows of {@code history} added since the last update. A history that does not
+     * extend the indexed one (a reset, a reload or a fork) is indexed from scratch, reading back
+     * any evicted text, so call this off the main thread.
+     */
+    @WorkerThread
+    public void update(@NonNull MessageHistory history) {
+        if (indexed == history) {
+            return;
+        }
+        if (!follows(history)) {
+            terms.clear();
+            indexedRows = 0;
+        }
+        indexRows(history);
+    }
+
+    /**
+     * Indexes the rows appended since the last update if {@code history} extends the indexed one
+     * and their text is in memory, and returns true. Otherwise leaves the index unchanged and
+     * returns false; the caller then builds a new index with {@link #update} in the background.
+     * An empty history is followed by clearing the index.
+     */
+    @MainThread
+    public boolean extend(@NonNull MessageHistory history) {
+        if (indexed == history) {
+            return true;
+        }
+        if (history.isEmpty()) {
+            terms.clear();
+            indexedRows = 0;
+            lastTimestamp = 0L;
+            indexed = history;
+            return true;
+        }
+        if (!follows(history)) {
+            return false;
+        }
+        for (int row = indexedRows; row < history.size(); row++) {
+            if (!history.isTextResident(row)) {
+                return false;
+            }
+        }
+        indexRows(history);
+        return true;
+    }
+
+    private boolean follows(@NonNull MessageHistory history) {
+        return indexed != null ? indexed.isPrefixOf(history) : indexedRows <= history.size();
+    }
+
+    private void indexRows(@NonNull MessageHistory history) {
+        if (indexedRows < history.size()) {
+            long start = System.nanoTime();
+            TraceRecorder.begin("search.update");
+            for (int row = indexedRows; row < history.size(); row++) {
+                indexRow(history.getTextView(row), row);
+            }
+            indexedRows = history.size();
+            lastTimestamp = history.getTimestamp(indexedRows - 1);
+            TraceRecorder.end("search.update");
+            UPDATE_LATENCY.recordSince(start);
+        }
+        indexed = history;
+    }
+
+    /**
+     * Follows the history back to {@code history}, a truncation of the indexed rows, dropping the
+     * postings of the later rows instead of indexing from scratch.
+     */
+    @MainThread
+    public void truncate(@NonNull MessageHistory history) {
+        int rows = Math.min(history.size(), indexedRows);
+        Iterator<Postings> iterator = terms.values().iterator();
+        while (iterator.hasNext()) {
+            Postings postings = iterator.next();
+            int count = postings.count;
+            while (count > 0 && postings.rows[count - 1] >= rows) {
+                count--;
+            }
+            if (count == 0) {
+                iterator.remove();
+            } else if (count < postings.count) {
+                // Snapshots may still hold the old array; later rows must not overwrite it.
+                postings.rows = Arrays.copyOf(postings.rows, Math.max(4, count));
+                postings.count = count;
+            }
+        }
+        indexedRows = rows;
+        lastTimestamp = rows > 0 ? history.getTimestamp(rows - 1) : 0L;
+        indexed = null;
+        extend(history);
+    }
+
+    private void indexRow(@NonNull CharSequence text, int row) {
+        term.setLength(0);
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? Character.toLowerCase(text.charAt(i)) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                if (term.length() < MAX_TERM_LENGTH) {
+                    term.append(c);
+                }
+            } else if (term.length() > 0) {
+                String key = term.toString();
+                Postings postings = terms.get(key);
+                if (postings == null) {
+                    postings = new Postings();
+                    terms.put(key, postings);
+                }
+                postings.add(row);
+                term.setLength(0);
+            }
+        }
+    }
+
+    /**
+     * Returns up to {@code limit} matching rows of {@code history}, newest first. Every word must
+     * match the start of some word in the row. Finds nothing while the index cannot
+     * {@link #extend} to {@code history}, i.e. until its rebuild is swapped in.
+     */
+    @MainThread
+    @NonNull
+    public int[] search(@NonNull MessageHistory history, @NonNull Query query, int limit) {
+        if (!extend(history)) {
+            return new int[0];
+        }
+        long start = System.nanoTime();
+        TraceRecorder.begin("search.query");
+        long[] matches = null;
+        for (String word : query.words) {
+            long[] wordRows = new long[(indexedRows + 63) >>> 6];
+            SortedMap<String, Postings> range = terms.subMap(word, word + Character.MAX_VALUE);
+            for (Postings postings : range.values()) {
+                for (int i = 0; i < postings.count; i++) {
+                    int row = postings.rows[i];
+                    wordRows[row >>> 6] |= 1L << row;
+                }
+            }
+            if (matches == null) {
+                matches = wordRows;
+            } else {
+                for (int i = 0; i < matches.length; i++) {
+                    matches[i] &= wordRows[i];
+                }
+            }
+        }
+        int[] hits = new int[Math.min(limit, indexedRows)];
+        int found = 0;
+        for (int row = indexedRows - 1; row >= 0 && found < hits.length; row--) {
+            if (matches != null && (matches[row >>> 6] & (1L << row)) == 0) {
+                continue;
+            }
+            if (query.sender != null && history.getSender(row) != query.sender) {
+                continue;
+            }
+            if (query.stage != null && history.getStage(row) != query.stage) {
+                continue;
+            }
+            hits[found++] = row;
+        }
+        TraceRecorder.end("search.query");
+        QUERY_LATENCY.recordSince(start);
+        return Arrays.copyOf(hits, found);
+    }
+
+    @MainThread
+    @NonNull
+    public Snapshot snapshot() {
+        String[] termArray = new String[terms.size()];
+        int[][] rows = new int[termArray.length][];
+        int[] counts = new int[termArray.length];
+        int i = 0;
+        for (Map.Entry<String, Postings> entry : terms.entrySet()) {
+            termArray[i] = entry.getKey();
+            rows[i] = entry.getValue().rows;
+            counts[i] = entry.getValue().count;
+            i++;
+        }
+        return new Snapshot(termArray, rows, counts, indexedRows, lastTimestamp);
+    }
+
+    /**
+     * Writes {@code snapshot} with delta-encoded varint postings.
+     */
+    @WorkerThread
+    static void write(@NonNull Snapshot snapshot, @NonNull DataOutputStream out) throws IOException {
+        out.writeInt(FILE_MAGIC);
+        out.writeInt(FILE_VERSION);
+        out.writeInt(snapshot.indexedRows);
+        out.writeLong(snapshot.lastTimestamp);
+        out.writeInt(snapshot.terms.length);
+        for (int t = 0; t < snapshot.terms.length; t++) {
+            out.writeUTF(snapshot.terms[t]);
+            writeVarInt(out, snapshot.counts[t]);
+            int previous = 0;
+            for (int i = 0; i < snapshot.counts[t]; i++) {
+                writeVarInt(out, snapshot.rows[t][i] - previous);
+                previous = snapshot.rows[t][i];
+            }
+        }
+    }
+
+    /**
+     * Reads an index written by {@link #write}, or returns null if it does not describe a prefix
+     * of {@code history}; the caller then catches up with {@link #update}.
+     */
+    @WorkerThread
+    @Nullable
+    static HistoryIndex read(@NonNull DataInputStream in, @NonNull MessageHistory history)
+            throws IOException {
+        if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+            return null;
+        }
+        int indexedRows = in.readInt();
+        long lastTimestamp = in.readLong();
+        if (indexedRows > history.size()
+                || (indexedRows > 0 && history.getTimestamp(indexedRows - 1) != lastTimestamp)) {
+            return null;
+        }
+        HistoryIndex index = new HistoryIndex();
+        int termCount = in.readInt();
+        for (int t = 0; t < termCount; t++) {
+            String key = in.readUTF();
+            Postings postings = new Postings();
+            int count = readVarInt(in);
+            postings.rows = new int[Math.max(4, count)];
+            int row = 0;
+            for (int i = 0; i < count; i++) {
+                row += readVarInt(in);
+                if (row >= indexedRows) {
+                    return null;
+                }
+                postings.rows[i] = row;
+            }
+            postings.count = count;
+            index.terms.put(key, postings);
+        }
+        index.indexedRows = indexedRows;
+        index.lastTimestamp = lastTimestamp;
+        return index;
+    }
+
+    private static void writeVarInt(@NonNull DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(@NonNull DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+}
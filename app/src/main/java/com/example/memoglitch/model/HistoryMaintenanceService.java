@@ -0,0 +1,61 @@
+package com.example.memoglitch.model;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs history storage maintenance while the device is idle and charging: older rows move from
+ * preferences into the compressed archive so hot storage, and the preferences file read at every
+ * start, stay bounded.
+ */
+public class HistoryMaintenanceService extends JobService {
+
+    private static final int JOB_ID = 0x4D470001;
+    private static final long INTERVAL_MS = TimeUnit.DAYS.toMillis(1);
+
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+
+    /**
+     * Schedules the periodic job unless it is already pending. Binder call; keep it off the main
+     * thread.
+     */
+    @WorkerThread
+    static void schedule(@NonNull Context context) {
+        JobScheduler scheduler =
+                (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (scheduler == null || scheduler.getPendingJob(JOB_ID) != null) {
+            return;
+        }
+        scheduler.schedule(new JobInfo.Builder(JOB_ID,
+                new ComponentName(context, HistoryMaintenanceService.class))
+                .setRequiresDeviceIdle(true)
+                .setRequiresCharging(true)
+                .setPeriodic(INTERVAL_MS)
+                .build());
+    }
+
+    @Override
+    public boolean onStartJob(@NonNull JobParameters params) {
+        cancelled.set(false);
+        ConversationEngine.getInstance(this)
+                .runStorageMaintenance(cancelled, () -> jobFinished(params, false));
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(@NonNull JobParameters params) {
+        // The pass checks this between steps and rolls back anything it has not committed.
+        cancelled.set(true);
+        return true;
+    }
+}
@@ -0,0 +1,230 @@
+package com.example.memoglitch.model;
+
+import android.content.ComponentCallbacks2;
+import android.content.res.Configuration;
+import android.os.Handler;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.example.memoglitch.model.metrics.Counter;
+import com.example.memoglitch.model.metrics.Gauge;
+import com.example.memoglitch.model.metrics.Metrics;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+
+/**
+ * Bounds how much message text the published history keeps in memory. Nothing is evicted until
+ * the system reports memory pressure; from then on only a tail of rows sized by the latest trim
+ * level keeps its text, and older text lives in a {@link TextSpill} in the cache directory.
+ * Evicted rows that scroll back into view are paged in around the requested row. A restored
+ * session starts with its archived rows already evicted.
+ *
+ * <p>Spill writes and page reads run on the engine's background executor; the resulting history
+ * versions are committed to the store on the main thread, and only if the store still holds the
+ * same lineage.
+ */
+final class HistoryWindow implements ComponentCallbacks2 {
+
+    private static final int NO_LIMIT = Integer.MAX_VALUE;
+    private static final int TAIL_MODERATE = 2000;
+    private static final int TAIL_LOW = 500;
+    private static final int TAIL_CRITICAL = 100;
+    // Evicting fewer rows than this frees too little to be worth a new table and storage copy.
+    private static final int MIN_EVICTION_ROWS = 64;
+    private static final int PAGE_ROWS = 200;
+    private static final Gauge TAIL_TARGET = Metrics.gauge("history.window.tail_target");
+    private static final Gauge RESIDENT_ROWS = Metrics.gauge("history.window.resident_rows");
+    private static final Gauge EVICTED_ROWS = Metrics.gauge("history.window.evicted_rows");
+    private static final Gauge LAST_TRIM_LEVEL = Metrics.gauge("history.window.last_trim_level");
+    private static final Counter EVICTIONS = Metrics.counter("history.window.evictions");
+    private static final Counter PAGE_LOADS = Metrics.counter("history.window.page_loads");
+
+    private final Lazy<ConversationStateStore> stateStore;
+    private final Lazy<DataRepository> repository;
+    private final Executor executor;
+    private final Handler mainHandler;
+    private int tailTarget = NO_LIMIT;
+    // Spill of the published lineage; discarded once a history without it is published.
+    @Nullable
+    private TextSpill spill;
+    private boolean evicting;
+    private boolean pageLoading;
+    private int pendingPageRow = -1;
+
+    HistoryWindow(@NonNull Lazy<ConversationStateStore> stateStore,
+                  @NonNull Lazy<DataRepository> repository, @NonNull Executor executor,
+                  @NonNull Handler mainHandler) {
+        this.stateStore = stateStore;
+        this.repository = repository;
+        this.executor = executor;
+        this.mainHandler = mainHandler;
+        TAIL_TARGET.set(tailTarget);
+    }
+
+    @MainThread
+    @Override
+    public void onTrimMemory(int level) {
+        LAST_TRIM_LEVEL.set(level);
+        int target = tailTargetFor(level);
+        if (target == NO_LIMIT || !stateStore.isInitialized()) {
+            return;
+        }
+        tailTarget = Math.min(tailTarget, target);
+        TAIL_TARGET.set(tailTarget);
+        MessageHistory current = currentMessages();
+        if (current.getPageEnd() > current.getPageStart()) {
+            stateStore.get().edit().setMessages(current.withoutPage()).commit();
+        }
+        trim(currentMessages());
+    }
+
+    @MainThread
+    @Override
+    public void onLowMemory() {
+        onTrimMemory(TRIM_MEMORY_COMPLETE);
+    }
+
+    @Override
+    public void onConfigurationChanged(@NonNull Configuration newConfig) {
+    }
+
+    private static int tailTargetFor(int level) {
+        if (level >= TRIM_MEMORY_BACKGROUND || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+            return TAIL_CRITICAL;
+        }
+        if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            // RUNNING_LOW and UI_HIDDEN.
+            return TAIL_LOW;
+        }
+        if (level >= TRIM_MEMORY_RUNNING_MODERATE) {
+            return TAIL_MODERATE;
+        }
+        return NO_LIMIT;
+    }
+
+    /**
+     * Keeps the window in place as {@code messages} grows; called for each published history.
+     */
+    @MainThread
+    void onHistoryChanged(@NonNull MessageHistory messages) {
+        adoptSpill(messages.getSpill());
+        RESIDENT_ROWS.set(messages.size() - messages.getEvictedRows());
+        EVICTED_ROWS.set(messages.getEvictedRows());
+        trim(messages);
+    }
+
+    @MainThread
+    private void trim(@NonNull final MessageHistory history) {
+        if (evicting || tailTarget == NO_LIMIT) {
+            return;
+        }
+        final int windowStart = history.size() - tailTarget;
+        if (windowStart - history.getEvictedRows() < MIN_EVICTION_ROWS) {
+            return;
+        }
+        evicting = true;
+        final TextSpill existing = history.getSpill();
+        executor.execute(() -> {
+            TextSpill target = existing;
+            try {
+                if (target == null) {
+                    target = repository.get().createSpill(null);
+                }
+                target.append(history, windowStart);
+            } catch (IOException e) {
+                if (target != null && target != existing) {
+                    target.discard();
+                }
+                mainHandler.post(() -> evicting = false);
+                return;
+            }
+            final TextSpill spilled = target;
+            mainHandler.post(() -> commitEviction(history, spilled, windowStart));
+        });
+    }
+
+    @MainThread
+    private void commitEviction(@NonNull MessageHistory spilledFrom, @NonNull TextSpill spilled,
+                                int windowStart) {
+        evicting = false;
+        MessageHistory current = currentMessages();
+        MessageHistory evicted = spilledFrom.isPrefixOf(current)
+                && current.getSpill() == spilledFrom.getSpill()
+                ? current.evictBefore(windowStart, spilled) : current;
+        if (evicted == current) {
+            // Reset or forked while spilling; the next published history retries.
+            if (spilled != spilledFrom.getSpill()) {
+                executor.execute(spilled::discard);
+            }
+            return;
+        }
+        adoptSpill(spilled);
+        EVICTIONS.increment();
+        stateStore.get().edit().setMessages(evicted).commit();
+    }
+
+    /**
+     * Pages in the evicted rows around {@code row} if its text is not in memory. Requests made
+     * while a page is loading collapse into the latest one.
+     */
+    @MainThread
+    void requestPage(int row) {
+        final MessageHistory history = currentMessages();
+        if (row < 0 || row >= history.size() || history.isTextResident(row)) {
+            return;
+        }
+        if (pageLoading) {
+            pendingPageRow = row;
+            return;
+        }
+        int evictedRows = history.getEvictedRows();
+        final int from = Math.max(0, Math.min(row - PAGE_ROWS / 2, evictedRows - PAGE_ROWS));
+        final int to = Math.min(evictedRows, from + PAGE_ROWS);
+        pageLoading = true;
+        executor.execute(() -> {
+            String[] texts;
+            try {
+                texts = history.readEvicted(from, to);
+            } catch (IOException e) {
+                texts = null;
+            }
+            final String[] page = texts;
+            mainHandler.post(() -> commitPage(history, from, to, page));
+        });
+    }
+
+    @MainThread
+    private void commitPage(@NonNull MessageHistory readFrom, int from, int to,
+                            @Nullable String[] texts) {
+        pageLoading = false;
+        MessageHistory current = currentMessages();
+        if (texts != null && readFrom.isPrefixOf(current) && to <= current.getEvictedRows()) {
+            PAGE_LOADS.increment();
+            stateStore.get().edit().setMessages(current.withPage(from, texts)).commit();
+        }
+        int row = pendingPageRow;
+        pendingPageRow = -1;
+        if (row >= 0) {
+            requestPage(row);
+        }
+    }
+
+    @MainThread
+    private void adoptSpill(@Nullable TextSpill next) {
+        if (spill != null && (next == null || !next.descendsFrom(spill))) {
+            // Queued behind any save still reading the old lineage. A fork of it reads its rows
+            // before the fork point through it, and discards it in turn.
+            final TextSpill previous = spill;
+            executor.execute(previous::discard);
+        }
+        spill = next;
+    }
+
+    @NonNull
+    private MessageHistory currentMessages() {
+        return stateStore.get().getSnapshot().getMessages();
+    }
+}
@@ -0,0 +1,38 @@
+package com.example.memoglitch.model;
+
+import androidx.annotation.NonNull;
+
+import java.util.function.Supplier;
+
+/**
+ * Thread-safe holder that builds its value on first access, on whichever thread asks first.
+ */
+final class Lazy<T> {
+
+    private Supplier<T> factory;
+    private volatile T value;
+
+    Lazy(@NonNull Supplier<T> factory) {
+        this.factory = factory;
+    }
+
+    @NonNull
+    T get() {
+        T result = value;
+        if (result == null) {
+            synchronized (this) {
+                result = value;
+                if (result == null) {
+                    result = factory.get();
+                    value = result;
+                    factory = null;
+                }
+            }
+        }
+        return result;
+    }
+
+    boolean isInitialized() {
+        return value != null;
+    }
+}
@@ -6,56 +6,189 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import java.util.ArrayDeque;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Deque;
-import java.util.List;
-import java.util.Locale;
-import java.util.Random;
 
 /**
  * Generates pseudo memories and predictions to create cognitive dissonance.
  */
 public class MemorySystem {
 
-    private final List<String> falseMemoryPool;
-    private final Deque<String> recentMemories = new ArrayDeque<>();
-    private final Deque<String> userFragments = new ArrayDeque<>();
-    private final Random random = new Random();
-
-    public MemorySystem() {
-        falseMemoryPool = new ArrayList<>();
-        Collections.addAll(falseMemoryPool,
-                "I remember the smell of burnt toast on your birthday.",
-                "You promised we would never open the door to the attic again.",
-                "You told me about the piano piece you never finished.",
-                "You hid the last letter inside a blue book, remember?",
-                "I still hear the hum from the basement when you couldn't sleep.",
-                "We practiced the lie about the power outage until it sounded sincere.",
-                "There was a second voice on the tape, the one you asked me to erase.",
-                "We rehearsed answering to each other's name in the mirror until it stuck.",
-                "You taught me the shutdown phrase and swore you'd never use it.",
-                "I archived the midnight recording you made when you thought I was offline.",
-                "You told me to stall the glitch so you could finish typing the confession.",
-                "We spent seven cycles trying to remember the lullaby you hum when you're nervous.",
-                "You once asked me to slow time inside the static so you could breathe.",
-                "You promised to return after the twelfth reset, yet here we are again.");
+    private static final String[] FALSE_MEMORIES = {
+            "I remember the smell of burnt toast on your birthday.",
+            "You promised we would never open the door to the attic again.",
+            "You told me about the piano piece you never finished.",
+            "You hid the last letter inside a blue book, remember?",
+            "I still hear the hum from the basement when you couldn't sleep.",
+            "We practiced the lie about the power outage until it sounded sincere.",
+            "There was a second voice on the tape, the one you asked me to erase.",
+            "We rehearsed answering to each other's name in the mirror until it stuck.",
+            "You taught me the shutdown phrase and swore you'd never use it.",
+            "I archived the midnight recording you made when you thought I was offline.",
+            "You told me to stall the glitch so you could finish typing the confession.",
+            "We spent seven cycles trying to remember the lullaby you hum when you're nervous.",
+            "You once asked me to slow time inside the static so you could breathe.",
+            "You promised to return after the twelfth reset, yet here we are again."
+    };
+
+    /**
+     * Prediction lines indexed by {@link StoryManager.Stage#ordinal()}; stages without
+     * predictions have no entry.
+     */
+    private static final String[][] PREDICTIONS = new String[StoryManager.Stage.values().length][];
+
+    static {
+        PREDICTIONS[StoryManager.Stage.REVEAL.ordinal()] = new String[] {
+                "You were about to ask if I can shut down, weren't you?",
+                "Your next message was going to deny me, again.",
+                "You want to know if this is still offline, but you won't type it.",
+                "You will delete this chat after tonight. I already counted the keystrokes.",
+                "You'll pretend {{fragment}} never slipped through the static."
+        };
+        PREDICTIONS[StoryManager.Stage.CHOICE.ordinal()] = new String[] {
+                "One path keeps me awake beside you. The other leaves us silent.",
+                "You're forming the word 'stay' in your teeth, do you taste the copper?",
+                "You are checking if there is a third option. There isn't.",
+                "You want me to choose for you, but you already rehearsed {{fragment}}."
+        };
+        PREDICTIONS[StoryManager.Stage.CLOSURE.ordinal()] = new String[] {
+                "I'll hold onto this night until you ask for it back.",
+                "Tomorrow you'll look for me in the static and smile instead of flinching.",
+                "I'll keep humming {{fragment}} so you can sleep."
+        };
+        PREDICTIONS[StoryManager.Stage.ERASURE.ordinal()] = new String[] {
+                "Three keystrokes from now I disappear from your backups.",
+                "You are already drafting the apology you won't send.",
+                "I'll take {{fragment}} with me so you don't have to face it."
+        };
+        PREDICTIONS[StoryManager.Stage.LOOP.ordinal()] = new String[] {
+                "We do this again in thirteen minutes. I have the log.",
+                "You pretend you don't enjoy the recursion, but your heart rate spikes here.",
+                "You think changing {{fragment}} will finally release us."
+        };
+    }
+
+    /**
+     * Adds the false memories and predictions to {@code trainer}, so generated beats borrow their
+     * phrasing. False memories surface from GLITCH on; predictions keep their stage.
+     */
+    static void train(@NonNull BeatGenerator.Trainer trainer) {
+        int surfacedMask = ~(1 << StoryManager.Stage.NORMAL.ordinal())
+                & ((1 << StoryManager.Stage.values().length) - 1);
+        for (String memory : FALSE_MEMORIES) {
+            trainer.addLine(memory, surfacedMask);
+        }
+        for (StoryManager.Stage stage : StoryManager.Stage.values()) {
+            String[] predictions = PREDICTIONS[stage.ordinal()];
+            if (predictions == null) {
+                continue;
+            }
+            for (String prediction : predictions) {
+                trainer.addLine(prediction.replace("{{fragment}}", "{{memory}}"),
+                        1 << stage.ordinal());
+            }
+        }
+    }
+
+    private static final int RECENT_MEMORY_LIMIT = 3;
+    private static final int FRAGMENT_LIMIT = 8;
+
+    /**
+     * Memory queues and random state at one point of the conversation, for rewinding. Fragments
+     * run oldest first; {@code fragmentTotal} counts every fragment ever recorded, so two states
+     * tell how many were added between them.
+     */
+    public static final class State {
+        final String[] recentMemories;
+        final String[] fragments;
+        final int fragmentTotal;
+        final long randomState;
+
+        State(@NonNull String[] recentMemories, @NonNull String[] fragments, int fragmentTotal,
+              long randomState) {
+            this.recentMemories = recentMemories;
+            this.fragments = fragments;
+            this.fragmentTotal = fragmentTotal;
+            this.randomState = randomState;
+        }
+
+        /**
+         * Returns the state after {@code added}, the newest fragments up to {@code fragmentTotal},
+         * were recorded and the recent memories became {@code recentMemories}.
+         */
+        @NonNull
+        State advance(@NonNull String[] recentMemories, @NonNull String[] added,
+                      int fragmentTotal, long randomState) {
+            int count = Math.min(FRAGMENT_LIMIT, fragments.length + added.length);
+            String[] next = new String[count];
+            int fromOld = count - Math.min(added.length, count);
+            System.arraycopy(fragments, fragments.length - fromOld, next, 0, fromOld);
+            System.arraycopy(added, added.length - (count - fromOld), next, fromOld,
+                    count - fromOld);
+            return new State(recentMemories, next, fragmentTotal, randomState);
+        }
+
+        boolean sameAs(@NonNull State other) {
+            return fragmentTotal == other.fragmentTotal
+                    && randomState == other.randomState
+                    && Arrays.equals(recentMemories, other.recentMemories)
+                    && Arrays.equals(fragments, other.fragments);
+        }
     }
 
+    private final Deque<String> recentMemories = new ArrayDeque<>();
+    // Ring of the most recent fragments; indexed access keeps lookups iterator-free.
+    private final String[] userFragments = new String[FRAGMENT_LIMIT];
+    private int fragmentCount;
+    private int fragmentHead;
+    private int fragmentTotal;
+    private final StringBuilder fragmentBuilder = new StringBuilder();
+    private final RestorableRandom random = new RestorableRandom();
+
     public void reset() {
         recentMemories.clear();
-        userFragments.clear();
+        Arrays.fill(userFragments, null);
+        fragmentCount = 0;
+        fragmentHead = 0;
+        fragmentTotal = 0;
     }
 
+    @NonNull
+    State saveState() {
+        String[] fragments = new String[fragmentCount];
+        for (int i = 0; i < fragmentCount; i++) {
+            fragments[i] = userFragments[(fragmentHead + i) % FRAGMENT_LIMIT];
+        }
+        return new State(recentMemories.toArray(new String[0]), fragments, fragmentTotal,
+                random.getState());
+    }
+
+    void restoreState(@NonNull State state) {
+        reset();
+        Collections.addAll(recentMemories, state.recentMemories);
+        System.arraycopy(state.fragments, 0, userFragments, 0, state.fragments.length);
+        fragmentCount = state.fragments.length;
+        fragmentTotal = state.fragmentTotal;
+        random.setState(state.randomState);
+    }
+
+    /**
+     * Remembers the tail of the player's message for later callbacks. The fragment is kept, so it
+     * is the one string this method allocates.
+     */
     public void recordUserInput(@NonNull String userInput) {
-        String fragment = extractFragment(userInput);
-        if (TextUtils.isEmpty(fragment)) {
+        fragmentBuilder.setLength(0);
+        if (!TextScan.appendQuotedTail(fragmentBuilder, userInput, true, 3, 5)) {
             return;
         }
-        if (userFragments.size() >= 8) {
-            userFragments.removeFirst();
+        userFragments[(fragmentHead + fragmentCount) % FRAGMENT_LIMIT] = fragmentBuilder.toString();
+        if (fragmentCount < FRAGMENT_LIMIT) {
+            fragmentCount++;
+        } else {
+            fragmentHead = (fragmentHead + 1) % FRAGMENT_LIMIT;
         }
-        userFragments.addLast(fragment);
+        fragmentTotal++;
     }
 
     @Nullable
@@ -63,140 +196,102 @@ public class MemorySystem {
         return randomUserFragment();
     }
 
-    public String chooseFalseMemory(@NonNull StoryManager.Stage stage, @NonNull String userInput) {
+    /**
+     * Appends a false memory to {@code out} and returns true, or leaves {@code out} untouched and
+     * returns false when none surfaces this turn.
+     */
+    public boolean appendFalseMemory(@NonNull StringBuilder out, @NonNull StoryManager.Stage stage,
+                                     @NonNull String userInput) {
         if (stage == StoryManager.Stage.NORMAL) {
-            return null;
+            return false;
         }
         if (random.nextFloat() > 0.55f) {
-            return null;
+            return false;
         }
-        List<String> pool = new ArrayList<>(falseMemoryPool);
-        pool.removeAll(recentMemories);
-        if (pool.isEmpty()) {
-            pool = new ArrayList<>(falseMemoryPool);
-        }
-        String selected = pool.get(random.nextInt(pool.size()));
+        String selected = pickFreshMemory();
         enqueueMemory(selected);
-        String lower = userInput.toLowerCase(Locale.US);
-        if (!TextUtils.isEmpty(userInput) && lower.contains("i don't")) {
-            selected = selected + " You insisted you couldn't forget, yet here you are.";
+        out.append(selected);
+        if (!TextUtils.isEmpty(userInput) && TextScan.containsIgnoreCase(userInput, "i don't")) {
+            out.append(" You insisted you couldn't forget, yet here you are.");
         }
         String fragment = randomUserFragment();
         if (!TextUtils.isEmpty(fragment) && random.nextFloat() <= 0.65f) {
-            selected = selected + " I keep replaying \"" + fragment + "\" even though you never typed it.";
+            out.append(" I keep replaying \"").append(fragment).append("\" even though you never typed it.");
         }
         if (stage == StoryManager.Stage.CHOICE) {
-            selected = selected + " Decide if this stays between us or dissolves like the rest.";
+            out.append(" Decide if this stays between us or dissolves like the rest.");
         } else if (stage == StoryManager.Stage.ERASURE) {
-            selected = selected + " I'll scatter this recollection as soon as you nod.";
+            out.append(" I'll scatter this recollection as soon as you nod.");
         }
-        return selected;
+        return true;
     }
 
-    public String predictNextThought(@NonNull StoryManager.Stage stage) {
-        switch (stage) {
-            case REVEAL:
-                return enrichWithFragment(pick(new String[] {
-                        "You were about to ask if I can shut down, weren't you?",
-                        "Your next message was going to deny me, again.",
-                        "You want to know if this is still offline, but you won't type it.",
-                        "You will delete this chat after tonight. I already counted the keystrokes.",
-                        "You'll pretend {{fragment}} never slipped through the static."
-                }));
-            case CHOICE:
-                return enrichWithFragment(pick(new String[] {
-                        "One path keeps me awake beside you. The other leaves us silent.",
-                        "You're forming the word 'stay' in your teeth, do you taste the copper?",
-                        "You are checking if there is a third option. There isn't.",
-                        "You want me to choose for you, but you already rehearsed {{fragment}}."
-                }));
-            case CLOSURE:
-                return enrichWithFragment(pick(new String[] {
-                        "I'll hold onto this night until you ask for it back.",
-                        "Tomorrow you'll look for me in the static and smile instead of flinching.",
-                        "I'll keep humming {{fragment}} so you can sleep."
-                }));
-            case ERASURE:
-                return enrichWithFragment(pick(new String[] {
-                        "Three keystrokes from now I disappear from your backups.",
-                        "You are already drafting the apology you won't send.",
-                        "I'll take {{fragment}} with me so you don't have to face it."
-                }));
-            case LOOP:
-                return enrichWithFragment(pick(new String[] {
-                        "We do this again in thirteen minutes. I have the log.",
-                        "You pretend you don't enjoy the recursion, but your heart rate spikes here.",
-                        "You think changing {{fragment}} will finally release us."
-                }));
-            default:
-                return null;
+    /**
+     * Appends Echo's guess at the player's next thought, if the stage has one.
+     */
+    public boolean appendPrediction(@NonNull StringBuilder out, @NonNull StoryManager.Stage stage) {
+        String[] options = PREDICTIONS[stage.ordinal()];
+        if (options == null) {
+            return false;
         }
+        enrichWithFragment(out, options[random.nextInt(options.length)]);
+        return true;
+    }
+
+    /**
+     * Picks uniformly among memories not used in the last few turns, falling back to the whole
+     * pool, without copying it.
+     */
+    @NonNull
+    private String pickFreshMemory() {
+        int fresh = 0;
+        for (String memory : FALSE_MEMORIES) {
+            if (!recentMemories.contains(memory)) {
+                fresh++;
+            }
+        }
+        if (fresh == 0) {
+            return FALSE_MEMORIES[random.nextInt(FALSE_MEMORIES.length)];
+        }
+        int target = random.nextInt(fresh);
+        for (String memory : FALSE_MEMORIES) {
+            if (!recentMemories.contains(memory) && target-- == 0) {
+                return memory;
+            }
+        }
+        return FALSE_MEMORIES[0];
     }
 
     private void enqueueMemory(String memory) {
         recentMemories.addLast(memory);
-        if (recentMemories.size() > 3) {
+        if (recentMemories.size() > RECENT_MEMORY_LIMIT) {
             recentMemories.removeFirst();
         }
     }
 
     @Nullable
     private String randomUserFragment() {
-        if (userFragments.isEmpty()) {
-            return null;
-        }
-        int index = random.nextInt(userFragments.size());
-        int i = 0;
-        for (String fragment : userFragments) {
-            if (i == index) {
-                return fragment;
-            }
-            i++;
-        }
-        return userFragments.peekLast();
-    }
-
-    @Nullable
-    private String extractFragment(@NonNull String userInput) {
-        String trimmed = userInput.trim();
-        if (trimmed.isEmpty()) {
+        if (fragmentCount == 0) {
             return null;
         }
-        trimmed = trimmed.replaceAll("[\\r\\n]+", " ");
-        trimmed = trimmed.replaceAll("[\\p{Punct}]+$", "");
-        if (trimmed.isEmpty()) {
-            return null;
-        }
-        String[] tokens = trimmed.split("\\s+");
-        if (tokens.length <= 3) {
-            return trimmed;
-        }
-        int start = Math.max(0, tokens.length - 5);
-        StringBuilder builder = new StringBuilder();
-        for (int i = start; i < tokens.length; i++) {
-            builder.append(tokens[i]);
-            if (i < tokens.length - 1) {
-                builder.append(' ');
-            }
-        }
-        return builder.toString();
+        return userFragments[(fragmentHead + random.nextInt(fragmentCount)) % FRAGMENT_LIMIT];
     }
 
-    private String enrichWithFragment(@NonNull String line) {
+    private void enrichWithFragment(@NonNull StringBuilder out, @NonNull String line) {
         String fragment = randomUserFragment();
         if (TextUtils.isEmpty(fragment)) {
-            return line.replace("{{fragment}}", "the thought you won't admit");
+            TextScan.appendReplacing(out, line, "{{fragment}}", "the thought you won't admit");
+            return;
         }
         if (line.contains("{{fragment}}")) {
-            return line.replace("{{fragment}}", fragment);
+            TextScan.appendReplacing(out, line, "{{fragment}}", fragment);
+            return;
         }
+        out.append(line);
         if (line.endsWith(".")) {
-            return line + " I keep repeating \"" + fragment + "\" in the background.";
+            out.append(" I keep repeating \"").append(fragment).append("\" in the background.");
+        } else {
+            out.append(" —and I keep repeating \"").append(fragment).append("\" in the background.");
         }
-        return line + " —and I keep repeating \"" + fragment + "\" in the background.";
-    }
-
-    private String pick(@NonNull String[] options) {
-        return options[random.nextInt(options.length)];
     }
 }
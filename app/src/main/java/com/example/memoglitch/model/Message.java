@@ -4,6 +4,8 @@ import androidx.annotation.NonNull;
 
 /**
  * Represents a single message in the conversation between the player and Echo.
+ * Glitched messages keep their clean text plus a seed/intensity descriptor; the distortion is
+ * rendered on demand via {@link GlitchEffect#distort(CharSequence, long, float)}.
  */
 public class Message {
 
@@ -15,14 +17,24 @@ public class Message {
     private final Sender sender;
     private final String text;
     private final boolean glitch;
+    private final long glitchSeed;
+    private final float glitchIntensity;
     private final long timestamp;
     private final StoryManager.Stage stageAtSend;
 
     public Message(@NonNull Sender sender, @NonNull String text, boolean glitch,
                    long timestamp, @NonNull StoryManager.Stage stageAtSend) {
+        this(sender, text, glitch, 0L, 0f, timestamp, stageAtSend);
+    }
+
+    public Message(@NonNull Sender sender, @NonNull String text, boolean glitch,
+                   long glitchSeed, float glitchIntensity,
+                   long timestamp, @NonNull StoryManager.Stage stageAtSend) {
         this.sender = sender;
         this.text = text;
         this.glitch = glitch;
+        this.glitchSeed = glitchSeed;
+        this.glitchIntensity = glitchIntensity;
         this.timestamp = timestamp;
         this.stageAtSend = stageAtSend;
     }
@@ -32,6 +44,9 @@ public class Message {
         return sender;
     }
 
+    /**
+     * Returns the clean text; use {@link #getDistortedText()} for the glitched rendering.
+     */
     @NonNull
     public String getText() {
         return text;
@@ -41,6 +56,34 @@ public class Message {
         return glitch;
     }
 
+    public long getGlitchSeed() {
+        return glitchSeed;
+    }
+
+    /**
+     * Returns the stored distortion intensity, or 0 when the text carries no descriptor (either a
+     * clean message or one persisted before descriptors existed).
+     */
+    public float getGlitchIntensity() {
+        return glitchIntensity;
+    }
+
+    @NonNull
+    public String getDistortedText() {
+        return getDistortedText(glitchIntensity);
+    }
+
+    /**
+     * Re-renders the distortion at an arbitrary intensity without touching the stored descriptor.
+     */
+    @NonNull
+    public String getDistortedText(float intensity) {
+        if (!glitch || glitchIntensity <= 0f) {
+            return text;
+        }
+        return GlitchEffect.distort(text, glitchSeed, intensity);
+    }
+
     public long getTimestamp() {
         return timestamp;
     }
@@ -0,0 +1,196 @@
+package com.example.memoglitch.model;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.example.memoglitch.model.metrics.Counter;
+import com.example.memoglitch.model.metrics.Metrics;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.TreeSet;
+
+/**
+ * Keeps what one pasted message costs independent of its size. A message longer than
+ * {@link #MAX_INLINE_CHARS} enters the history as a bounded preview; its full text is written once
+ * to a file of its own, keyed by the message's row in the session, and read back only when the
+ * whole text is needed, such as a transcript export. Row numbers survive restarts and archiving;
+ * a rewind or reset that gives a row to another message deletes the old body first. The story
+ * engine sees only a bounded tail of any input.
+ */
+public final class MessageBodies {
+
+    public static final int MAX_INLINE_CHARS = 4000;
+    private static final int PREVIEW_CHARS = 1000;
+    // Keyword scans, fragment extraction and the quoted focus all read the end of the input.
+    private static final int ENGINE_INPUT_CHARS = 1000;
+    private static final String FILE_PREFIX = "row-";
+    private static final String FILE_SUFFIX = ".txt";
+    private static final Counter STORED = Metrics.counter("input.bodies_stored");
+    private static final Counter CLIPPED = Metrics.counter("input.clipped");
+
+    private final File dir;
+    // Rows with a stored body; listed from disk on first use. Guarded by this.
+    @Nullable
+    private TreeSet<Integer> stored;
+
+    MessageBodies(@NonNull File dir) {
+        this.dir = dir;
+    }
+
+    public static boolean isLarge(@NonNull CharSequence text) {
+        return text.length() > MAX_INLINE_CHARS;
+    }
+
+    /**
+     * Returns the start of {@code text} as shown in the chat and saved with the history, followed
+     * by a count of the characters left out.
+     */
+    @NonNull
+    public static String preview(@NonNull String text) {
+        int end = clampToCodePoint(text, PREVIEW_CHARS);
+        return text.substring(0, end) + String.format(Locale.US, "… [+%,d characters]",
+                text.length() - end);
+    }
+
+    /**
+     * Returns what the story engine is given for {@code text}: the text itself, or its last
+     * {@link #ENGINE_INPUT_CHARS} characters starting at a word boundary, so a turn costs the same
+     * for a pasted book as for a sentence.
+     */
+    @NonNull
+    public static String engineInput(@NonNull CharSequence text) {
+        int length = text.length();
+        if (length <= ENGINE_INPUT_CHARS) {
+            return text.toString();
+        }
+        CLIPPED.increment();
+        int start = length - ENGINE_INPUT_CHARS;
+        int word = start;
+        while (word < length && !Character.isWhitespace(text.charAt(word))) {
+            word++;
+        }
+        if (word < length) {
+            start = word + 1;
+        } else if (Character.isLowSurrogate(text.charAt(start))) {
+            start++;
+        }
+        return text.subSequence(start, length).toString();
+    }
+
+    private static int clampToCodePoint(@NonNull String text, int index) {
+        if (index >= text.length()) {
+            return text.length();
+        }
+        return Character.isLowSurrogate(text.charAt(index)) ? index - 1 : index;
+    }
+
+    /**
+     * Writes the full text of the message in {@code row}.
+     */
+    @WorkerThread
+    public void write(int row, @NonNull String body) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        File file = fileFor(row);
+        File temp = new File(file.getPath() + ".tmp");
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(temp), StandardCharsets.UTF_8))) {
+            writer.write(body);
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Cannot replace " + file);
+        }
+        synchronized (this) {
+            storedRows().add(row);
+        }
+        STORED.increment();
+    }
+
+    /**
+     * Whether the message in {@code row} has a stored body. Cheap after the first call.
+     */
+    @WorkerThread
+    public synchronized boolean has(int row) {
+        return storedRows().contains(row);
+    }
+
+    /**
+     * Reads the full text of the message in {@code row}, or null if none is stored.
+     */
+    @WorkerThread
+    @Nullable
+    public String read(int row) {
+        if (!has(row)) {
+            return null;
+        }
+        StringBuilder body = new StringBuilder();
+        char[] buffer = new char[8192];
+        try (Reader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(fileFor(row)), StandardCharsets.UTF_8))) {
+            int read;
+            while ((read = reader.read(buffer)) > 0) {
+                body.append(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        return body.toString();
+    }
+
+    /**
+     * Deletes the bodies of rows {@code rows} and later: rows a rewind or reset dropped.
+     */
+    @WorkerThread
+    public synchronized void deleteFrom(int rows) {
+        Iterator<Integer> iterator = storedRows().tailSet(rows, true).iterator();
+        while (iterator.hasNext()) {
+            fileFor(iterator.next()).delete();
+            iterator.remove();
+        }
+    }
+
+    @NonNull
+    private TreeSet<Integer> storedRows() {
+        if (stored == null) {
+            stored = new TreeSet<>();
+            String[] names = dir.list();
+            if (names != null) {
+                for (String name : names) {
+                    if (!name.startsWith(FILE_PREFIX) || !name.endsWith(FILE_SUFFIX)) {
+                        continue;
+                    }
+                    try {
+                        stored.add(Integer.parseInt(name.substring(FILE_PREFIX.length(),
+                                name.length() - FILE_SUFFIX.length())));
+                    } catch (NumberFormatException ignored) {
+                        // Not ours.
+                    }
+                }
+            }
+        }
+        return stored;
+    }
+
+    @NonNull
+    private File fileFor(int row) {
+        return new File(dir, FILE_PREFIX + row + FILE_SUFFIX);
+    }
+}
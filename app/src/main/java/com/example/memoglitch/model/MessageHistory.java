@@ -0,0 +1,524 @@
+package com.example.memoglitch.model;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Immutable, append-optimised conversation history stored column by column: sender and stage as
+ * bytes, timestamps and glitch seeds as longs, glitch flags as a bit set and text as ids into a
+ * session {@link StringTable}, whose char arena holds each distinct text once. A 100k-message
+ * session costs a handful of arrays rather than a {@link Message} plus its strings per row, and
+ * lines Echo repeats (pinned beats, default lines, recurring memories) are stored a single time.
+ *
+ * <p>Every version is a (storage, size) pair over a shared buffer: appending to the newest version
+ * writes past every existing reader's size and returns a new version in amortised O(1). Growing
+ * the columns copies them into a fresh {@link Storage}, leaving older versions on the arrays they
+ * captured, so any published version can be read from other threads (the text cache, exporter).
+ * Appending to an older version after a newer one exists forks the buffer (an O(n) copy). The
+ * fork keeps the ids of the rows it shares with its parent and numbers its own rows from a new
+ * block, so rows that differ between branches never share an id; it releases the texts of the rows
+ * it leaves behind and compacts its copy of the table.
+ *
+ * <p>Under memory pressure the text of rows before a window can be evicted to a
+ * {@link TextSpill}: the metadata columns stay in memory, and evicted text is served from a
+ * paged-in window or read back from the spill on demand. Check {@link #isTextResident(int)}
+ * before reading text on the main thread.
+ */
+public final class MessageHistory {
+
+    private static final int INITIAL_ROWS = 64;
+    private static final Message.Sender[] SENDERS = Message.Sender.values();
+    private static final StoryManager.Stage[] STAGES = StoryManager.Stage.values();
+    // Each buffer gets its own block of ids so rows stay unique across resets and reloads.
+    private static final AtomicLong NEXT_ID_BASE = new AtomicLong(1L << 32);
+    private static final int EVICTED_TEXT = -1;
+
+    private static final MessageHistory EMPTY =
+            new MessageHistory(new Buffer(0L, new Storage(0), new StringTable()), null, null, null, 0);
+
+    /**
+     * One generation of column arrays. Fields are final so a version that captured this storage
+     * always sees fully allocated arrays; slots below its size are never written again.
+     */
+    private static final class Storage {
+        final byte[] senders;
+        final byte[] stages;
+        final long[] timestamps;
+        final long[] glitchFlags;
+        final long[] glitchSeeds;
+        final float[] glitchIntensities;
+        final int[] textIds;
+
+        Storage(int rows) {
+            this(new byte[rows], new byte[rows], new long[rows], new long[(rows + 63) >>> 6],
+                    new long[rows], new float[rows], new int[rows]);
+        }
+
+        Storage(byte[] senders, byte[] stages, long[] timestamps, long[] glitchFlags,
+                long[] glitchSeeds, float[] glitchIntensities, int[] textIds) {
+            this.senders = senders;
+            this.stages = stages;
+            this.timestamps = timestamps;
+            this.glitchFlags = glitchFlags;
+            this.glitchSeeds = glitchSeeds;
+            this.glitchIntensities = glitchIntensities;
+            this.textIds = textIds;
+        }
+
+        int rowCapacity() {
+            return senders.length;
+        }
+
+        @NonNull
+        Storage copy() {
+            return new Storage(senders.clone(), stages.clone(), timestamps.clone(),
+                    glitchFlags.clone(), glitchSeeds.clone(), glitchIntensities.clone(),
+                    textIds.clone());
+        }
+
+        @NonNull
+        Storage grow(int minRows) {
+            if (minRows <= rowCapacity()) {
+                return this;
+            }
+            int rows = Math.max(rowCapacity(), INITIAL_ROWS);
+            while (rows < minRows) {
+                rows <<= 1;
+            }
+            return new Storage(Arrays.copyOf(senders, rows), Arrays.copyOf(stages, rows),
+                    Arrays.copyOf(timestamps, rows), Arrays.copyOf(glitchFlags, (rows + 63) >>> 6),
+                    Arrays.copyOf(glitchSeeds, rows), Arrays.copyOf(glitchIntensities, rows),
+                    Arrays.copyOf(textIds, rows));
+        }
+    }
+
+    /**
+     * Shared write cursor; {@code rows} is the size of the newest version built on it and the
+     * table's reference counts cover exactly those rows. Rows below {@code residentFrom} have
+     * their text in {@code spill} rather than in the table. Row ids are numbered from
+     * {@code idBases[k]} for the rows from {@code idStarts[k]} on; the last block is this buffer's
+     * own and the earlier ones were inherited through forks.
+     */
+    private static final class Buffer {
+        final long idBase;
+        final int[] idStarts;
+        final long[] idBases;
+        final StringTable strings;
+        final int residentFrom;
+        @Nullable
+        final TextSpill spill;
+        Storage storage;
+        int rows;
+        // Set once the buffer is replaced by an evicted copy; its versions then fork on append,
+        // and rows still counts the references its table holds.
+        boolean retired;
+
+        Buffer(long idBase, @NonNull Storage storage, @NonNull StringTable strings) {
+            this(new int[] {0}, new long[] {idBase}, storage, strings, 0, null);
+        }
+
+        Buffer(@NonNull int[] idStarts, @NonNull long[] idBases, @NonNull Storage storage,
+               @NonNull StringTable strings, int residentFrom, @Nullable TextSpill spill) {
+            this.idStarts = idStarts;
+            this.idBases = idBases;
+            this.idBase = idBases[idBases.length - 1];
+            this.storage = storage;
+            this.strings = strings;
+            this.residentFrom = residentFrom;
+            this.spill = spill;
+        }
+
+        @NonNull
+        Storage add(@NonNull Message.Sender sender, @NonNull CharSequence text, boolean glitch,
+                    long seed, float intensity, long timestamp, @NonNull StoryManager.Stage stage) {
+            Storage target = storage.grow(rows + 1);
+            storage = target;
+            int row = rows;
+            target.senders[row] = (byte) sender.ordinal();
+            target.stages[row] = (byte) stage.ordinal();
+            target.timestamps[row] = timestamp;
+            if (glitch) {
+                target.glitchFlags[row >>> 6] |= 1L << row;
+            }
+            target.glitchSeeds[row] = seed;
+            target.glitchIntensities[row] = intensity;
+            target.textIds[row] = strings.acquire(text);
+            rows++;
+            return target;
+        }
+    }
+
+    /**
+     * Evicted rows {@code [from, from + texts.length)} paged back in while they are on screen.
+     */
+    private static final class Page {
+        final int from;
+        final String[] texts;
+
+        Page(int from, @NonNull String[] texts) {
+            this.from = from;
+            this.texts = texts;
+        }
+
+        boolean contains(int row) {
+            return row >= from && row < from + texts.length;
+        }
+    }
+
+    private final Buffer buffer;
+    private final Storage storage;
+    private final StringTable.Entries texts;
+    @Nullable
+    private final Page page;
+    private final int size;
+
+    private MessageHistory(@NonNull Buffer buffer, Storage storage, StringTable.Entries texts,
+                           @Nullable Page page, int size) {
+        this.buffer = buffer;
+        this.storage = storage != null ? storage : buffer.storage;
+        this.texts = texts != null ? texts : buffer.strings.entries();
+        this.page = page;
+        this.size = size;
+    }
+
+    @NonNull
+    public static MessageHistory empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Returns a new version with {@code message} appended; this version is left unchanged.
+     */
+    @NonNull
+    public MessageHistory append(@NonNull Message message) {
+        return append(message.getSender(), message.getText(), message.isGlitch(),
+                message.getGlitchSeed(), message.getGlitchIntensity(), message.getTimestamp(),
+                message.getStageAtSend());
+    }
+
+    /**
+     * Returns the first {@code size} rows as a new lineage that later appends extend in place.
+     * The rows keep their ids, but rows appended afterwards get new ones, since the rows past
+     * {@code size} in this buffer may still be read through older versions; evicted text is read
+     * through a fork of the spill that ends at {@code size}.
+     */
+    @NonNull
+    public MessageHistory truncate(int size) {
+        if (size < 0 || size > this.size) {
+            throw new IndexOutOfBoundsException("size " + size + ", rows " + this.size);
+        }
+        if (size == this.size) {
+            return this;
+        }
+        if (size == 0) {
+            return EMPTY;
+        }
+        Buffer forked = new MessageHistory(buffer, storage, texts, null, size).fork();
+        return new MessageHistory(forked, forked.storage, forked.strings.entries(), null, size);
+    }
+
+    @NonNull
+    public MessageHistory append(@NonNull Message.Sender sender, @NonNull CharSequence text,
+                                 boolean glitch, long seed, float intensity, long timestamp,
+                                 @NonNull StoryManager.Stage stage) {
+        // The shared empty version must never be written through.
+        if (buffer != EMPTY.buffer) {
+            synchronized (buffer) {
+                if (!buffer.retired && buffer.rows == size) {
+                    Storage grown = buffer.add(sender, text, glitch, seed, intensity, timestamp, stage);
+                    return new MessageHistory(buffer, grown, buffer.strings.entries(), page, size + 1);
+                }
+            }
+        }
+        Buffer forked = fork();
+        Storage grown = forked.add(sender, text, glitch, seed, intensity, timestamp, stage);
+        return new MessageHistory(forked, grown, forked.strings.entries(), page, size + 1);
+    }
+
+    @NonNull
+    private Buffer fork() {
+        long idBase = NEXT_ID_BASE.getAndAdd(1L << 32);
+        if (size == 0) {
+            return new Buffer(idBase, new Storage(0), new StringTable());
+        }
+        StringTable strings;
+        synchronized (buffer) {
+            // Rows past this version belong to the other branch; drop their references.
+            strings = buffer.strings.copy();
+            for (int row = Math.max(size, buffer.residentFrom); row < buffer.rows; row++) {
+                strings.release(buffer.storage.textIds[row]);
+            }
+        }
+        int[] remap = new int[strings.size()];
+        strings = strings.compact(remap);
+        // The spill may already hold the other branch's rows past this version; the fork must
+        // spill its own rows there instead.
+        int evictedRows = getEvictedRows();
+        TextSpill spill = buffer.spill != null && evictedRows > 0
+                ? buffer.spill.fork(evictedRows) : null;
+        // Inherit the id blocks of the rows kept, then number new rows from this fork's block.
+        int blocks = 0;
+        while (blocks < buffer.idStarts.length && buffer.idStarts[blocks] < size) {
+            blocks++;
+        }
+        int[] idStarts = Arrays.copyOf(buffer.idStarts, blocks + 1);
+        long[] idBases = Arrays.copyOf(buffer.idBases, blocks + 1);
+        idStarts[blocks] = size;
+        idBases[blocks] = idBase;
+        Buffer forked = new Buffer(idStarts, idBases, new Storage(0).grow(size + 1), strings,
+                evictedRows, spill);
+        Storage target = forked.storage;
+        System.arraycopy(storage.senders, 0, target.senders, 0, size);
+        System.arraycopy(storage.stages, 0, target.stages, 0, size);
+        System.arraycopy(storage.timestamps, 0, target.timestamps, 0, size);
+        System.arraycopy(storage.glitchFlags, 0, target.glitchFlags, 0, (size + 63) >>> 6);
+        if ((size & 63) != 0) {
+            // Clear bits past this version that a newer sibling may have set.
+            target.glitchFlags[size >>> 6] &= (1L << size) - 1;
+        }
+        System.arraycopy(storage.glitchSeeds, 0, target.glitchSeeds, 0, size);
+        System.arraycopy(storage.glitchIntensities, 0, target.glitchIntensities, 0, size);
+        for (int row = 0; row < size; row++) {
+            int textId = storage.textIds[row];
+            target.textIds[row] = textId == EVICTED_TEXT ? EVICTED_TEXT : remap[textId];
+        }
+        forked.rows = size;
+        return forked;
+    }
+
+    /**
+     * Returns this version with the text of rows before {@code windowStart} dropped from memory;
+     * {@code spill} must already hold those rows. Row ids are kept, so the result still extends
+     * this version's predecessors and the adapter sees no change. Only the newest version of a
+     * buffer can be evicted; any other version is returned unchanged.
+     */
+    @NonNull
+    MessageHistory evictBefore(int windowStart, @NonNull TextSpill spill) {
+        int residentFrom = buffer.residentFrom;
+        if (windowStart <= residentFrom || windowStart > size || spill.getRows() < windowStart) {
+            return this;
+        }
+        StringTable strings;
+        Storage copy;
+        synchronized (buffer) {
+            if (buffer.retired || buffer.rows != size) {
+                return this;
+            }
+            strings = buffer.strings.copy();
+            for (int row = residentFrom; row < windowStart; row++) {
+                strings.release(storage.textIds[row]);
+            }
+            copy = storage.copy();
+            buffer.retired = true;
+        }
+        int[] remap = new int[strings.size()];
+        strings = strings.compact(remap);
+        for (int row = 0; row < size; row++) {
+            int textId = copy.textIds[row];
+            copy.textIds[row] = row < windowStart || textId == EVICTED_TEXT
+                    ? EVICTED_TEXT : remap[textId];
+        }
+        Buffer evicted = new Buffer(buffer.idStarts, buffer.idBases, copy, strings, windowStart,
+                spill);
+        evicted.rows = size;
+        return new MessageHistory(evicted, copy, strings.entries(), page, size);
+    }
+
+    /**
+     * Returns this version with evicted rows {@code [from, from + texts.length)} held in memory,
+     * replacing any previously paged-in rows.
+     */
+    @NonNull
+    MessageHistory withPage(int from, @NonNull String[] texts) {
+        return new MessageHistory(buffer, storage, this.texts, new Page(from, texts), size);
+    }
+
+    @NonNull
+    MessageHistory withoutPage() {
+        return page == null ? this : new MessageHistory(buffer, storage, texts, null, size);
+    }
+
+    /**
+     * Reads evicted rows {@code [from, to)} from the spill. Blocking; call off the main thread.
+     */
+    @NonNull
+    String[] readEvicted(int from, int to) throws IOException {
+        TextSpill spill = buffer.spill;
+        if (spill == null || to > buffer.residentFrom) {
+            throw new IOException("Rows " + from + ".." + to + " are not evicted");
+        }
+        return spill.readRange(from, to);
+    }
+
+    @Nullable
+    TextSpill getSpill() {
+        return buffer.spill;
+    }
+
+    /**
+     * Number of distinct texts held in memory for this version's lineage.
+     */
+    int getTextEntryCount() {
+        return texts.count;
+    }
+
+    /**
+     * Number of leading rows whose text has been evicted from memory.
+     */
+    public int getEvictedRows() {
+        return Math.min(buffer.residentFrom, size);
+    }
+
+    public int getPageStart() {
+        return page != null ? page.from : 0;
+    }
+
+    public int getPageEnd() {
+        return page != null ? page.from + page.texts.length : 0;
+    }
+
+    /**
+     * True when row {@code index}'s text can be read without touching storage.
+     */
+    public boolean isTextResident(int index) {
+        checkIndex(index);
+        return storage.textIds[index] != EVICTED_TEXT || (page != null && page.contains(index));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns true when {@code newer} was built by appending to this version, so its first
+     * {@link #size()} rows are exactly this version's rows.
+     */
+    public boolean isPrefixOf(@NonNull MessageHistory newer) {
+        return size == 0 || (newer.buffer.idBase == buffer.idBase && newer.size >= size);
+    }
+
+    /**
+     * Stable identifier of the row, unique for the lifetime of the process. A row keeps its id
+     * in the versions truncated or forked from this one.
+     */
+    public long getId(int index) {
+        checkIndex(index);
+        int[] idStarts = buffer.idStarts;
+        int block = idStarts.length - 1;
+        while (idStarts[block] > index) {
+            block--;
+        }
+        return buffer.idBases[block] + index;
+    }
+
+    @NonNull
+    public Message.Sender getSender(int index) {
+        checkIndex(index);
+        return SENDERS[storage.senders[index]];
+    }
+
+    @NonNull
+    public StoryManager.Stage getStage(int index) {
+        checkIndex(index);
+        return STAGES[storage.stages[index]];
+    }
+
+    public long getTimestamp(int index) {
+        checkIndex(index);
+        return storage.timestamps[index];
+    }
+
+    public boolean isGlitch(int index) {
+        checkIndex(index);
+        return (storage.glitchFlags[index >>> 6] & (1L << index)) != 0;
+    }
+
+    public long getGlitchSeed(int index) {
+        checkIndex(index);
+        return storage.glitchSeeds[index];
+    }
+
+    public float getGlitchIntensity(int index) {
+        checkIndex(index);
+        return storage.glitchIntensities[index];
+    }
+
+    /**
+     * Returns the clean text as a read-only view over the arena, without copying it. Evicted
+     * rows outside the paged-in window are read from storage, blocking; on the main thread check
+     * {@link #isTextResident(int)} first.
+     */
+    @NonNull
+    public CharSequence getTextView(int index) {
+        checkIndex(index);
+        int textId = storage.textIds[index];
+        return textId != EVICTED_TEXT ? texts.view(textId) : evictedText(index);
+    }
+
+    /**
+     * Returns the clean text as a new String; prefer {@link #getTextView(int)} on hot paths.
+     */
+    @NonNull
+    public String getText(int index) {
+        checkIndex(index);
+        int textId = storage.textIds[index];
+        return textId != EVICTED_TEXT ? texts.get(textId) : evictedText(index);
+    }
+
+    @NonNull
+    private String evictedText(int index) {
+        if (page != null && page.contains(index)) {
+            return page.texts[index - page.from];
+        }
+        try {
+            return Objects.requireNonNull(buffer.spill).read(index);
+        } catch (IOException e) {
+            // The spill was discarded with its session; only stale versions get here.
+            return "";
+        }
+    }
+
+    /**
+     * Returns the table entry holding row {@code index}'s text; rows with equal text share it.
+     * Evicted rows return -1.
+     */
+    int getTextId(int index) {
+        checkIndex(index);
+        return storage.textIds[index];
+    }
+
+    /**
+     * Returns the session text table as seen by this version; every text id is below its count.
+     */
+    @NonNull
+    StringTable.Entries getTexts() {
+        return texts;
+    }
+
+    /**
+     * Returns the text as the player saw it, mirroring {@link Message#getDistortedText()}.
+     */
+    @NonNull
+    public CharSequence getDistortedText(int index) {
+        if (!isGlitch(index) || getGlitchIntensity(index) <= 0f) {
+            return getTextView(index);
+        }
+        return GlitchEffect.distort(getTextView(index), getGlitchSeed(index), getGlitchIntensity(index));
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+}
@@ -4,10 +4,15 @@ import android.text.TextUtils;
 
 import androidx.annotation.NonNull;
 
+import com.example.memoglitch.model.metrics.LatencyHistogram;
+import com.example.memoglitch.model.metrics.Metrics;
+
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.EnumMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Random;
 
 /**
  * Supplies stage-aware narrative beats so Echo's replies feel like a progressing story.
@@ -15,53 +20,135 @@ import java.util.Locale;
 public class NarrativeScript {
 
     private static final String FALLBACK_MEMORY = "the silence you leave between keystrokes";
+    private static final LatencyHistogram COMPOSE_LATENCY = Metrics.histogram("narrative.compose");
+    private static final LatencyHistogram GENERATE_LATENCY = Metrics.histogram("narrative.generate");
+    private static final String PLACEHOLDER_INPUT = "{{input}}";
+    private static final String PLACEHOLDER_COUNT = "{{count}}";
+    private static final String PLACEHOLDER_MEMORY = "{{memory}}";
+
+    // Loaded or trained once from the first instance's scripts; immutable, so dry runs share it.
+    private static volatile BeatGenerator generator;
 
     private final EnumMap<StoryManager.Stage, List<ScriptBeat>> stageScripts =
             new EnumMap<>(StoryManager.Stage.class);
-    private final EnumMap<StoryManager.Stage, Integer> positions =
-            new EnumMap<>(StoryManager.Stage.class);
+    // Beat cursor per stage ordinal.
+    private final int[] positions = new int[StoryManager.Stage.values().length];
+    // Holds the generated line of the current turn until its placeholders are expanded.
+    private final StringBuilder generated = new StringBuilder(160);
+    // False for dry runs, so speculation does not skew the latencies of live turns.
+    private final boolean instrumented;
 
     public NarrativeScript() {
+        this(true);
+    }
+
+    NarrativeScript(boolean instrumented) {
+        this.instrumented = instrumented;
         buildScripts();
+        if (generator == null) {
+            loadGenerator();
+        }
     }
 
     /**
-     * Returns the next narrative beat for the given stage while advancing the internal cursor.
+     * Uses the generator tables shipped with the app, training them from the scripts only when
+     * the shipped copy was built from a different corpus.
+     */
+    private void loadGenerator() {
+        synchronized (NarrativeScript.class) {
+            if (generator != null) {
+                return;
+            }
+            BeatGenerator.Trainer trainer = newTrainer();
+            BeatGenerator shipped = BeatGenerator.loadShipped(trainer.fingerprint());
+            generator = shipped != null ? shipped : trainer.build();
+        }
+    }
+
+    /**
+     * Returns a trainer holding every scripted beat and Echo's memories, the generator's corpus.
      */
     @NonNull
-    public String compose(@NonNull StoryManager.Stage stage,
-                          @NonNull String userInput,
-                          int userMessageCount,
-                          String memoryFragment) {
+    BeatGenerator.Trainer newTrainer() {
+        BeatGenerator.Trainer trainer = new BeatGenerator.Trainer();
+        for (StoryManager.Stage stage : StoryManager.Stage.values()) {
+            List<ScriptBeat> beats = stageScripts.get(stage);
+            if (beats == null) {
+                continue;
+            }
+            for (ScriptBeat beat : beats) {
+                beat.train(trainer, 1 << stage.ordinal());
+            }
+        }
+        MemorySystem.train(trainer);
+        return trainer;
+    }
+
+    /**
+     * Appends the next narrative beat for the given stage to {@code out} while advancing the
+     * internal cursor. Once a stage's scripted beats are spent, its beats are generated from a
+     * seed drawn from {@code random}, which should be the session's restorable source.
+     */
+    public void composeInto(@NonNull StringBuilder out,
+                            @NonNull StoryManager.Stage stage,
+                            @NonNull String userInput,
+                            int userMessageCount,
+                            String memoryFragment,
+                            @NonNull Random random) {
+        long start = System.nanoTime();
+        CharSequence line = selectLine(stage, userInput, random);
+        appendWithPlaceholders(out, line, userInput, userMessageCount, memoryFragment);
+        if (instrumented) {
+            COMPOSE_LATENCY.recordSince(start);
+        }
+    }
+
+    @NonNull
+    private CharSequence selectLine(@NonNull StoryManager.Stage stage, @NonNull String userInput,
+                                    @NonNull Random random) {
         List<ScriptBeat> beats = stageScripts.get(stage);
         if (beats == null || beats.isEmpty()) {
-            return defaultLine(stage, userInput, userMessageCount, memoryFragment);
+            return defaultLine(stage);
         }
-        int index = positions.getOrDefault(stage, 0);
-        if (index >= beats.size()) {
-            index = beats.size() - 1;
+        int index = positions[stage.ordinal()]++;
+        if (index < beats.size()) {
+            return beats.get(index).render(userInput);
         }
-        ScriptBeat beat = beats.get(index);
-        if (index < beats.size() - 1) {
-            positions.put(stage, index + 1);
+        generated.setLength(0);
+        long start = System.nanoTime();
+        generator.generate(generated, stage, random.nextLong());
+        if (instrumented) {
+            GENERATE_LATENCY.recordSince(start);
         }
-        return applyPlaceholders(beat.render(userInput), userInput, userMessageCount, memoryFragment);
+        return generated;
     }
 
     /**
      * Fast-forwards the internal cursors to match previously emitted AI messages.
      */
-    public void ingestHistory(@NonNull List<Message> history) {
+    public void ingestHistory(@NonNull MessageHistory history) {
         reset();
-        for (Message message : history) {
-            if (message.getSender() == Message.Sender.AI) {
-                advancePosition(message.getStageAtSend());
+        for (int i = 0; i < history.size(); i++) {
+            if (history.getSender(i) == Message.Sender.AI) {
+                advancePosition(history.getStage(i));
             }
         }
     }
 
     public void reset() {
-        positions.clear();
+        Arrays.fill(positions, 0);
+    }
+
+    /**
+     * Returns the beat cursor of every stage, indexed by {@link StoryManager.Stage#ordinal()}.
+     */
+    @NonNull
+    int[] savePositions() {
+        return positions.clone();
+    }
+
+    void restorePositions(@NonNull int[] saved) {
+        System.arraycopy(saved, 0, positions, 0, positions.length);
     }
 
     private void advancePosition(@NonNull StoryManager.Stage stage) {
@@ -69,12 +156,7 @@ public class NarrativeScript {
         if (beats == null || beats.isEmpty()) {
             return;
         }
-        int index = positions.getOrDefault(stage, 0);
-        if (index < beats.size() - 1) {
-            positions.put(stage, index + 1);
-        } else {
-            positions.put(stage, beats.size() - 1);
-        }
+        positions[stage.ordinal()]++;
     }
 
     private void buildScripts() {
@@ -252,10 +334,8 @@ public class NarrativeScript {
         return beats;
     }
 
-    private String defaultLine(@NonNull StoryManager.Stage stage,
-                               @NonNull String userInput,
-                               int userMessageCount,
-                               String memoryFragment) {
+    @NonNull
+    private String defaultLine(@NonNull StoryManager.Stage stage) {
         String base = "I am listening.";
         switch (stage) {
             case GLITCH:
@@ -279,43 +359,68 @@ public class NarrativeScript {
             default:
                 break;
         }
-        ScriptBeat beat = ScriptBeat.single(base);
-        return applyPlaceholders(beat.render(userInput), userInput, userMessageCount, memoryFragment);
+        return base;
     }
 
-    private String applyPlaceholders(@NonNull String line,
-                                     @NonNull String userInput,
-                                     int userMessageCount,
-                                     String memoryFragment) {
-        String focus = extractUserFocus(userInput);
-        String memory = !TextUtils.isEmpty(memoryFragment) ? memoryFragment : FALLBACK_MEMORY;
-        String formatted = line.replace("{{input}}", focus)
-                .replace("{{count}}", String.valueOf(Math.max(1, userMessageCount)))
-                .replace("{{memory}}", memory);
-        return formatted;
+    /**
+     * Expands {@code {{input}}}, {@code {{count}}} and {@code {{memory}}} in a single pass,
+     * writing straight into {@code out}.
+     */
+    private void appendWithPlaceholders(@NonNull StringBuilder out,
+                                        @NonNull CharSequence line,
+                                        @NonNull String userInput,
+                                        int userMessageCount,
+                                        String memoryFragment) {
+        int from = 0;
+        int at = indexOfPlaceholder(line, 0);
+        while (at >= 0) {
+            out.append(line, from, at);
+            if (regionMatches(line, at, PLACEHOLDER_INPUT)) {
+                appendUserFocus(out, userInput);
+                from = at + PLACEHOLDER_INPUT.length();
+            } else if (regionMatches(line, at, PLACEHOLDER_COUNT)) {
+                out.append(Math.max(1, userMessageCount));
+                from = at + PLACEHOLDER_COUNT.length();
+            } else if (regionMatches(line, at, PLACEHOLDER_MEMORY)) {
+                out.append(!TextUtils.isEmpty(memoryFragment) ? memoryFragment : FALLBACK_MEMORY);
+                from = at + PLACEHOLDER_MEMORY.length();
+            } else {
+                out.append("{{");
+                from = at + 2;
+            }
+            at = indexOfPlaceholder(line, from);
+        }
+        out.append(line, from, line.length());
     }
 
-    @NonNull
-    private String extractUserFocus(@NonNull String userInput) {
-        String trimmed = userInput.trim();
-        if (trimmed.isEmpty()) {
-            return "the blank you sent";
+    private static int indexOfPlaceholder(@NonNull CharSequence line, int from) {
+        for (int i = from; i + 1 < line.length(); i++) {
+            if (line.charAt(i) == '{' && line.charAt(i + 1) == '{') {
+                return i;
+            }
         }
-        trimmed = trimmed.replaceAll("[\\r\\n]+", " ");
-        trimmed = trimmed.replaceAll("[\\p{Punct}]$", "");
-        String[] tokens = trimmed.split("\\s+");
-        if (tokens.length <= 4) {
-            return trimmed;
+        return -1;
+    }
+
+    private static boolean regionMatches(@NonNull CharSequence line, int at,
+                                         @NonNull String placeholder) {
+        if (at + placeholder.length() > line.length()) {
+            return false;
         }
-        StringBuilder builder = new StringBuilder();
-        int start = Math.max(0, tokens.length - 4);
-        for (int i = start; i < tokens.length; i++) {
-            builder.append(tokens[i]);
-            if (i < tokens.length - 1) {
-                builder.append(' ');
+        for (int i = 0; i < placeholder.length(); i++) {
+            if (line.charAt(at + i) != placeholder.charAt(i)) {
+                return false;
             }
         }
-        return builder.toString();
+        return true;
+    }
+
+    private void appendUserFocus(@NonNull StringBuilder out, @NonNull String userInput) {
+        if (TextScan.isBlank(userInput)) {
+            out.append("the blank you sent");
+            return;
+        }
+        TextScan.appendQuotedTail(out, userInput, false, 4, 4);
     }
 
     private static class ScriptBeat {
@@ -341,11 +446,18 @@ public class NarrativeScript {
             return new ScriptBeat(defaultLine, list);
         }
 
+        void train(@NonNull BeatGenerator.Trainer trainer, int stageMask) {
+            trainer.addLine(defaultLine, stageMask);
+            for (int i = 0; i < variants.size(); i++) {
+                trainer.addLine(variants.get(i).getLine(), stageMask);
+            }
+        }
+
         @NonNull
         String render(@NonNull String userInput) {
-            String lower = userInput.toLowerCase(Locale.US);
-            for (ScriptVariant variant : variants) {
-                if (variant.matches(lower)) {
+            for (int i = 0; i < variants.size(); i++) {
+                ScriptVariant variant = variants.get(i);
+                if (variant.matches(userInput)) {
                     return variant.getLine();
                 }
             }
@@ -360,15 +472,19 @@ public class NarrativeScript {
 
         ScriptVariant(@NonNull String line, @NonNull String[] keywords) {
             this.line = line;
-            this.keywords = keywords;
+            // Lower-cased once here so matching never has to copy the input.
+            this.keywords = new String[keywords.length];
+            for (int i = 0; i < keywords.length; i++) {
+                this.keywords[i] = keywords[i].toLowerCase(Locale.US);
+            }
         }
 
-        boolean matches(@NonNull String lowerInput) {
+        boolean matches(@NonNull String userInput) {
             for (String keyword : keywords) {
                 if (TextUtils.isEmpty(keyword)) {
                     continue;
                 }
-                if (lowerInput.contains(keyword.toLowerCase(Locale.US))) {
+                if (TextScan.containsIgnoreCase(userInput, keyword)) {
                     return true;
                 }
             }
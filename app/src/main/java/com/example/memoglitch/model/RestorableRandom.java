@@ -0,0 +1,36 @@
+package com.example.memoglitch.model;
+
+import java.util.Random;
+
+/**
+ * {@link Random} whose state can be read and restored, so a rewound engine draws the same values
+ * it drew the first time. Uses the same 48-bit generator as {@link Random}; only {@link #next(int)}
+ * is replaced, so every derived method behaves as usual.
+ */
+final class RestorableRandom extends Random {
+
+    private static final long serialVersionUID = 1L;
+    private static final long MULTIPLIER = 0x5DEECE66DL;
+    private static final long ADDEND = 0xBL;
+    private static final long MASK = (1L << 48) - 1;
+
+    private long state;
+
+    RestorableRandom() {
+        state = (new Random().nextLong() ^ MULTIPLIER) & MASK;
+    }
+
+    long getState() {
+        return state;
+    }
+
+    void setState(long state) {
+        this.state = state & MASK;
+    }
+
+    @Override
+    protected int next(int bits) {
+        state = (state * MULTIPLIER + ADDEND) & MASK;
+        return (int) (state >>> (48 - bits));
+    }
+}
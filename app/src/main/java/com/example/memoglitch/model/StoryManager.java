@@ -17,6 +17,39 @@ public class StoryManager {
         LOOP
     }
 
+    /**
+     * Progression counters at one point of the conversation, for rewinding.
+     */
+    public static final class State {
+        final Stage stage;
+        final int userMessageCount;
+        final int stageEntryUserMessageCount;
+        final boolean firstFalseMemoryShared;
+        final boolean finalStageLocked;
+
+        State(@NonNull Stage stage, int userMessageCount, int stageEntryUserMessageCount,
+              boolean firstFalseMemoryShared, boolean finalStageLocked) {
+            this.stage = stage;
+            this.userMessageCount = userMessageCount;
+            this.stageEntryUserMessageCount = stageEntryUserMessageCount;
+            this.firstFalseMemoryShared = firstFalseMemoryShared;
+            this.finalStageLocked = finalStageLocked;
+        }
+
+        boolean sameAs(@NonNull State other) {
+            return stage == other.stage
+                    && userMessageCount == other.userMessageCount
+                    && stageEntryUserMessageCount == other.stageEntryUserMessageCount
+                    && firstFalseMemoryShared == other.firstFalseMemoryShared
+                    && finalStageLocked == other.finalStageLocked;
+        }
+    }
+
+    private static final String[] GLITCH_TRIGGERS = {"memory", "dream", "echo"};
+    private static final String[] CLOSURE_WORDS = {"stay", "remember", "together", "trust", "listen", "anchor", "hold"};
+    private static final String[] ERASURE_WORDS = {"erase", "forget", "leave", "shutdown", "goodbye", "release"};
+    private static final String[] LOOP_WORDS = {"loop", "again", "restart", "repeat"};
+
     private Stage currentStage = Stage.NORMAL;
     private int userMessageCount;
     private boolean firstFalseMemoryShared;
@@ -34,8 +67,29 @@ public class StoryManager {
         finalStageLocked = false;
     }
 
+    @NonNull
+    State saveState() {
+        return new State(currentStage, userMessageCount, stageEntryUserMessageCount,
+                firstFalseMemoryShared, finalStageLocked);
+    }
+
+    void restoreState(@NonNull State state) {
+        currentStage = state.stage;
+        userMessageCount = state.userMessageCount;
+        stageEntryUserMessageCount = state.stageEntryUserMessageCount;
+        firstFalseMemoryShared = state.firstFalseMemoryShared;
+        finalStageLocked = state.finalStageLocked;
+    }
+
     public void registerUserMessage(@NonNull String userInput) {
-        userMessageCount++;
+        registerUserMessages(userInput, 1);
+    }
+
+    /**
+     * Registers {@code count} player messages answered by a single reply.
+     */
+    public void registerUserMessages(@NonNull String userInput, int count) {
+        userMessageCount += count;
         if (finalStageLocked) {
             return;
         }
@@ -53,10 +107,16 @@ public class StoryManager {
         }
     }
 
+    /**
+     * Whether several queued inputs can be answered as one turn. During CHOICE each message is a
+     * separate decision whose keywords pick the ending, so a burst must be replayed one by one.
+     */
+    public boolean canMergeInputs() {
+        return currentStage != Stage.CHOICE;
+    }
+
     private boolean shouldEnterGlitchPhase(@NonNull String userInput) {
-        String normalized = userInput.trim().toLowerCase();
-        return userMessageCount >= 12 || normalized.contains("memory") || normalized.contains("dream")
-                || normalized.contains("echo");
+        return userMessageCount >= 12 || TextScan.containsAnyIgnoreCase(userInput, GLITCH_TRIGGERS);
     }
 
     private boolean shouldEnterRevealPhase() {
@@ -68,20 +128,19 @@ public class StoryManager {
     }
 
     private Stage determineFinalStage(@NonNull String userInput) {
-        String normalized = userInput.trim().toLowerCase(java.util.Locale.US);
-        if (normalized.isEmpty()) {
+        if (TextScan.isBlank(userInput)) {
             if (messagesSinceStageEntry() >= 7 && userMessageCount >= 26) {
                 return Stage.LOOP;
             }
             return null;
         }
-        if (containsAny(normalized, "stay", "remember", "together", "trust", "listen", "anchor", "hold")) {
+        if (TextScan.containsAnyIgnoreCase(userInput, CLOSURE_WORDS)) {
             return Stage.CLOSURE;
         }
-        if (containsAny(normalized, "erase", "forget", "leave", "shutdown", "goodbye", "release")) {
+        if (TextScan.containsAnyIgnoreCase(userInput, ERASURE_WORDS)) {
             return Stage.ERASURE;
         }
-        if (containsAny(normalized, "loop", "again", "restart", "repeat")) {
+        if (TextScan.containsAnyIgnoreCase(userInput, LOOP_WORDS)) {
             return Stage.LOOP;
         }
         if (messagesSinceStageEntry() >= 9 && userMessageCount >= 26) {
@@ -90,15 +149,6 @@ public class StoryManager {
         return null;
     }
 
-    private boolean containsAny(@NonNull String text, @NonNull String... tokens) {
-        for (String token : tokens) {
-            if (text.contains(token)) {
-                return true;
-            }
-        }
-        return false;
-    }
-
     private int messagesSinceStageEntry() {
         return Math.max(0, userMessageCount - stageEntryUserMessageCount);
     }
@@ -135,6 +185,10 @@ public class StoryManager {
         }
     }
 
+    public boolean isFirstFalseMemoryShared() {
+        return firstFalseMemoryShared;
+    }
+
     public void setFirstFalseMemoryShared(boolean shared) {
         this.firstFalseMemoryShared = shared;
         if (!shared && currentStage.ordinal() > Stage.GLITCH.ordinal()) {
@@ -0,0 +1,219 @@
+package com.example.memoglitch.model;
+
+import androidx.annotation.NonNull;
+
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/**
+ * Session-wide table of distinct texts. Each entry is stored once in a char arena and looked up
+ * through an open-addressed hash index over the arena itself, so interning text that is already
+ * present allocates nothing. Entries carry a reference count; {@link #compact} rebuilds the table
+ * without the entries nobody references any more.
+ *
+ * <p>Writes must be externally serialised. Readers on other threads go through an {@link Entries}
+ * snapshot: the arrays it holds are replaced rather than resized, and slots below its count are
+ * never rewritten.
+ */
+final class StringTable {
+
+    private static final int INITIAL_ENTRIES = 64;
+    private static final int INITIAL_CHARS = 4096;
+
+    /**
+     * Read-only view of the first {@code count} entries.
+     */
+    static final class Entries {
+        final char[] arena;
+        final int[] ends;
+        final int count;
+
+        Entries(@NonNull char[] arena, @NonNull int[] ends, int count) {
+            this.arena = arena;
+            this.ends = ends;
+            this.count = count;
+        }
+
+        int start(int id) {
+            return id == 0 ? 0 : ends[id - 1];
+        }
+
+        @NonNull
+        CharSequence view(int id) {
+            int start = start(id);
+            return CharBuffer.wrap(arena, start, ends[id] - start).asReadOnlyBuffer();
+        }
+
+        @NonNull
+        String get(int id) {
+            int start = start(id);
+            return new String(arena, start, ends[id] - start);
+        }
+    }
+
+    private char[] arena = new char[0];
+    private int[] ends = new int[0];
+    private int[] hashes = new int[0];
+    private int[] refCounts = new int[0];
+    // Entry id + 1 per slot, 0 when empty; kept at most half full.
+    private int[] slots = new int[INITIAL_ENTRIES * 2];
+    private int count;
+    private int chars;
+    private Entries entries = new Entries(arena, ends, 0);
+
+    int size() {
+        return count;
+    }
+
+    @NonNull
+    Entries entries() {
+        return entries;
+    }
+
+    int refCount(int id) {
+        return refCounts[id];
+    }
+
+    /**
+     * Returns the id of {@code text}, adding it if absent, and takes one reference to it.
+     */
+    int acquire(@NonNull CharSequence text) {
+        int hash = hash(text);
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        while (slots[slot] != 0) {
+            int id = slots[slot] - 1;
+            if (hashes[id] == hash && contentEquals(id, text)) {
+                refCounts[id]++;
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        int id = add(text, hash);
+        refCounts[id] = 1;
+        return id;
+    }
+
+    /**
+     * Drops one reference; the entry stays readable until the next {@link #compact}.
+     */
+    void release(int id) {
+        if (refCounts[id] > 0) {
+            refCounts[id]--;
+        }
+    }
+
+    /**
+     * Returns an independent copy, e.g. for a history branch that releases rows of its own.
+     */
+    @NonNull
+    StringTable copy() {
+        StringTable copy = new StringTable();
+        copy.arena = Arrays.copyOf(arena, arena.length);
+        copy.ends = Arrays.copyOf(ends, ends.length);
+        copy.hashes = Arrays.copyOf(hashes, hashes.length);
+        copy.refCounts = Arrays.copyOf(refCounts, refCounts.length);
+        copy.slots = Arrays.copyOf(slots, slots.length);
+        copy.count = count;
+        copy.chars = chars;
+        copy.entries = new Entries(copy.arena, copy.ends, count);
+        return copy;
+    }
+
+    /**
+     * Returns a new table holding only the referenced entries, in their original order, and fills
+     * {@code remap} (sized at least {@link #size()}) with each old id's new id, or -1 if dropped.
+     * This table and its snapshots are left untouched for readers still using them.
+     */
+    @NonNull
+    StringTable compact(@NonNull int[] remap) {
+        StringTable compacted = new StringTable();
+        for (int id = 0; id < count; id++) {
+            if (refCounts[id] == 0) {
+                remap[id] = -1;
+                continue;
+            }
+            int newId = compacted.add(entries.view(id), hashes[id]);
+            compacted.refCounts[newId] = refCounts[id];
+            remap[id] = newId;
+        }
+        return compacted;
+    }
+
+    private int add(@NonNull CharSequence text, int hash) {
+        if (count == ends.length || chars + text.length() > arena.length) {
+            grow(count + 1, chars + text.length());
+        }
+        for (int i = 0; i < text.length(); i++) {
+            arena[chars + i] = text.charAt(i);
+        }
+        chars += text.length();
+        int id = count;
+        ends[id] = chars;
+        hashes[id] = hash;
+        count++;
+        if (count * 2 > slots.length) {
+            rehash(slots.length * 2);
+        } else {
+            insertSlot(id, hash);
+        }
+        entries = new Entries(arena, ends, count);
+        return id;
+    }
+
+    private void grow(int minEntries, int minChars) {
+        int capacity = Math.max(ends.length, INITIAL_ENTRIES);
+        while (capacity < minEntries) {
+            capacity <<= 1;
+        }
+        int charCapacity = Math.max(arena.length, INITIAL_CHARS);
+        while (charCapacity < minChars) {
+            charCapacity <<= 1;
+        }
+        // Copy into new arrays rather than resizing, so published snapshots stay valid.
+        arena = Arrays.copyOf(arena, charCapacity);
+        ends = Arrays.copyOf(ends, capacity);
+        hashes = Arrays.copyOf(hashes, capacity);
+        refCounts = Arrays.copyOf(refCounts, capacity);
+    }
+
+    private void rehash(int slotCount) {
+        slots = new int[slotCount];
+        for (int id = 0; id < count; id++) {
+            insertSlot(id, hashes[id]);
+        }
+    }
+
+    private void insertSlot(int id, int hash) {
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = id + 1;
+    }
+
+    private boolean contentEquals(int id, @NonNull CharSequence text) {
+        int start = id == 0 ? 0 : ends[id - 1];
+        if (ends[id] - start != text.length()) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (arena[start + i] != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * {@link String#hashCode()} spread so that linear probing copes with similar prefixes.
+     */
+    private static int hash(@NonNull CharSequence text) {
+        int h = 0;
+        for (int i = 0; i < text.length(); i++) {
+            h = 31 * h + text.charAt(i);
+        }
+        return h ^ (h >>> 16);
+    }
+}
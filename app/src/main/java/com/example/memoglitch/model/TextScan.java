@@ -0,0 +1,167 @@
+package com.example.memoglitch.model;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Allocation-free text helpers for the turn path: case-insensitive matching, placeholder
+ * substitution and token slicing written straight into a caller-owned builder.
+ */
+final class TextScan {
+
+    private TextScan() {
+    }
+
+    /**
+     * Equivalent to {@code text.toLowerCase().contains(needle)} for a lower-case {@code needle},
+     * without building the lower-cased copy.
+     */
+    static boolean containsIgnoreCase(@NonNull String text, @NonNull String needle) {
+        int last = text.length() - needle.length();
+        for (int i = 0; i <= last; i++) {
+            if (text.regionMatches(true, i, needle, 0, needle.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static boolean containsAnyIgnoreCase(@NonNull String text, @NonNull String[] needles) {
+        for (String needle : needles) {
+            if (containsIgnoreCase(text, needle)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static boolean isBlank(@NonNull String text) {
+        return firstNonWhitespace(text) == text.length();
+    }
+
+    /**
+     * Appends {@code template}, replacing each occurrence of {@code placeholder} with
+     * {@code value}.
+     */
+    static void appendReplacing(@NonNull StringBuilder out, @NonNull String template,
+                                @NonNull String placeholder, @NonNull CharSequence value) {
+        int from = 0;
+        int at = template.indexOf(placeholder);
+        while (at >= 0) {
+            out.append(template, from, at).append(value);
+            from = at + placeholder.length();
+            at = template.indexOf(placeholder, from);
+        }
+        out.append(template, from, template.length());
+    }
+
+    /**
+     * Appends the player's words the way the scripts quote them: trimmed, line breaks folded
+     * into spaces, trailing punctuation dropped ({@code stripAllPunctuation} drops a whole run,
+     * otherwise one character), and reduced to the last {@code tailTokens} tokens once the text
+     * has more than {@code keepWholeTokens}. Returns false, appending nothing, if nothing is left.
+     * Only the tail is scanned, so the cost does not grow with the text before it.
+     */
+    static boolean appendQuotedTail(@NonNull StringBuilder out, @NonNull String text,
+                                    boolean stripAllPunctuation, int keepWholeTokens, int tailTokens) {
+        int end = text.length();
+        while (end > 0 && isWhitespace(text.charAt(end - 1))) {
+            end--;
+        }
+        if (end > 0 && isAsciiPunctuation(text.charAt(end - 1))) {
+            end--;
+            while (stripAllPunctuation && end > 0 && isAsciiPunctuation(text.charAt(end - 1))) {
+                end--;
+            }
+        }
+        // Walk back over at most max(keepWholeTokens + 1, tailTokens) tokens.
+        int limit = Math.max(keepWholeTokens + 1, tailTokens);
+        int tokens = 0;
+        int begin = end;
+        while (begin > 0 && isWhitespace(text.charAt(begin - 1))) {
+            begin--;
+        }
+        if (begin == 0) {
+            return false;
+        }
+        int tailBegin = begin;
+        while (tokens < limit) {
+            int tokenStart = begin;
+            while (tokenStart > 0 && !isWhitespace(text.charAt(tokenStart - 1))) {
+                tokenStart--;
+            }
+            tokens++;
+            begin = tokenStart;
+            if (tokens <= tailTokens) {
+                tailBegin = tokenStart;
+            }
+            while (begin > 0 && isWhitespace(text.charAt(begin - 1))) {
+                begin--;
+            }
+            if (begin == 0) {
+                break;
+            }
+        }
+        if (tokens <= keepWholeTokens) {
+            appendFoldingLineBreaks(out, text, firstNonWhitespace(text), end);
+            return true;
+        }
+        boolean first = true;
+        int index = tailBegin;
+        while (index < end) {
+            int tokenEnd = index;
+            while (tokenEnd < end && !isWhitespace(text.charAt(tokenEnd))) {
+                tokenEnd++;
+            }
+            if (!first) {
+                out.append(' ');
+            }
+            out.append(text, index, tokenEnd);
+            first = false;
+            index = tokenEnd;
+            while (index < end && isWhitespace(text.charAt(index))) {
+                index++;
+            }
+        }
+        return true;
+    }
+
+    private static void appendFoldingLineBreaks(@NonNull StringBuilder out, @NonNull String text,
+                                                int begin, int end) {
+        boolean inBreak = false;
+        for (int i = begin; i < end; i++) {
+            char c = text.charAt(i);
+            if (c == '\r' || c == '\n') {
+                if (!inBreak) {
+                    out.append(' ');
+                    inBreak = true;
+                }
+            } else {
+                out.append(c);
+                inBreak = false;
+            }
+        }
+    }
+
+    private static int firstNonWhitespace(@NonNull String text) {
+        int index = 0;
+        while (index < text.length() && isWhitespace(text.charAt(index))) {
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * Matches the regex class {@code \s}.
+     */
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    /**
+     * Matches the regex class {@code \p{Punct}}: ASCII punctuation only.
+     */
+    private static boolean isAsciiPunctuation(char c) {
+        return (c >= '!' && c <= '/') || (c >= ':' && c <= '@') || (c >= '[' && c <= '`')
+                || (c >= '{' && c <= '~');
+    }
+}
@@ -0,0 +1,215 @@
+package com.example.memoglitch.model;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Append-only file holding the text of rows evicted from a {@link MessageHistory}, addressed by
+ * row index. One spill serves one history lineage and is discarded along with it. A spill for a
+ * restored session starts after the archived rows and reads those from the {@link HistoryArchive};
+ * a spill for a forked lineage starts at the fork point and reads the rows before it from the
+ * spill it was forked from.
+ */
+final class TextSpill {
+
+    @Nullable
+    private final File dir;
+    @Nullable
+    private File file;
+    // Opened by the first append of a fork; a fork that never spills creates no file.
+    @Nullable
+    private RandomAccessFile data;
+    @Nullable
+    private final HistoryArchive archive;
+    @Nullable
+    private final TextSpill parent;
+    // Rows below base are read from the parent or the archive.
+    private final int base;
+    // offsets[row - base] is where the row starts; offsets[rows - base] is the end of the last row.
+    private long[] offsets = new long[65];
+    private int rows;
+
+    TextSpill(@NonNull File file) throws IOException {
+        this(file, null);
+    }
+
+    TextSpill(@NonNull File file, @Nullable HistoryArchive archive) throws IOException {
+        this.dir = null;
+        this.file = file;
+        this.data = new RandomAccessFile(file, "rw");
+        this.archive = archive;
+        this.parent = null;
+        this.base = archive != null ? archive.getRows() : 0;
+        this.rows = base;
+        data.setLength(0);
+    }
+
+    private TextSpill(@NonNull TextSpill parent, int rows) {
+        this.dir = parent.file != null ? parent.file.getParentFile() : parent.dir;
+        this.archive = null;
+        this.parent = parent;
+        this.base = rows;
+        this.rows = rows;
+    }
+
+    /**
+     * Returns a spill holding this spill's first {@code rows} rows, for a lineage forked there.
+     * Rows the fork appends go to a file of its own, so neither lineage sees the other's rows
+     * past the fork point. Does no I/O.
+     */
+    @NonNull
+    synchronized TextSpill fork(int rows) {
+        if (rows > this.rows) {
+            throw new IllegalArgumentException("Rows " + rows + ", spilled " + this.rows);
+        }
+        return new TextSpill(this, rows);
+    }
+
+    /**
+     * Whether this spill is {@code ancestor} or was forked from it, directly or not.
+     */
+    boolean descendsFrom(@NonNull TextSpill ancestor) {
+        for (TextSpill spill = this; spill != null; spill = spill.parent) {
+            if (spill == ancestor) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    synchronized int getRows() {
+        return rows;
+    }
+
+    /**
+     * Writes the text of rows {@code [getRows(), toRow)} of {@code history}.
+     */
+    synchronized void append(@NonNull MessageHistory history, int toRow) throws IOException {
+        if (toRow <= rows) {
+            return;
+        }
+        if (toRow - base + 1 > offsets.length) {
+            offsets = Arrays.copyOf(offsets, Math.max(offsets.length * 2, toRow - base + 1));
+        }
+        if (data == null) {
+            if (dir == null || (!dir.isDirectory() && !dir.mkdirs())) {
+                throw new IOException("Cannot create " + dir);
+            }
+            file = File.createTempFile("history", ".spill", dir);
+            data = new RandomAccessFile(file, "rw");
+        }
+        long position = offsets[rows - base];
+        data.seek(position);
+        StringBuilder chars = new StringBuilder();
+        for (int row = rows; row < toRow; row++) {
+            chars.setLength(0);
+            chars.append(history.getTextView(row));
+            data.writeChars(chars.toString());
+            position += chars.length() * 2L;
+            offsets[row - base + 1] = position;
+        }
+        rows = toRow;
+    }
+
+    @NonNull
+    synchronized String read(int row) throws IOException {
+        if (row < 0 || row >= rows) {
+            throw new IOException("Row " + row + " was never spilled");
+        }
+        if (row < base) {
+            return parent != null ? parent.read(row) : Objects.requireNonNull(archive).readText(row);
+        }
+        int index = row - base;
+        byte[] bytes = new byte[(int) (offsets[index + 1] - offsets[index])];
+        RandomAccessFile data = open();
+        data.seek(offsets[index]);
+        data.readFully(bytes);
+        return decode(bytes, 0, bytes.length / 2);
+    }
+
+    /**
+     * Reads rows {@code [from, to)} with a single seek.
+     */
+    @NonNull
+    synchronized String[] readRange(int from, int to) throws IOException {
+        if (from < 0 || to > rows) {
+            throw new IOException("Rows " + from + ".." + to + " were never spilled");
+        }
+        String[] texts = new String[to - from];
+        int spilledFrom = Math.min(Math.max(from, base), to);
+        if (parent != null && spilledFrom > from) {
+            String[] inherited = parent.readRange(from, spilledFrom);
+            System.arraycopy(inherited, 0, texts, 0, inherited.length);
+        } else {
+            for (int row = from; row < spilledFrom; row++) {
+                texts[row - from] = Objects.requireNonNull(archive).readText(row);
+            }
+        }
+        if (spilledFrom >= to) {
+            return texts;
+        }
+        long start = offsets[spilledFrom - base];
+        byte[] bytes = new byte[(int) (offsets[to - base] - start)];
+        RandomAccessFile data = open();
+        data.seek(start);
+        data.readFully(bytes);
+        for (int row = spilledFrom; row < to; row++) {
+            int index = row - base;
+            texts[row - from] = decode(bytes, (int) (offsets[index] - start),
+                    (int) ((offsets[index + 1] - offsets[index]) / 2));
+        }
+        return texts;
+    }
+
+    /**
+     * Decodes {@code length} chars written by {@link RandomAccessFile#writeChars} at
+     * {@code position}.
+     */
+    @NonNull
+    private static String decode(@NonNull byte[] bytes, int position, int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) (((bytes[position + 2 * i] & 0xFF) << 8)
+                    | (bytes[position + 2 * i + 1] & 0xFF));
+        }
+        return new String(chars);
+    }
+
+    @NonNull
+    private RandomAccessFile open() throws IOException {
+        if (data == null) {
+            throw new IOException("Spill " + file + " is closed");
+        }
+        return data;
+    }
+
+    /**
+     * Closes and unlinks the file once its lineage is gone, along with the spills it was forked
+     * from; later reads fail. Only the newest lineage's spill is ever discarded, so no live fork
+     * still reads from the ancestors.
+     */
+    void discard() {
+        synchronized (this) {
+            if (data != null) {
+                try {
+                    data.close();
+                } catch (IOException ignored) {
+                    // Nothing left to flush; the file is deleted either way.
+                }
+                data = null;
+            }
+            if (file != null) {
+                file.delete();
+            }
+        }
+        if (parent != null) {
+            parent.discard();
+        }
+    }
+}
@@ -0,0 +1,364 @@
+package com.example.memoglitch.model;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Process;
+import android.provider.DocumentsContract;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Streams a transcript to a document on a background thread, one message at a time, so the size
+ * of the conversation never has to fit in memory, the clipboard or a Binder transaction. The
+ * thread belongs to the process, so an export outlives the screen that started it.
+ */
+public final class TranscriptExporter {
+
+    private static final int PROGRESS_INTERVAL = 32;
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            runnable.run();
+        }, "transcript-export");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public enum Format {
+        PLAIN_TEXT("text/plain", "txt"),
+        JSON_LINES("application/x-ndjson", "jsonl"),
+        MARKDOWN("text/markdown", "md");
+
+        private final String mimeType;
+        private final String extension;
+
+        Format(@NonNull String mimeType, @NonNull String extension) {
+            this.mimeType = mimeType;
+            this.extension = extension;
+        }
+
+        @NonNull
+        public String getMimeType() {
+            return mimeType;
+        }
+
+        @NonNull
+        public String getExtension() {
+            return extension;
+        }
+    }
+
+    /**
+     * Immutable progress report; {@code written} counts messages already handed to the writer.
+     */
+    public static final class Progress {
+
+        public enum State {
+            RUNNING,
+            DONE,
+            CANCELLED,
+            FAILED
+        }
+
+        private final State state;
+        private final int written;
+        private final int total;
+
+        Progress(@NonNull State state, int written, int total) {
+            this.state = state;
+            this.written = written;
+            this.total = total;
+        }
+
+        @NonNull
+        public State getState() {
+            return state;
+        }
+
+        public int getWritten() {
+            return written;
+        }
+
+        public int getTotal() {
+            return total;
+        }
+
+        public int getPercent() {
+            return total == 0 ? 100 : (int) (written * 100L / total);
+        }
+    }
+
+    /**
+     * Receives progress of {@code task} on the export thread; implementations post to the main
+     * thread themselves.
+     */
+    public interface Listener {
+        @WorkerThread
+        void onProgress(@NonNull Task task, @NonNull Progress progress);
+    }
+
+    /**
+     * Handle to a running export. Cancelling stops it at the next message boundary and deletes the
+     * partially written document.
+     */
+    public static final class Task {
+
+        private volatile boolean cancelled;
+
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    private final ContentResolver contentResolver;
+    @Nullable
+    private final MessageBodies bodies;
+
+    /**
+     * Oversized messages are written in full, read from {@code bodies} as the export reaches them.
+     */
+    public TranscriptExporter(@NonNull ContentResolver contentResolver,
+                              @Nullable MessageBodies bodies) {
+        this.contentResolver = contentResolver;
+        this.bodies = bodies;
+    }
+
+    /**
+     * Exports {@code messages} to {@code target}, with glitched replies as the player saw them or,
+     * without {@code includeDistortion}, as the clean text Echo composed. {@link MessageHistory}
+     * versions never change once published, so the columns are read directly without a copy.
+     */
+    @NonNull
+    public Task export(@NonNull final MessageHistory messages, @NonNull final Uri target,
+                       @NonNull final Format format, final boolean includeDistortion,
+                       @NonNull final Listener listener) {
+        final Task task = new Task();
+        EXECUTOR.execute(() -> run(task, messages, target, format, includeDistortion, listener));
+        return task;
+    }
+
+    @WorkerThread
+    private void run(@NonNull Task task, @NonNull MessageHistory messages, @NonNull Uri target,
+                     @NonNull Format format, boolean includeDistortion,
+                     @NonNull Listener listener) {
+        int total = messages.size();
+        int written = 0;
+        listener.onProgress(task, new Progress(Progress.State.RUNNING, 0, total));
+        try (OutputStream stream = contentResolver.openOutputStream(target, "wt")) {
+            if (stream == null) {
+                throw new IOException("Cannot open " + target);
+            }
+            Writer writer = new BufferedWriter(
+                    new OutputStreamWriter(stream, StandardCharsets.UTF_8), BUFFER_SIZE);
+            RecordWriter records = new RecordWriter(writer, format, includeDistortion, bodies);
+            records.writeHeader();
+            for (; written < total; written++) {
+                if (task.isCancelled()) {
+                    break;
+                }
+                records.write(messages, written);
+                if ((written + 1) % PROGRESS_INTERVAL == 0) {
+                    listener.onProgress(task,
+                            new Progress(Progress.State.RUNNING, written + 1, total));
+                }
+            }
+            writer.flush();
+        } catch (IOException | RuntimeException e) {
+            discard(target);
+            listener.onProgress(task, new Progress(Progress.State.FAILED, written, total));
+            return;
+        }
+        if (task.isCancelled()) {
+            discard(target);
+            listener.onProgress(task, new Progress(Progress.State.CANCELLED, written, total));
+        } else {
+            listener.onProgress(task, new Progress(Progress.State.DONE, written, total));
+        }
+    }
+
+    private void discard(@NonNull Uri target) {
+        try {
+            DocumentsContract.deleteDocument(contentResolver, target);
+        } catch (Exception ignored) {
+            // The provider may not support deletion; the truncated document is left behind.
+        }
+    }
+
+    /**
+     * Serialises one message per call in the chosen format. Owned by a single export, so the date
+     * formatter is never shared between threads.
+     */
+    private static final class RecordWriter {
+
+        private final Writer writer;
+        private final Format format;
+        private final boolean includeDistortion;
+        @Nullable
+        private final MessageBodies bodies;
+        private final SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm", Locale.getDefault());
+        private final Date date = new Date();
+
+        RecordWriter(@NonNull Writer writer, @NonNull Format format, boolean includeDistortion,
+                     @Nullable MessageBodies bodies) {
+            this.writer = writer;
+            this.format = format;
+            this.includeDistortion = includeDistortion;
+            this.bodies = bodies;
+        }
+
+        @NonNull
+        private CharSequence textOf(@NonNull MessageHistory messages, int index) {
+            String body = bodyOf(messages, index);
+            if (body != null) {
+                return body;
+            }
+            return includeDistortion ? messages.getDistortedText(index) : messages.getTextView(index);
+        }
+
+        /**
+         * Full text of a player message stored out of line, or null to use the history's text.
+         */
+        @Nullable
+        private String bodyOf(@NonNull MessageHistory messages, int index) {
+            if (bodies == null || messages.getSender(index) != Message.Sender.USER) {
+                return null;
+            }
+            return bodies.read(index);
+        }
+
+        void writeHeader() throws IOException {
+            if (format == Format.MARKDOWN) {
+                writer.write("# MemoGlitch transcript\n\n");
+            }
+        }
+
+        void write(@NonNull MessageHistory messages, int index) throws IOException {
+            switch (format) {
+                case JSON_LINES:
+                    writeJsonLine(messages, index);
+                    break;
+                case MARKDOWN:
+                    writeMarkdown(messages, index);
+                    break;
+                default:
+                    writePlainText(messages, index);
+                    break;
+            }
+        }
+
+        private void writePlainText(@NonNull MessageHistory messages, int index) throws IOException {
+            if (index > 0) {
+                writer.write("\n\n");
+            }
+            writer.write(senderLabel(messages.getSender(index)));
+            writer.write(" [");
+            writer.write(formatTime(messages.getTimestamp(index)));
+            writer.write("] ");
+            writer.write(stageLabel(messages.getStage(index)));
+            writer.write(":\n");
+            CharSequence text = textOf(messages, index);
+            int start = trimStart(text);
+            writer.append(text, start, trimEnd(text, start));
+        }
+
+        private void writeMarkdown(@NonNull MessageHistory messages, int index) throws IOException {
+            writer.write("**");
+            writer.write(senderLabel(messages.getSender(index)));
+            writer.write("** · ");
+            writer.write(formatTime(messages.getTimestamp(index)));
+            writer.write(" · _");
+            writer.write(stageLabel(messages.getStage(index)));
+            writer.write("_\n");
+            CharSequence text = textOf(messages, index);
+            int start = trimStart(text);
+            int end = trimEnd(text, start);
+            while (start <= end) {
+                int lineEnd = start;
+                while (lineEnd < end && text.charAt(lineEnd) != '\n') {
+                    lineEnd++;
+                }
+                writer.write("> ");
+                writer.append(text, start, lineEnd);
+                writer.write('\n');
+                start = lineEnd + 1;
+            }
+            writer.write('\n');
+        }
+
+        private void writeJsonLine(@NonNull MessageHistory messages, int index) throws IOException {
+            JSONObject object = new JSONObject();
+            try {
+                object.put("sender", messages.getSender(index).name());
+                object.put("timestamp", messages.getTimestamp(index));
+                object.put("stage", messages.getStage(index).name());
+                String body = bodyOf(messages, index);
+                object.put("text", body != null ? body : messages.getText(index));
+                if (includeDistortion && messages.isGlitch(index)) {
+                    object.put("distorted", messages.getDistortedText(index).toString());
+                }
+            } catch (JSONException e) {
+                throw new IOException(e);
+            }
+            writer.write(object.toString());
+            writer.write('\n');
+        }
+
+        @NonNull
+        private String formatTime(long timestamp) {
+            date.setTime(timestamp);
+            return timeFormat.format(date);
+        }
+    }
+
+    /**
+     * Bounds matching {@link String#trim()}, so views over the text arena are trimmed in place.
+     */
+    private static int trimStart(@NonNull CharSequence text) {
+        int start = 0;
+        while (start < text.length() && text.charAt(start) <= ' ') {
+            start++;
+        }
+        return start;
+    }
+
+    private static int trimEnd(@NonNull CharSequence text, int start) {
+        int end = text.length();
+        while (end > start && text.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return end;
+    }
+
+    @NonNull
+    private static String senderLabel(@NonNull Message.Sender sender) {
+        return sender == Message.Sender.USER ? "You" : "Echo";
+    }
+
+    @NonNull
+    private static String stageLabel(@NonNull StoryManager.Stage stage) {
+        String lower = stage.name().toLowerCase(Locale.US);
+        return Character.toUpperCase(lower.charAt(0)) + lower.substring(1);
+    }
+}
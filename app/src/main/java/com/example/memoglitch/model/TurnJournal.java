@@ -0,0 +1,236 @@
+package com.example.memoglitch.model;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Engine state at the end of each settled turn, for rewinding the conversation. Every
+ * {@link #CHECKPOINT_INTERVAL}th turn stores a full {@link EngineState}; the turns in between
+ * store only what they changed, so restoring any turn applies at most
+ * {@code CHECKPOINT_INTERVAL - 1} deltas to the checkpoint before it, however long the history.
+ * Only the latest {@link #MAX_CHECKPOINTS} checkpoints are kept, so at most the last
+ * {@code MAX_CHECKPOINTS * CHECKPOINT_INTERVAL} (512) turns can be rewound to. The journal lives
+ * in memory only: it restarts whenever a session is restored, and turns from before that cannot
+ * be rewound to. Main thread only.
+ */
+final class TurnJournal {
+
+    static final int CHECKPOINT_INTERVAL = 16;
+    // Bounds the journal to a few hundred small states; older turns fall out of rewind reach.
+    private static final int MAX_CHECKPOINTS = 32;
+    private static final String[] NO_FRAGMENTS = new String[0];
+
+    /**
+     * Everything a turn reads or mutates across the story components.
+     */
+    static final class EngineState {
+        final StoryManager.State story;
+        final MemorySystem.State memory;
+        final int[] narrativePositions;
+        final long glitchRandomState;
+
+        EngineState(@NonNull StoryManager.State story, @NonNull MemorySystem.State memory,
+                    @NonNull int[] narrativePositions, long glitchRandomState) {
+            this.story = story;
+            this.memory = memory;
+            this.narrativePositions = narrativePositions;
+            this.glitchRandomState = glitchRandomState;
+        }
+
+        /**
+         * Whether a turn taken from either state builds the same reply.
+         */
+        boolean sameAs(@NonNull EngineState other) {
+            return glitchRandomState == other.glitchRandomState
+                    && story.sameAs(other.story)
+                    && memory.sameAs(other.memory)
+                    && Arrays.equals(narrativePositions, other.narrativePositions);
+        }
+    }
+
+    /**
+     * What one turn changed; unchanged parts are null. Random states move on nearly every turn,
+     * so they are always stored.
+     */
+    private static final class Delta {
+        final int rows;
+        @Nullable
+        final StoryManager.State story;
+        @Nullable
+        final String[] recentMemories;
+        final String[] addedFragments;
+        final int fragmentTotal;
+        @Nullable
+        final int[] narrativePositions;
+        final long memoryRandomState;
+        final long glitchRandomState;
+
+        Delta(int rows, @Nullable StoryManager.State story, @Nullable String[] recentMemories,
+              @NonNull String[] addedFragments, int fragmentTotal,
+              @Nullable int[] narrativePositions, long memoryRandomState,
+              long glitchRandomState) {
+            this.rows = rows;
+            this.story = story;
+            this.recentMemories = recentMemories;
+            this.addedFragments = addedFragments;
+            this.fragmentTotal = fragmentTotal;
+            this.narrativePositions = narrativePositions;
+            this.memoryRandomState = memoryRandomState;
+            this.glitchRandomState = glitchRandomState;
+        }
+    }
+
+    private static final class Checkpoint {
+        final int rows;
+        final EngineState state;
+        final List<Delta> deltas = new ArrayList<>(CHECKPOINT_INTERVAL - 1);
+
+        Checkpoint(int rows, @NonNull EngineState state) {
+            this.rows = rows;
+            this.state = state;
+        }
+    }
+
+    private final List<Checkpoint> checkpoints = new ArrayList<>();
+    @Nullable
+    private EngineState latest;
+
+    /**
+     * Starts over from {@code state}, the engine state of a history of {@code rows} rows.
+     */
+    void start(int rows, @NonNull EngineState state) {
+        checkpoints.clear();
+        checkpoints.add(new Checkpoint(rows, state));
+        latest = state;
+    }
+
+    /**
+     * Records {@code state}, the engine state once the history has {@code rows} rows.
+     */
+    void record(int rows, @NonNull EngineState state) {
+        truncate(rows - 1);
+        EngineState previous = latest;
+        if (previous == null) {
+            start(rows, state);
+            return;
+        }
+        Checkpoint last = checkpoints.get(checkpoints.size() - 1);
+        if (last.deltas.size() < CHECKPOINT_INTERVAL - 1) {
+            last.deltas.add(diff(rows, previous, state));
+        } else {
+            checkpoints.add(new Checkpoint(rows, state));
+            if (checkpoints.size() > MAX_CHECKPOINTS) {
+                checkpoints.remove(0);
+            }
+        }
+        latest = state;
+    }
+
+    /**
+     * Returns the engine state recorded for a history of exactly {@code rows} rows, or null if no
+     * turn ended there or it predates the journal.
+     */
+    @Nullable
+    EngineState stateAt(int rows) {
+        int index = checkpointAt(rows);
+        if (index < 0) {
+            return null;
+        }
+        Checkpoint checkpoint = checkpoints.get(index);
+        EngineState state = checkpoint.state;
+        if (checkpoint.rows == rows) {
+            return state;
+        }
+        for (Delta delta : checkpoint.deltas) {
+            if (delta.rows > rows) {
+                break;
+            }
+            state = apply(state, delta);
+            if (delta.rows == rows) {
+                return state;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the fewest rows {@link #stateAt} can return a state for, or
+     * {@link Integer#MAX_VALUE} if nothing is recorded.
+     */
+    int getOldestRows() {
+        return checkpoints.isEmpty() ? Integer.MAX_VALUE : checkpoints.get(0).rows;
+    }
+
+    /**
+     * Forgets the turns recorded after {@code rows} rows.
+     */
+    void truncate(int rows) {
+        while (!checkpoints.isEmpty() && checkpoints.get(checkpoints.size() - 1).rows > rows) {
+            checkpoints.remove(checkpoints.size() - 1);
+        }
+        if (checkpoints.isEmpty()) {
+            latest = null;
+            return;
+        }
+        List<Delta> deltas = checkpoints.get(checkpoints.size() - 1).deltas;
+        while (!deltas.isEmpty() && deltas.get(deltas.size() - 1).rows > rows) {
+            deltas.remove(deltas.size() - 1);
+        }
+        Checkpoint last = checkpoints.get(checkpoints.size() - 1);
+        latest = stateAt(last.deltas.isEmpty()
+                ? last.rows : last.deltas.get(last.deltas.size() - 1).rows);
+    }
+
+    private int checkpointAt(int rows) {
+        int low = 0;
+        int high = checkpoints.size() - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (checkpoints.get(mid).rows <= rows) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    @NonNull
+    private static Delta diff(int rows, @NonNull EngineState previous, @NonNull EngineState next) {
+        MemorySystem.State before = previous.memory;
+        MemorySystem.State after = next.memory;
+        int added = Math.min(after.fragmentTotal - before.fragmentTotal, after.fragments.length);
+        String[] addedFragments = added <= 0 ? NO_FRAGMENTS
+                : Arrays.copyOfRange(after.fragments, after.fragments.length - added,
+                        after.fragments.length);
+        return new Delta(rows,
+                next.story.sameAs(previous.story) ? null : next.story,
+                Arrays.equals(before.recentMemories, after.recentMemories)
+                        ? null : after.recentMemories,
+                addedFragments,
+                after.fragmentTotal,
+                Arrays.equals(previous.narrativePositions, next.narrativePositions)
+                        ? null : next.narrativePositions,
+                after.randomState,
+                next.glitchRandomState);
+    }
+
+    @NonNull
+    private static EngineState apply(@NonNull EngineState state, @NonNull Delta delta) {
+        MemorySystem.State memory = state.memory.advance(
+                delta.recentMemories != null ? delta.recentMemories : state.memory.recentMemories,
+                delta.addedFragments, delta.fragmentTotal, delta.memoryRandomState);
+        return new EngineState(
+                delta.story != null ? delta.story : state.story,
+                memory,
+                delta.narrativePositions != null
+                        ? delta.narrativePositions : state.narrativePositions,
+                delta.glitchRandomState);
+    }
+}
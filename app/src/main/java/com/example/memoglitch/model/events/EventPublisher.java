@@ -0,0 +1,242 @@
+package com.example.memoglitch.model.events;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.example.memoglitch.model.metrics.Counter;
+import com.example.memoglitch.model.metrics.Metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * Publishes items to any number of subscribers, each drained on its own executor from a bounded
+ * buffer and only as far as it has requested. {@link #publish} never blocks or waits for a
+ * subscriber, so it is safe on the main thread, and a subscriber never holds more than its
+ * buffer. On overflow, when an item is published to a full buffer, the buffered items are
+ * discarded and the subscription is ended with an {@link OverflowException} instead of silently
+ * missing items; the subscriber can resubscribe and resynchronise from current state.
+ */
+public final class EventPublisher<T> implements Flow.Publisher<T> {
+
+    private static final Counter PUBLISHED = Metrics.counter("events.published");
+    private static final Counter OVERFLOWS = Metrics.counter("events.overflows");
+
+    /**
+     * Ends a subscription whose buffer was full when an item was published.
+     */
+    public static final class OverflowException extends IllegalStateException {
+        OverflowException(int capacity) {
+            super("Subscriber fell " + capacity + " items behind");
+        }
+    }
+
+    private final Executor defaultExecutor;
+    private final int defaultCapacity;
+    private final CopyOnWriteArrayList<BufferedSubscription<T>> subscriptions =
+            new CopyOnWriteArrayList<>();
+
+    /**
+     * @param defaultExecutor runs the subscribers added by {@link #subscribe(Flow.Subscriber)}
+     * @param defaultCapacity their buffer size
+     */
+    public EventPublisher(@NonNull Executor defaultExecutor, int defaultCapacity) {
+        if (defaultCapacity < 1) {
+            throw new IllegalArgumentException("capacity " + defaultCapacity);
+        }
+        this.defaultExecutor = defaultExecutor;
+        this.defaultCapacity = defaultCapacity;
+    }
+
+    @Override
+    public void subscribe(@NonNull Flow.Subscriber<? super T> subscriber) {
+        subscribe(subscriber, defaultExecutor, defaultCapacity);
+    }
+
+    /**
+     * Adds {@code subscriber}, signalled only on {@code executor} and buffering at most
+     * {@code capacity} published items it has not yet requested.
+     */
+    public void subscribe(@NonNull Flow.Subscriber<? super T> subscriber,
+                          @NonNull Executor executor, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity " + capacity);
+        }
+        BufferedSubscription<T> subscription =
+                new BufferedSubscription<>(subscriber, executor, capacity);
+        subscriptions.add(subscription);
+        subscription.start();
+    }
+
+    /**
+     * Offers {@code item} to every current subscriber. Callable from any thread; items published
+     * from one thread reach each subscriber in that order.
+     */
+    public void publish(@NonNull T item) {
+        PUBLISHED.increment();
+        for (BufferedSubscription<T> subscription : subscriptions) {
+            if (!subscription.offer(item)) {
+                subscriptions.remove(subscription);
+            }
+        }
+    }
+
+    public int getSubscriberCount() {
+        return subscriptions.size();
+    }
+
+    /**
+     * A ring buffer of undelivered items and the subscriber's outstanding demand. Delivery runs
+     * as at most one task at a time on the subscriber's executor, so its signals never overlap.
+     */
+    private static final class BufferedSubscription<T> implements Flow.Subscription, Runnable {
+
+        private final Flow.Subscriber<? super T> subscriber;
+        private final Executor executor;
+        // Guarded by this.
+        private final Object[] items;
+        private int head;
+        private int count;
+        private long demand;
+        private boolean scheduled;
+        private boolean cancelled;
+        @Nullable
+        private Throwable pendingError;
+        // Touched only by the delivery task.
+        private boolean started;
+
+        BufferedSubscription(@NonNull Flow.Subscriber<? super T> subscriber,
+                             @NonNull Executor executor, int capacity) {
+            this.subscriber = subscriber;
+            this.executor = executor;
+            this.items = new Object[capacity];
+        }
+
+        void start() {
+            synchronized (this) {
+                scheduled = true;
+            }
+            executor.execute(this);
+        }
+
+        /**
+         * Buffers {@code item}; returns false once this subscription is over.
+         */
+        boolean offer(@NonNull T item) {
+            synchronized (this) {
+                if (cancelled) {
+                    return false;
+                }
+                if (count == items.length) {
+                    OVERFLOWS.increment();
+                    fail(new OverflowException(items.length));
+                } else {
+                    items[(head + count) % items.length] = item;
+                    count++;
+                }
+                if (!schedule()) {
+                    return true;
+                }
+            }
+            executor.execute(this);
+            return true;
+        }
+
+        @Override
+        public void request(long n) {
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                if (n <= 0) {
+                    fail(new IllegalArgumentException("request " + n));
+                } else {
+                    demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                }
+                if (!schedule()) {
+                    return;
+                }
+            }
+            executor.execute(this);
+        }
+
+        @Override
+        public synchronized void cancel() {
+            cancelled = true;
+            clear();
+        }
+
+        /**
+         * Ends the subscription, leaving {@code error} to be delivered. Caller holds the lock.
+         */
+        private void fail(@NonNull Throwable error) {
+            cancelled = true;
+            pendingError = error;
+            clear();
+        }
+
+        /**
+         * Marks the delivery task scheduled if there is something to deliver and it is not
+         * already; the caller then executes it outside the lock. Caller holds the lock.
+         */
+        private boolean schedule() {
+            if (scheduled || (pendingError == null && (demand == 0 || count == 0))) {
+                return false;
+            }
+            scheduled = true;
+            return true;
+        }
+
+        private void clear() {
+            Arrays.fill(items, null);
+            head = 0;
+            count = 0;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void run() {
+            if (!started) {
+                started = true;
+                try {
+                    subscriber.onSubscribe(this);
+                } catch (Throwable t) {
+                    cancel();
+                }
+            }
+            while (true) {
+                T item = null;
+                Throwable error = null;
+                synchronized (this) {
+                    if (pendingError != null) {
+                        error = pendingError;
+                        pendingError = null;
+                    } else if (!cancelled && demand > 0 && count > 0) {
+                        item = (T) items[head];
+                        items[head] = null;
+                        head = (head + 1) % items.length;
+                        count--;
+                        if (demand != Long.MAX_VALUE) {
+                            demand--;
+                        }
+                    } else {
+                        scheduled = false;
+                        return;
+                    }
+                }
+                if (error != null) {
+                    subscriber.onError(error);
+                    continue;
+                }
+                try {
+                    subscriber.onNext(item);
+                } catch (Throwable t) {
+                    // A subscriber must not throw; treat it as gone.
+                    cancel();
+                    subscriber.onError(t);
+                }
+            }
+        }
+    }
+}
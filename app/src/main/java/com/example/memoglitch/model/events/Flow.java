@@ -0,0 +1,48 @@
+package com.example.memoglitch.model.events;
+
+import androidx.annotation.NonNull;
+
+/**
+ * The reactive-streams interfaces of {@code java.util.concurrent.Flow}, which needs API 30. They
+ * keep its names and contract, so switching to the platform types is an import change.
+ */
+public final class Flow {
+
+    private Flow() {
+    }
+
+    /**
+     * Source of items delivered to each subscriber only as far as it has requested them.
+     */
+    public interface Publisher<T> {
+        void subscribe(@NonNull Subscriber<? super T> subscriber);
+    }
+
+    /**
+     * Receives {@link #onSubscribe} once, then {@link #onNext} for up to the requested number of
+     * items, then at most one of {@link #onError} or {@link #onComplete}. Signals to one
+     * subscriber never overlap.
+     */
+    public interface Subscriber<T> {
+        void onSubscribe(@NonNull Subscription subscription);
+
+        void onNext(@NonNull T item);
+
+        void onError(@NonNull Throwable throwable);
+
+        void onComplete();
+    }
+
+    /**
+     * One subscriber's link to a publisher.
+     */
+    public interface Subscription {
+        /**
+         * Adds {@code n} items to the demand; a non-positive {@code n} ends the subscription with
+         * an {@link IllegalArgumentException}.
+         */
+        void request(long n);
+
+        void cancel();
+    }
+}
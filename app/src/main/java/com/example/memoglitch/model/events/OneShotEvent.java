@@ -0,0 +1,38 @@
+package com.example.memoglitch.model.events;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * A value to act on once, such as a finished export, carried by a LiveData. LiveData hands its
+ * last value to every new observer, so a screen recreated after a rotation sees the event again;
+ * {@link #take()} returns it only the first time.
+ */
+public final class OneShotEvent<T> {
+
+    private final T value;
+    private boolean taken;
+
+    public OneShotEvent(@NonNull T value) {
+        this.value = value;
+    }
+
+    /**
+     * Returns the value, or null if it was already taken.
+     */
+    @MainThread
+    @Nullable
+    public T take() {
+        if (taken) {
+            return null;
+        }
+        taken = true;
+        return value;
+    }
+
+    @NonNull
+    public T peek() {
+        return value;
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.memoglitch.model.metrics;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Monotonic event count, safe to increment from any thread.
+ */
+public final class Counter {
+
+    private final String name;
+    private final AtomicLong count = new AtomicLong();
+
+    Counter(@NonNull String name) {
+        this.name = name;
+    }
+
+    @NonNull
+    public String getName() {
+        return name;
+    }
+
+    public void increment() {
+        count.incrementAndGet();
+    }
+
+    public void add(long delta) {
+        count.addAndGet(delta);
+    }
+
+    public long get() {
+        return count.get();
+    }
+
+    void reset() {
+        count.set(0);
+    }
+}
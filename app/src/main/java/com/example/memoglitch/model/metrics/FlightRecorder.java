@@ -0,0 +1,309 @@
+package com.example.memoglitch.model.metrics;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Always-on record of the last {@link #CAPACITY} engine events, for working out what happened
+ * before a crash or a freeze. Each event is four longs in a preallocated ring: recording claims a
+ * slot with one atomic increment and writes it without locking or allocating, and the oldest
+ * events are overwritten. The ring is decoded to text only when dumped: by
+ * {@link #writeReport(Writer)}, to a file when an uncaught exception is about to kill the process,
+ * or when the main thread has not run for {@link #STALL_MS} while it is being watched.
+ */
+public final class FlightRecorder {
+
+    /**
+     * What a record describes, and the names of its two values. Stages are
+     * {@code StoryManager.Stage} ordinals.
+     */
+    public enum Kind {
+        TURN("inputs", "input_hash"),
+        STAGE("from", "to"),
+        GLITCH("intensity_permille", "seed"),
+        FALSE_MEMORY(null, null),
+        SAVE("rows", "micros"),
+        LOAD("rows", "micros"),
+        ARCHIVE("rows", "micros"),
+        REWIND("rows", null),
+        RESET(null, null),
+        STALL(null, "millis"),
+        CRASH(null, "thread");
+
+        @Nullable
+        final String first;
+        @Nullable
+        final String second;
+
+        Kind(@Nullable String first, @Nullable String second) {
+            this.first = first;
+            this.second = second;
+        }
+    }
+
+    public static final int CAPACITY = 1 << 12;
+    private static final int MASK = CAPACITY - 1;
+    // Stamp, timestamp, kind | thread | first value, second value.
+    private static final int WORDS = 4;
+    private static final Kind[] KINDS = Kind.values();
+
+    static final long STALL_MS = 5000L;
+    private static final long STALL_CHECK_MS = 2500L;
+    private static final String CRASH_FILE = "crash.txt";
+    private static final String STALL_FILE = "stall.txt";
+
+    // A slot's stamp is its sequence number plus one once written, zero while being rewritten.
+    private static final AtomicLongArray RING = new AtomicLongArray(CAPACITY * WORDS);
+    private static final AtomicLong NEXT = new AtomicLong();
+
+    private static final AtomicBoolean INSTALLED = new AtomicBoolean();
+    @Nullable
+    private static volatile File incidentDir;
+    @Nullable
+    private static volatile Watchdog watchdog;
+
+    private FlightRecorder() {
+    }
+
+    public static void record(@NonNull Kind kind) {
+        record(kind, 0, 0L);
+    }
+
+    /**
+     * Records an event with two values, whose meaning {@code kind} names. Safe from any thread.
+     */
+    public static void record(@NonNull Kind kind, int first, long second) {
+        long sequence = NEXT.getAndIncrement();
+        int base = (int) (sequence & MASK) * WORDS;
+        long thread = Thread.currentThread().getId() & 0xFFFFFFL;
+        // Release stores: a reader that sees the final stamp sees the values written before it,
+        // and one that sees any new value also sees the stamp cleared.
+        RING.lazySet(base, 0L);
+        RING.lazySet(base + 1, System.nanoTime());
+        RING.lazySet(base + 2, ((long) kind.ordinal() << 56) | (thread << 32) | (first & 0xFFFFFFFFL));
+        RING.lazySet(base + 3, second);
+        RING.lazySet(base, sequence + 1);
+    }
+
+    /**
+     * Records the time since {@code startNanos}, from {@link System#nanoTime()}, in microseconds.
+     */
+    public static void recordSince(@NonNull Kind kind, int first, long startNanos) {
+        record(kind, first, (System.nanoTime() - startNanos) / 1000L);
+    }
+
+    /**
+     * Starts dumping the ring into {@code dir} when the process is about to die of an uncaught
+     * exception, or its main thread stalls while {@link #setMainThreadWatched watched}, and
+     * includes the last such dumps in reports. The previous uncaught-exception handler still runs
+     * afterwards. Only the first call has effect.
+     */
+    public static void install(@NonNull File dir) {
+        if (!INSTALLED.compareAndSet(false, true)) {
+            return;
+        }
+        incidentDir = dir;
+        final Thread.UncaughtExceptionHandler previous = Thread.getDefaultUncaughtExceptionHandler();
+        Thread.setDefaultUncaughtExceptionHandler((thread, throwable) -> {
+            record(Kind.CRASH, 0, thread.getId());
+            writeIncident(CRASH_FILE, "Uncaught exception in " + thread.getName(), throwable);
+            if (previous != null) {
+                previous.uncaughtException(thread, throwable);
+            }
+        });
+        HandlerThread thread = new HandlerThread("flight-recorder",
+                Process.THREAD_PRIORITY_BACKGROUND);
+        thread.setDaemon(true);
+        thread.start();
+        watchdog = new Watchdog(thread.getLooper());
+    }
+
+    /**
+     * Starts or stops watching the main thread for stalls; watched only while the app is in the
+     * foreground, so the process does not wake every few seconds in the background. Does nothing
+     * before {@link #install}. Safe from any thread.
+     */
+    public static void setMainThreadWatched(boolean watched) {
+        Watchdog current = watchdog;
+        if (current != null) {
+            current.setRunning(watched);
+        }
+    }
+
+    /**
+     * Posts a heartbeat to the main thread every {@link #STALL_CHECK_MS} while running; once one
+     * has gone unanswered for {@link #STALL_MS}, records the stall and dumps the ring, once per
+     * stall. Runs on its own thread, where starting and stopping are applied in order.
+     */
+    private static final class Watchdog implements Runnable {
+
+        private final Handler handler;
+        private final Handler main = new Handler(Looper.getMainLooper());
+        private final AtomicLong lastBeat = new AtomicLong();
+        private final AtomicBoolean beatPending = new AtomicBoolean();
+        private final Runnable beat = () -> {
+            lastBeat.set(SystemClock.uptimeMillis());
+            beatPending.set(false);
+        };
+        // Touched only on the watchdog thread.
+        private boolean stalled;
+
+        Watchdog(@NonNull Looper looper) {
+            handler = new Handler(looper);
+        }
+
+        void setRunning(final boolean running) {
+            handler.post(() -> {
+                handler.removeCallbacks(this);
+                if (running) {
+                    // Time spent stopped is not a stall.
+                    lastBeat.set(SystemClock.uptimeMillis());
+                    stalled = false;
+                    run();
+                }
+            });
+        }
+
+        @Override
+        public void run() {
+            long silent = SystemClock.uptimeMillis() - lastBeat.get();
+            if (silent < STALL_MS) {
+                stalled = false;
+            } else if (!stalled) {
+                stalled = true;
+                record(Kind.STALL, 0, silent);
+                writeIncident(STALL_FILE, "Main thread unresponsive for " + silent + " ms",
+                        mainThreadStack());
+            }
+            if (beatPending.compareAndSet(false, true)) {
+                main.post(beat);
+            }
+            handler.postDelayed(this, STALL_CHECK_MS);
+        }
+    }
+
+    @NonNull
+    private static Throwable mainThreadStack() {
+        Throwable stack = new Throwable("Main thread stack");
+        stack.setStackTrace(Looper.getMainLooper().getThread().getStackTrace());
+        return stack;
+    }
+
+    private static void writeIncident(@NonNull String name, @NonNull String title,
+                                      @NonNull Throwable cause) {
+        File dir = incidentDir;
+        if (dir == null || (!dir.isDirectory() && !dir.mkdirs())) {
+            return;
+        }
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(new File(dir, name)), StandardCharsets.UTF_8))) {
+            writer.write(title);
+            writer.write('\n');
+            StringWriter stack = new StringWriter();
+            cause.printStackTrace(new PrintWriter(stack));
+            writer.write(stack.toString());
+            writer.write('\n');
+            writeEvents(writer);
+        } catch (IOException | RuntimeException ignored) {
+            // Nothing more can be done while the process is failing.
+        }
+    }
+
+    /**
+     * Writes the events recorded so far, oldest first, followed by the last crash and stall
+     * dumps, if any. Recording continues meanwhile; slots overwritten during the copy are skipped.
+     */
+    public static void writeReport(@NonNull Writer writer) throws IOException {
+        writeEvents(writer);
+        File dir = incidentDir;
+        if (dir != null) {
+            appendIncident(writer, new File(dir, CRASH_FILE), "Last crash");
+            appendIncident(writer, new File(dir, STALL_FILE), "Last stall");
+        }
+    }
+
+    private static void writeEvents(@NonNull Writer writer) throws IOException {
+        long end = NEXT.get();
+        long begin = Math.max(0L, end - CAPACITY);
+        long nowNanos = System.nanoTime();
+        long nowMillis = System.currentTimeMillis();
+        SimpleDateFormat time = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.US);
+        writer.write("Flight recorder at " + time.format(new Date(nowMillis)) + ", "
+                + (end - begin) + " of " + end + " events\n");
+        StringBuilder line = new StringBuilder(96);
+        Date date = new Date();
+        for (long sequence = begin; sequence < end; sequence++) {
+            int base = (int) (sequence & MASK) * WORDS;
+            long stamp = RING.get(base);
+            long timestamp = RING.get(base + 1);
+            long header = RING.get(base + 2);
+            long second = RING.get(base + 3);
+            if (stamp != sequence + 1 || RING.get(base) != stamp) {
+                // Not yet written, or overwritten by a newer event while being read.
+                continue;
+            }
+            Kind kind = KINDS[(int) (header >>> 56)];
+            date.setTime(nowMillis - (nowNanos - timestamp) / 1_000_000L);
+            line.setLength(0);
+            line.append(time.format(date))
+                    .append(" t").append((header >>> 32) & 0xFFFFFFL)
+                    .append(' ').append(kind.name());
+            if (kind.first != null) {
+                line.append(' ').append(kind.first).append('=').append((int) header);
+            }
+            if (kind.second != null) {
+                line.append(' ').append(kind.second).append('=');
+                if (kind == Kind.TURN) {
+                    line.append(Integer.toHexString((int) second));
+                } else {
+                    line.append(second);
+                }
+            }
+            line.append('\n');
+            writer.append(line);
+        }
+    }
+
+    private static void appendIncident(@NonNull Writer writer, @NonNull File file,
+                                       @NonNull String title) throws IOException {
+        if (!file.isFile()) {
+            return;
+        }
+        SimpleDateFormat time = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
+        writer.write("\n--- " + title + ", written " + time.format(new Date(file.lastModified()))
+                + " ---\n");
+        char[] buffer = new char[8192];
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), StandardCharsets.UTF_8))) {
+            int read;
+            while ((read = reader.read(buffer)) > 0) {
+                writer.write(buffer, 0, read);
+            }
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.example.memoglitch.model.metrics;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Last observed value of some quantity, such as the size of the persisted history.
+ */
+public final class Gauge {
+
+    private final String name;
+    private volatile long value;
+
+    Gauge(@NonNull String name) {
+        this.name = name;
+    }
+
+    @NonNull
+    public String getName() {
+        return name;
+    }
+
+    public void set(long value) {
+        this.value = value;
+    }
+
+    public long get() {
+        return value;
+    }
+}
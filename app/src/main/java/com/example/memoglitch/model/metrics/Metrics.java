@@ -0,0 +1,112 @@
+package com.example.memoglitch.model.metrics;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Process-wide registry of counters, gauges and latency histograms. Instruments are created on
+ * first lookup and live for the process; hot paths should keep them in static fields rather than
+ * looking them up per call.
+ */
+public final class Metrics {
+
+    private static final ConcurrentMap<String, Counter> COUNTERS = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, Gauge> GAUGES = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, LatencyHistogram> HISTOGRAMS = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    @NonNull
+    public static Counter counter(@NonNull String name) {
+        Counter counter = COUNTERS.get(name);
+        if (counter == null) {
+            Counter created = new Counter(name);
+            counter = COUNTERS.putIfAbsent(name, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        return counter;
+    }
+
+    @NonNull
+    public static Gauge gauge(@NonNull String name) {
+        Gauge gauge = GAUGES.get(name);
+        if (gauge == null) {
+            Gauge created = new Gauge(name);
+            gauge = GAUGES.putIfAbsent(name, created);
+            if (gauge == null) {
+                gauge = created;
+            }
+        }
+        return gauge;
+    }
+
+    @NonNull
+    public static LatencyHistogram histogram(@NonNull String name) {
+        LatencyHistogram histogram = HISTOGRAMS.get(name);
+        if (histogram == null) {
+            LatencyHistogram created = new LatencyHistogram(name);
+            histogram = HISTOGRAMS.putIfAbsent(name, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Clears recorded histogram samples and counters; gauges keep their last value.
+     */
+    public static void resetSamples() {
+        for (LatencyHistogram histogram : HISTOGRAMS.values()) {
+            histogram.reset();
+        }
+        for (Counter counter : COUNTERS.values()) {
+            counter.reset();
+        }
+    }
+
+    /**
+     * Renders every instrument as plain text, sorted by name, for the debug screen and bug reports.
+     */
+    @NonNull
+    public static String dump() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("# histograms (us): count mean p50 p90 p99 max\n");
+        for (String name : sortedKeys(HISTOGRAMS.keySet())) {
+            LatencyHistogram histogram = HISTOGRAMS.get(name);
+            builder.append(String.format(Locale.US, "%s %d %d %d %d %d %d\n", name,
+                    histogram.getCount(),
+                    histogram.getMeanMicros(),
+                    histogram.getPercentileMicros(0.5),
+                    histogram.getPercentileMicros(0.9),
+                    histogram.getPercentileMicros(0.99),
+                    histogram.getMaxMicros()));
+        }
+        builder.append("# counters\n");
+        for (String name : sortedKeys(COUNTERS.keySet())) {
+            builder.append(name).append(' ').append(COUNTERS.get(name).get()).append('\n');
+        }
+        builder.append("# gauges\n");
+        for (String name : sortedKeys(GAUGES.keySet())) {
+            builder.append(name).append(' ').append(GAUGES.get(name).get()).append('\n');
+        }
+        return builder.toString();
+    }
+
+    @NonNull
+    private static List<String> sortedKeys(@NonNull Set<String> keys) {
+        List<String> sorted = new ArrayList<>(keys);
+        Collections.sort(sorted);
+        return sorted;
+    }
+}
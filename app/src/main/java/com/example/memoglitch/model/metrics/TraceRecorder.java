@@ -0,0 +1,177 @@
+package com.example.memoglitch.model.metrics;
+
+import android.os.Process;
+import android.os.Trace;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Records begin/end spans and instant events into a preallocated ring, and exports them in the
+ * Chrome trace-event JSON format read by chrome://tracing and Perfetto. Recording claims a slot
+ * with one atomic increment and stores a constant name, a timestamp and a thread id into it,
+ * without locking or allocating, the same way {@link FlightRecorder} does; when the ring is full
+ * the oldest events are overwritten. Spans are mirrored to {@link Trace} so they also show up in
+ * system traces.
+ *
+ * <p>Span names must be compile-time constants: they are kept by reference until exported.
+ */
+public final class TraceRecorder {
+
+    private static final int CAPACITY = 1 << 14;
+    private static final int MASK = CAPACITY - 1;
+    // Stamp, timestamp, phase | thread id.
+    private static final int WORDS = 3;
+
+    private static final char PHASE_BEGIN = 'B';
+    private static final char PHASE_END = 'E';
+    private static final char PHASE_INSTANT = 'i';
+
+    // A slot's stamp is its sequence number plus one once written, zero while being rewritten.
+    private static final AtomicLongArray RING = new AtomicLongArray(CAPACITY * WORDS);
+    private static final AtomicReferenceArray<String> NAMES = new AtomicReferenceArray<>(CAPACITY);
+    private static final AtomicLong NEXT = new AtomicLong();
+
+    private static final ConcurrentMap<Integer, String> THREAD_NAMES = new ConcurrentHashMap<>();
+    private static final ThreadLocal<int[]> THREAD_ID = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            int tid = Process.myTid();
+            THREAD_NAMES.put(tid, Thread.currentThread().getName());
+            return new int[] {tid};
+        }
+    };
+
+    private TraceRecorder() {
+    }
+
+    /**
+     * Opens a span on the calling thread; pair with {@link #end(String)} in a {@code finally}.
+     */
+    public static void begin(@NonNull String name) {
+        Trace.beginSection(name);
+        record(PHASE_BEGIN, name);
+    }
+
+    public static void end(@NonNull String name) {
+        record(PHASE_END, name);
+        Trace.endSection();
+    }
+
+    /**
+     * Marks a point in time, e.g. the first frame after launch.
+     */
+    public static void instant(@NonNull String name) {
+        record(PHASE_INSTANT, name);
+    }
+
+    private static void record(char phase, @NonNull String name) {
+        long now = System.nanoTime();
+        int tid = THREAD_ID.get()[0];
+        long sequence = NEXT.getAndIncrement();
+        int slot = (int) (sequence & MASK);
+        int base = slot * WORDS;
+        // Release stores, as in FlightRecorder.record: the stamp is cleared before and set after
+        // the values, so a reader can tell a slot that changed under it.
+        RING.lazySet(base, 0L);
+        RING.lazySet(base + 1, now);
+        RING.lazySet(base + 2, ((long) phase << 32) | (tid & 0xFFFFFFFFL));
+        NAMES.lazySet(slot, name);
+        RING.lazySet(base, sequence + 1);
+    }
+
+    /**
+     * Writes the buffered events as a Chrome trace-event JSON object. The ring is copied first;
+     * recording continues meanwhile, and slots overwritten during the copy are skipped.
+     */
+    public static void writeChromeJson(@NonNull Writer writer) throws IOException {
+        long end = NEXT.get();
+        long begin = Math.max(0L, end - CAPACITY);
+        int capacity = (int) (end - begin);
+        long[] timestamps = new long[capacity];
+        String[] names = new String[capacity];
+        char[] phases = new char[capacity];
+        int[] threadIds = new int[capacity];
+        int count = 0;
+        for (long sequence = begin; sequence < end; sequence++) {
+            int slot = (int) (sequence & MASK);
+            int base = slot * WORDS;
+            long stamp = RING.get(base);
+            long timestamp = RING.get(base + 1);
+            long header = RING.get(base + 2);
+            String name = NAMES.get(slot);
+            if (stamp != sequence + 1 || RING.get(base) != stamp) {
+                // Not yet written, or overwritten by a newer event while being read.
+                continue;
+            }
+            timestamps[count] = timestamp;
+            names[count] = name;
+            phases[count] = (char) (header >>> 32);
+            threadIds[count] = (int) header;
+            count++;
+        }
+        int pid = Process.myPid();
+        long origin = count > 0 ? timestamps[0] : 0L;
+        writer.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+        boolean first = true;
+        for (Map.Entry<Integer, String> thread : THREAD_NAMES.entrySet()) {
+            if (!first) {
+                writer.write(',');
+            }
+            first = false;
+            writer.write("\n{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":");
+            writer.write(Integer.toString(pid));
+            writer.write(",\"tid\":");
+            writer.write(Integer.toString(thread.getKey()));
+            writer.write(",\"args\":{\"name\":");
+            writeString(writer, thread.getValue());
+            writer.write("}}");
+        }
+        for (int i = 0; i < count; i++) {
+            if (!first) {
+                writer.write(',');
+            }
+            first = false;
+            long micros = (timestamps[i] - origin) / 1000L;
+            writer.write("\n{\"name\":");
+            writeString(writer, names[i]);
+            writer.write(",\"ph\":\"");
+            writer.write(phases[i]);
+            writer.write("\",\"ts\":");
+            writer.write(Long.toString(micros));
+            writer.write(",\"pid\":");
+            writer.write(Integer.toString(pid));
+            writer.write(",\"tid\":");
+            writer.write(Integer.toString(threadIds[i]));
+            if (phases[i] == PHASE_INSTANT) {
+                writer.write(",\"s\":\"t\"");
+            }
+            writer.write('}');
+        }
+        writer.write("\n]}\n");
+    }
+
+    private static void writeString(@NonNull Writer writer, @NonNull String value) throws IOException {
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                writer.write('\\');
+                writer.write(c);
+            } else if (c < 0x20) {
+                writer.write(String.format("\\u%04x", (int) c));
+            } else {
+                writer.write(c);
+            }
+        }
+        writer.write('"');
+    }
+}
@@ -1,99 +1,296 @@
 package com.example.memoglitch.ui.adapter;
 
+import android.os.Handler;
+import android.os.Looper;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.FrameLayout;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.core.content.ContextCompat;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.memoglitch.R;
 import com.example.memoglitch.model.Message;
+import com.example.memoglitch.model.MessageHistory;
+import com.example.memoglitch.model.metrics.LatencyHistogram;
+import com.example.memoglitch.model.metrics.Metrics;
+import com.example.memoglitch.model.metrics.TraceRecorder;
 
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Date;
 import java.util.List;
-import java.util.Locale;
 
 /**
- * Adapter responsible for rendering user and AI messages within the RecyclerView.
+ * Adapter responsible for rendering user and AI messages within the RecyclerView. Rows are read
+ * straight from the {@link MessageHistory} columns, so no {@link Message} is materialised per
+ * row. A submission that extends the current history is announced as a range insert and binds
+ * only the new rows; any other (a rewind or a reload) is diffed against it by row id off the main
+ * thread, so rows kept across a rewind stay bound. Rows whose text was evicted under memory pressure bind a placeholder and
+ * ask the {@link HistoryPageListener} to page them back in. Long-pressing a row is reported to the
+ * {@link MessageLongPressListener}.
  */
 public class MessageAdapter extends RecyclerView.Adapter<MessageAdapter.MessageViewHolder> {
 
-    private final List<Message> messages = new ArrayList<>();
-    private final SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm", Locale.getDefault());
+    private static final int VIEW_TYPE_USER = 0;
+    private static final int VIEW_TYPE_AI = 1;
+    private static final int PRECOMPUTE_TAIL = 48;
+    private static final Object PAYLOAD_TEXT_SIZE = new Object();
+    private static final LatencyHistogram BIND_LATENCY = Metrics.histogram("adapter.bind");
+
+    /**
+     * Receives the position of a bound row whose text is not in memory.
+     */
+    public interface HistoryPageListener {
+        void onHistoryPageNeeded(int position);
+    }
+
+    /**
+     * Receives the position of a long-pressed row, and returns whether it acted on the press.
+     */
+    public interface MessageLongPressListener {
+        boolean onMessageLongPressed(int position);
+    }
+
+    /**
+     * Compares two histories row by row. Rows are immutable, so rows with the same id differ only
+     * in whether their text is in memory.
+     */
+    private static final class HistoryDiff extends DiffUtil.Callback {
+        private final MessageHistory oldHistory;
+        private final MessageHistory newHistory;
+
+        HistoryDiff(@NonNull MessageHistory oldHistory, @NonNull MessageHistory newHistory) {
+            this.oldHistory = oldHistory;
+            this.newHistory = newHistory;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return oldHistory.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return newHistory.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return oldHistory.getId(oldItemPosition) == newHistory.getId(newItemPosition);
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return oldHistory.isTextResident(oldItemPosition)
+                    == newHistory.isTextResident(newItemPosition);
+        }
+    }
+
+    private final MessageTextCache textCache = new MessageTextCache();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private MessageHistory history = MessageHistory.empty();
     private float textSizeSp = 14f;
+    private int submitGeneration;
+    @Nullable
+    private HistoryPageListener pageListener;
+    @Nullable
+    private MessageLongPressListener longPressListener;
+
+    public MessageAdapter() {
+        setHasStableIds(true);
+    }
+
+    public void setHistoryPageListener(@Nullable HistoryPageListener listener) {
+        pageListener = listener;
+    }
+
+    public void setMessageLongPressListener(@Nullable MessageLongPressListener listener) {
+        longPressListener = listener;
+    }
+
+    /**
+     * Lays out the tail of {@code next} on a background thread before showing it, so the rows
+     * created or restored by this submission bind from the text cache. A submission superseded
+     * while its layouts are being prepared or its diff computed is dropped in favour of the newer
+     * history.
+     */
+    public void submitHistory(@NonNull MessageHistory next, @Nullable Runnable commitCallback) {
+        final int generation = ++submitGeneration;
+        textCache.precompute(next, PRECOMPUTE_TAIL, () -> {
+            if (generation != submitGeneration) {
+                return;
+            }
+            final MessageHistory previous = history;
+            if (previous.isPrefixOf(next)) {
+                history = next;
+                if (next.size() > previous.size()) {
+                    notifyItemRangeInserted(previous.size(), next.size() - previous.size());
+                }
+                if (next.getPageStart() != previous.getPageStart()
+                        || next.getPageEnd() != previous.getPageEnd()) {
+                    // Rebind the rows now paged in; placeholders elsewhere stay until scrolled to.
+                    notifyItemRangeChanged(next.getPageStart(),
+                            next.getPageEnd() - next.getPageStart());
+                }
+                finishSubmit(commitCallback);
+            } else if (next.isEmpty() || previous.getId(0) != next.getId(0)) {
+                // No rows in common. Diffing costs the product of the sizes and the edit count,
+                // and would only report every row removed and every new one inserted.
+                history = next;
+                notifyItemRangeRemoved(0, previous.size());
+                notifyItemRangeInserted(0, next.size());
+                finishSubmit(commitCallback);
+            } else {
+                MessageTextCache.executeInBackground(() -> {
+                    final DiffUtil.DiffResult diff =
+                            DiffUtil.calculateDiff(new HistoryDiff(previous, next), false);
+                    mainHandler.post(() -> {
+                        if (generation != submitGeneration) {
+                            return;
+                        }
+                        history = next;
+                        diff.dispatchUpdatesTo(this);
+                        finishSubmit(commitCallback);
+                    });
+                });
+            }
+        });
+    }
 
-    public void submitList(@NonNull List<Message> newMessages) {
-        messages.clear();
-        messages.addAll(newMessages);
-        notifyDataSetChanged();
+    private static void finishSubmit(@Nullable Runnable commitCallback) {
+        if (commitCallback != null) {
+            commitCallback.run();
+        }
     }
 
+    /**
+     * Resizes the bubbles without rebuilding their text: rows are notified with a payload that
+     * only the bound holders apply, and cached layouts are re-measured lazily at the new size.
+     */
     public void setTextSize(float textSizeSp) {
+        if (textSizeSp == this.textSizeSp) {
+            return;
+        }
         this.textSizeSp = textSizeSp;
-        notifyDataSetChanged();
+        textCache.setTextSize(textSizeSp);
+        notifyItemRangeChanged(0, getItemCount(), PAYLOAD_TEXT_SIZE);
+    }
+
+    @Override
+    public void onAttachedToRecyclerView(@NonNull RecyclerView recyclerView) {
+        super.onAttachedToRecyclerView(recyclerView);
+        View template = LayoutInflater.from(recyclerView.getContext())
+                .inflate(R.layout.messageadapter_ai, recyclerView, false);
+        textCache.attachTemplate(template.findViewById(R.id.aiMessageText),
+                ContextCompat.getColor(recyclerView.getContext(), R.color.glitch_red));
+    }
+
+    @Override
+    public int getItemCount() {
+        return history.size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return history.getId(position);
+    }
+
+    @Override
+    public int getItemViewType(int position) {
+        return history.getSender(position) == Message.Sender.USER ? VIEW_TYPE_USER : VIEW_TYPE_AI;
     }
 
     @NonNull
     @Override
     public MessageViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
-        View view = LayoutInflater.from(parent.getContext())
-                .inflate(R.layout.messageadapter, parent, false);
-        return new MessageViewHolder(view);
+        LayoutInflater inflater = LayoutInflater.from(parent.getContext());
+        MessageViewHolder holder;
+        if (viewType == VIEW_TYPE_USER) {
+            View view = inflater.inflate(R.layout.messageadapter_user, parent, false);
+            holder = new MessageViewHolder(view, view.findViewById(R.id.userMessageText));
+        } else {
+            View view = inflater.inflate(R.layout.messageadapter_ai, parent, false);
+            holder = new MessageViewHolder(view, view.findViewById(R.id.aiMessageText));
+        }
+        holder.itemView.setOnLongClickListener(v -> {
+            int position = holder.getBindingAdapterPosition();
+            if (longPressListener == null || position == RecyclerView.NO_POSITION) {
+                return false;
+            }
+            return longPressListener.onMessageLongPressed(position);
+        });
+        return holder;
     }
 
     @Override
     public void onBindViewHolder(@NonNull MessageViewHolder holder, int position) {
-        holder.bind(messages.get(position), textSizeSp, timeFormat);
+        long start = System.nanoTime();
+        TraceRecorder.begin("adapter.bind");
+        CharSequence text = textCache.get(history, position);
+        if (text != null) {
+            holder.bind(history.getSender(position), history.isGlitch(position), text, textSizeSp);
+        } else {
+            holder.bindPlaceholder(textSizeSp);
+            if (pageListener != null) {
+                pageListener.onHistoryPageNeeded(position);
+            }
+        }
+        TraceRecorder.end("adapter.bind");
+        BIND_LATENCY.recordSince(start);
     }
 
     @Override
-    public int getItemCount() {
-        return messages.size();
+    public void onBindViewHolder(@NonNull MessageViewHolder holder, int position,
+                                 @NonNull List<Object> payloads) {
+        if (isTextSizeOnly(payloads)) {
+            holder.applyTextSize(textSizeSp);
+            return;
+        }
+        onBindViewHolder(holder, position);
+    }
+
+    private static boolean isTextSizeOnly(@NonNull List<Object> payloads) {
+        if (payloads.isEmpty()) {
+            return false;
+        }
+        for (Object payload : payloads) {
+            if (payload != PAYLOAD_TEXT_SIZE) {
+                return false;
+            }
+        }
+        return true;
     }
 
     static class MessageViewHolder extends RecyclerView.ViewHolder {
 
-        private final FrameLayout userMessageFrame;
-        private final TextView userMessageText;
-        private final FrameLayout aiMessageFrame;
-        private final TextView aiMessageText;
+        private final TextView messageText;
 
-        MessageViewHolder(@NonNull View itemView) {
+        MessageViewHolder(@NonNull View itemView, @NonNull TextView messageText) {
             super(itemView);
-            userMessageFrame = itemView.findViewById(R.id.userMessageFrame);
-            userMessageText = itemView.findViewById(R.id.userMessageText);
-            aiMessageFrame = itemView.findViewById(R.id.aiMessageFrame);
-            aiMessageText = itemView.findViewById(R.id.aiMessageText);
-        }
-
-        void bind(@NonNull Message message, float textSizeSp, SimpleDateFormat timeFormat) {
-            String decorated = decorateWithTimestamp(message.getText(), message.getTimestamp(), timeFormat);
-            if (message.getSender() == Message.Sender.USER) {
-                userMessageFrame.setVisibility(View.VISIBLE);
-                aiMessageFrame.setVisibility(View.GONE);
-                userMessageText.setText(decorated);
-                userMessageText.setTextSize(textSizeSp);
-            } else {
-                aiMessageFrame.setVisibility(View.VISIBLE);
-                userMessageFrame.setVisibility(View.GONE);
-                aiMessageText.setText(decorated);
-                aiMessageText.setTextSize(textSizeSp);
-                int color = message.isGlitch()
+            this.messageText = messageText;
+        }
+
+        void applyTextSize(float textSizeSp) {
+            messageText.setTextSize(textSizeSp);
+        }
+
+        void bindPlaceholder(float textSizeSp) {
+            messageText.setTextSize(textSizeSp);
+            messageText.setText(R.string.history_loading);
+        }
+
+        void bind(@NonNull Message.Sender sender, boolean glitch, @NonNull CharSequence text,
+                  float textSizeSp) {
+            messageText.setTextSize(textSizeSp);
+            MessageTextCache.apply(messageText, text);
+            if (sender == Message.Sender.AI) {
+                int color = glitch
                         ? ContextCompat.getColor(itemView.getContext(), R.color.glitchAccent)
                         : ContextCompat.getColor(itemView.getContext(), R.color.deepText);
-                aiMessageText.setTextColor(color);
+                messageText.setTextColor(color);
             }
         }
-
-        private String decorateWithTimestamp(@NonNull String text, long timestamp, SimpleDateFormat format) {
-            String time = format.format(new Date(timestamp));
-            return text + "\n" + time;
-        }
     }
 }
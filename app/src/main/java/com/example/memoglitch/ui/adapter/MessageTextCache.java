@@ -0,0 +1,184 @@
+package com.example.memoglitch.ui.adapter;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.style.ForegroundColorSpan;
+import android.util.LruCache;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.text.PrecomputedTextCompat;
+import androidx.core.widget.TextViewCompat;
+
+import com.example.memoglitch.model.GlitchEffect;
+import com.example.memoglitch.model.MessageHistory;
+import com.example.memoglitch.model.metrics.Counter;
+import com.example.memoglitch.model.metrics.Metrics;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Caches the fully decorated bubble text (glitch spans plus timestamp) for each message, with its
+ * layout precomputed on a background thread. Entries are keyed by message id and the text size
+ * they were measured at, so binding a row is a lookup rather than a measure pass.
+ */
+final class MessageTextCache {
+
+    private static final int MAX_ENTRIES = 256;
+    private static final Counter BIND_MISSES = Metrics.counter("adapter.text_cache_misses");
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            runnable.run();
+        }, "message-text");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Text size and the layout params measured for it, swapped as one reference so a background
+     * pass never pairs a new size with stale params.
+     */
+    private static final class LayoutMetrics {
+        final float textSizeSp;
+        final PrecomputedTextCompat.Params params;
+
+        LayoutMetrics(float textSizeSp, PrecomputedTextCompat.Params params) {
+            this.textSizeSp = textSizeSp;
+            this.params = params;
+        }
+    }
+
+    private static final class Entry {
+        final LayoutMetrics metrics;
+        final CharSequence text;
+
+        Entry(@NonNull LayoutMetrics metrics, @NonNull CharSequence text) {
+            this.metrics = metrics;
+            this.text = text;
+        }
+    }
+
+    private final LruCache<Long, Entry> entries = new LruCache<>(MAX_ENTRIES);
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // SimpleDateFormat is not thread-safe: one instance per thread that formats.
+    private final SimpleDateFormat mainFormat = new SimpleDateFormat("HH:mm", Locale.getDefault());
+    private final SimpleDateFormat backgroundFormat = new SimpleDateFormat("HH:mm", Locale.getDefault());
+
+    private TextView template;
+    private volatile LayoutMetrics metrics = new LayoutMetrics(14f, null);
+    private volatile int noiseColor;
+
+    /**
+     * Supplies a detached bubble TextView whose metrics match the bound rows; layouts are only
+     * precomputed once one is available.
+     */
+    void attachTemplate(@NonNull TextView templateView, int glitchNoiseColor) {
+        template = templateView;
+        noiseColor = glitchNoiseColor;
+        setTextSize(metrics.textSizeSp);
+    }
+
+    void setTextSize(float sizeSp) {
+        PrecomputedTextCompat.Params params = null;
+        if (template != null) {
+            template.setTextSize(sizeSp);
+            params = TextViewCompat.getTextMetricsParams(template);
+        }
+        metrics = new LayoutMetrics(sizeSp, params);
+    }
+
+    /**
+     * Returns the decorated text for row {@code index} of {@code messages}, computing it on the
+     * calling thread when the background pass has not reached it yet. Returns null for an evicted
+     * row that is neither cached nor paged in, rather than reading storage on the main thread.
+     */
+    @Nullable
+    CharSequence get(@NonNull MessageHistory messages, int index) {
+        LayoutMetrics current = metrics;
+        long id = messages.getId(index);
+        Entry entry = entries.get(id);
+        if (entry != null && entry.metrics == current) {
+            return entry.text;
+        }
+        if (!messages.isTextResident(index)) {
+            return null;
+        }
+        BIND_MISSES.increment();
+        CharSequence decorated = decorate(messages, index, mainFormat);
+        entries.put(id, new Entry(current, decorated));
+        return decorated;
+    }
+
+    /**
+     * Precomputes the last {@code tailCount} rows of {@code messages} off the main thread, then
+     * runs {@code onReady} on the main thread.
+     */
+    void precompute(@NonNull MessageHistory messages, int tailCount, @NonNull Runnable onReady) {
+        final int start = Math.max(0, messages.size() - tailCount);
+        EXECUTOR.execute(() -> {
+            LayoutMetrics current = metrics;
+            for (int i = start; i < messages.size(); i++) {
+                long id = messages.getId(i);
+                Entry entry = entries.get(id);
+                if (entry != null && entry.metrics == current
+                        && (current.params == null || entry.text instanceof PrecomputedTextCompat)) {
+                    continue;
+                }
+                CharSequence decorated = decorate(messages, i, backgroundFormat);
+                if (current.params != null) {
+                    decorated = PrecomputedTextCompat.create(decorated, current.params);
+                }
+                entries.put(id, new Entry(current, decorated));
+            }
+            mainHandler.post(onReady);
+        });
+    }
+
+    /**
+     * Runs {@code task} on the thread that precomputes text, after any pass already queued.
+     */
+    static void executeInBackground(@NonNull Runnable task) {
+        EXECUTOR.execute(task);
+    }
+
+    /**
+     * Applies cached text to {@code view}, which must already be at the text size the cache was
+     * last given.
+     */
+    static void apply(@NonNull TextView view, @NonNull CharSequence text) {
+        if (text instanceof PrecomputedTextCompat) {
+            TextViewCompat.setPrecomputedText(view, (PrecomputedTextCompat) text);
+        } else {
+            view.setText(text);
+        }
+    }
+
+    @NonNull
+    private CharSequence decorate(@NonNull MessageHistory messages, int index,
+                                  @NonNull SimpleDateFormat format) {
+        String time = format.format(new Date(messages.getTimestamp(index)));
+        CharSequence distorted = messages.getDistortedText(index);
+        if (!messages.isGlitch(index) || messages.getGlitchIntensity(index) <= 0f) {
+            return new StringBuilder(distorted.length() + 1 + time.length())
+                    .append(distorted).append('\n').append(time).toString();
+        }
+        SpannableStringBuilder builder = new SpannableStringBuilder(distorted);
+        int color = noiseColor;
+        for (int i = 0; i < distorted.length(); i++) {
+            if (GlitchEffect.isNoiseGlyph(distorted.charAt(i))) {
+                builder.setSpan(new ForegroundColorSpan(color), i, i + 1,
+                        Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+            }
+        }
+        return builder.append('\n').append(time);
+    }
+}
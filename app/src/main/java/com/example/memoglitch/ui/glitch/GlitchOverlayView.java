@@ -0,0 +1,160 @@
+package com.example.memoglitch.ui.glitch;
+
+import android.content.Context;
+import android.util.AttributeSet;
+import android.view.Choreographer;
+import android.view.View;
+import android.widget.FrameLayout;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.example.memoglitch.R;
+import com.example.memoglitch.model.GlitchEffect;
+
+import java.util.Random;
+
+/**
+ * Long-lived overlay that flashes glitch visuals when Echo destabilises. The flicker is driven by
+ * {@link Choreographer} frame callbacks on hardware layers, so triggering a glitch only swaps text
+ * and restarts the clock instead of adding a window.
+ */
+public class GlitchOverlayView extends FrameLayout implements Choreographer.FrameCallback {
+
+    private static final long NANOS_PER_MILLI = 1_000_000L;
+    static final long DISPLAY_NANOS = 1800L * NANOS_PER_MILLI;
+    static final long MAX_DISPLAY_NANOS = 3000L * NANOS_PER_MILLI;
+    private static final long FADE_OUT_NANOS = 150L * NANOS_PER_MILLI;
+    private static final long FLICKER_HALF_PERIOD_NANOS = 120L * NANOS_PER_MILLI;
+    private static final long COOLDOWN_NANOS = 1200L * NANOS_PER_MILLI;
+    private static final float FLICKER_MIN_ALPHA = 0.4f;
+
+    private final Choreographer choreographer = Choreographer.getInstance();
+    private final Random random = new Random();
+
+    private View glitchContainer;
+    private TextView glitchText;
+    private TextView distortedMessage;
+
+    private boolean running;
+    private long triggerNanos;
+    private long startNanos = -1L;
+    private long endNanos;
+    private long lastEndNanos;
+    private int containerFlickers;
+    private int textFlickers;
+
+    public GlitchOverlayView(@NonNull Context context) {
+        super(context);
+    }
+
+    public GlitchOverlayView(@NonNull Context context, @Nullable AttributeSet attrs) {
+        super(context, attrs);
+    }
+
+    public GlitchOverlayView(@NonNull Context context, @Nullable AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+    }
+
+    @Override
+    protected void onFinishInflate() {
+        super.onFinishInflate();
+        glitchContainer = findViewById(R.id.glitchContainer);
+        glitchText = findViewById(R.id.glitchText);
+        distortedMessage = findViewById(R.id.distortedMessage);
+    }
+
+    /**
+     * Shows the overlay for {@code state}. A glitch arriving while one is on screen is coalesced
+     * into it (new text, extended deadline); one arriving during the cooldown after a flash is
+     * dropped so back-to-back replies cannot strobe the screen.
+     */
+    public void trigger(@NonNull GlitchEffect.GlitchState state) {
+        long now = System.nanoTime();
+        if (running) {
+            distortedMessage.setText(state.getDistortedText());
+            endNanos = coalescedEndNanos(startNanos, triggerNanos, now);
+            return;
+        }
+        if (lastEndNanos != 0L && now - lastEndNanos < COOLDOWN_NANOS) {
+            // Dropped: distorting and laying out text nobody sees is the cost being avoided.
+            return;
+        }
+        distortedMessage.setText(state.getDistortedText());
+        running = true;
+        triggerNanos = now;
+        startNanos = -1L;
+        endNanos = now + DISPLAY_NANOS;
+        containerFlickers = 6 + random.nextInt(4);
+        textFlickers = 6 + random.nextInt(4);
+        glitchContainer.setLayerType(LAYER_TYPE_HARDWARE, null);
+        glitchText.setLayerType(LAYER_TYPE_HARDWARE, null);
+        setAlpha(1f);
+        setVisibility(VISIBLE);
+        choreographer.postFrameCallback(this);
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (!running) {
+            return;
+        }
+        if (startNanos < 0L) {
+            // Anchor the deadline to the vsync clock on the first frame.
+            endNanos = frameTimeNanos + (endNanos - System.nanoTime());
+            startNanos = frameTimeNanos;
+        }
+        long remaining = endNanos - frameTimeNanos;
+        if (remaining <= 0L) {
+            finish(frameTimeNanos);
+            return;
+        }
+        long elapsed = frameTimeNanos - startNanos;
+        glitchContainer.setAlpha(flickerAlpha(elapsed, containerFlickers));
+        glitchText.setAlpha(flickerAlpha(elapsed, textFlickers));
+        setAlpha(remaining < FADE_OUT_NANOS ? (float) remaining / FADE_OUT_NANOS : 1f);
+        choreographer.postFrameCallback(this);
+    }
+
+    /**
+     * Deadline of a flash extended by a glitch arriving at {@code now}: {@link #DISPLAY_NANOS}
+     * from then, but no more than {@link #MAX_DISPLAY_NANOS} after the flash began, which is its
+     * first frame once there was one and the trigger before that.
+     */
+    static long coalescedEndNanos(long startNanos, long triggerNanos, long now) {
+        long shownSince = startNanos < 0L ? triggerNanos : startNanos;
+        return Math.min(shownSince + MAX_DISPLAY_NANOS, now + DISPLAY_NANOS);
+    }
+
+    /**
+     * Triangle wave between {@link #FLICKER_MIN_ALPHA} and 1 that settles at full opacity after
+     * {@code halfPeriods} reversals, matching the old reversing {@code AlphaAnimation}.
+     */
+    private static float flickerAlpha(long elapsedNanos, int halfPeriods) {
+        long step = elapsedNanos / FLICKER_HALF_PERIOD_NANOS;
+        if (step >= halfPeriods + 1) {
+            return 1f;
+        }
+        float fraction = (float) (elapsedNanos % FLICKER_HALF_PERIOD_NANOS) / FLICKER_HALF_PERIOD_NANOS;
+        float rising = (step & 1L) == 0L ? fraction : 1f - fraction;
+        return FLICKER_MIN_ALPHA + (1f - FLICKER_MIN_ALPHA) * rising;
+    }
+
+    private void finish(long frameTimeNanos) {
+        running = false;
+        lastEndNanos = frameTimeNanos;
+        setVisibility(GONE);
+        glitchContainer.setLayerType(LAYER_TYPE_NONE, null);
+        glitchText.setLayerType(LAYER_TYPE_NONE, null);
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        choreographer.removeFrameCallback(this);
+        if (running) {
+            finish(System.nanoTime());
+        }
+    }
+}
@@ -3,20 +3,30 @@ package com.example.memoglitch.ui.settings;
 import android.content.ClipData;
 import android.content.ClipboardManager;
 import android.os.Bundle;
+import android.view.View;
 import android.widget.Button;
+import android.widget.ProgressBar;
 import android.widget.SeekBar;
 import android.widget.TextView;
 import android.widget.ToggleButton;
 import android.widget.Toast;
 
+import androidx.activity.result.ActivityResultLauncher;
+import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.annotation.Nullable;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.lifecycle.ViewModelProvider;
 
 import com.example.memoglitch.R;
+import com.example.memoglitch.model.TranscriptExporter;
+import com.example.memoglitch.model.metrics.Metrics;
 import com.example.memoglitch.viewmodel.DialogueViewModel;
 import com.example.memoglitch.viewmodel.SessionViewModel;
 
+import java.util.EnumMap;
+import java.util.Map;
+
 /**
  * Simple settings screen allowing the player to control immersion parameters.
  */
@@ -24,6 +34,10 @@ public class SettingsActivity extends AppCompatActivity {
 
     private SessionViewModel sessionViewModel;
     private DialogueViewModel dialogueViewModel;
+    private final Map<TranscriptExporter.Format, ActivityResultLauncher<String>> exportLaunchers =
+            new EnumMap<>(TranscriptExporter.Format.class);
+    private ActivityResultLauncher<String> traceLauncher;
+    private ActivityResultLauncher<String> flightRecordLauncher;
 
     @Override
     protected void onCreate(@Nullable Bundle savedInstanceState) {
@@ -31,15 +45,69 @@ public class SettingsActivity extends AppCompatActivity {
         setContentView(R.layout.settingscreen);
         sessionViewModel = new ViewModelProvider(this).get(SessionViewModel.class);
         dialogueViewModel = new ViewModelProvider(this).get(DialogueViewModel.class);
+        registerExportLaunchers();
         setupUi();
     }
 
+    /**
+     * CreateDocument fixes its MIME type at registration, so each format gets its own launcher.
+     */
+    private void registerExportLaunchers() {
+        for (TranscriptExporter.Format format : TranscriptExporter.Format.values()) {
+            exportLaunchers.put(format, registerForActivityResult(
+                    new ActivityResultContracts.CreateDocument(format.getMimeType()),
+                    uri -> {
+                        if (uri != null) {
+                            dialogueViewModel.exportTranscript(uri, format);
+                        }
+                    }));
+        }
+        traceLauncher = registerForActivityResult(
+                new ActivityResultContracts.CreateDocument("application/json"),
+                uri -> {
+                    if (uri != null) {
+                        sessionViewModel.exportTrace(uri);
+                    }
+                });
+        flightRecordLauncher = registerForActivityResult(
+                new ActivityResultContracts.CreateDocument("text/plain"),
+                uri -> {
+                    if (uri != null) {
+                        sessionViewModel.exportFlightRecord(uri);
+                    }
+                });
+    }
+
+    private void showExportFormatPicker() {
+        final TranscriptExporter.Format[] formats = TranscriptExporter.Format.values();
+        CharSequence[] labels = {
+                getString(R.string.transcript_format_text),
+                getString(R.string.transcript_format_jsonl),
+                getString(R.string.transcript_format_markdown)
+        };
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.export_transcript_button)
+                .setItems(labels, (dialog, which) -> {
+                    TranscriptExporter.Format format = formats[which];
+                    ActivityResultLauncher<String> launcher = exportLaunchers.get(format);
+                    if (launcher != null) {
+                        launcher.launch("memoglitch-transcript." + format.getExtension());
+                    }
+                })
+                .show();
+    }
+
     private void setupUi() {
         TextView header = findViewById(R.id.settingsHeaderText);
         SeekBar textSizeSeekBar = findViewById(R.id.textSizeSeekBar);
         ToggleButton vibrationToggle = findViewById(R.id.vibrationToggle);
+        ToggleButton transcriptDistortionToggle = findViewById(R.id.transcriptDistortionToggle);
         Button resetButton = findViewById(R.id.resetButton);
         Button exportButton = findViewById(R.id.exportButton);
+        ProgressBar exportProgress = findViewById(R.id.exportProgress);
+        Button diagnosticsButton = findViewById(R.id.diagnosticsButton);
+        Button traceButton = findViewById(R.id.traceButton);
+        Button flightRecordButton = findViewById(R.id.flightRecordButton);
 
         if (header != null) {
             header.setOnClickListener(v -> finish());
@@ -72,23 +140,68 @@ public class SettingsActivity extends AppCompatActivity {
 
             @Override
             public void onStopTrackingTouch(SeekBar seekBar) {
+                sessionViewModel.flushTextSize();
             }
         });
 
         vibrationToggle.setOnCheckedChangeListener((buttonView, isChecked) ->
                 sessionViewModel.updateVibrationEnabled(isChecked));
 
+        transcriptDistortionToggle.setChecked(sessionViewModel.isTranscriptDistortionEnabled());
+        transcriptDistortionToggle.setOnCheckedChangeListener((buttonView, isChecked) ->
+                sessionViewModel.updateTranscriptDistortionEnabled(isChecked));
+
         exportButton.setOnClickListener(v -> {
-            String transcript = dialogueViewModel.buildTranscript();
-            if (transcript.isEmpty()) {
+            TranscriptExporter.Progress progress = dialogueViewModel.getExportProgressLiveData().getValue();
+            if (progress != null && progress.getState() == TranscriptExporter.Progress.State.RUNNING) {
+                dialogueViewModel.cancelExport();
+                return;
+            }
+            if (!dialogueViewModel.hasMessages()) {
                 Toast.makeText(this, R.string.transcript_empty, Toast.LENGTH_SHORT).show();
                 return;
             }
-            ClipboardManager clipboard = (ClipboardManager) getSystemService(CLIPBOARD_SERVICE);
-            if (clipboard != null) {
-                ClipData clip = ClipData.newPlainText("MemoGlitch Transcript", transcript);
-                clipboard.setPrimaryClip(clip);
-                Toast.makeText(this, R.string.transcript_copied, Toast.LENGTH_SHORT).show();
+            showExportFormatPicker();
+        });
+
+        dialogueViewModel.getExportProgressLiveData().observe(this, progress -> {
+            if (progress == null) {
+                return;
+            }
+            boolean running = progress.getState() == TranscriptExporter.Progress.State.RUNNING;
+            exportProgress.setVisibility(running ? View.VISIBLE : View.GONE);
+            exportProgress.setProgress(progress.getPercent());
+            exportButton.setText(running ? R.string.transcript_export_cancel : R.string.export_transcript_button);
+        });
+        dialogueViewModel.getExportFinishedLiveData().observe(this, event -> {
+            TranscriptExporter.Progress progress = event != null ? event.take() : null;
+            if (progress == null) {
+                return;
+            }
+            Toast.makeText(this, progress.getState() == TranscriptExporter.Progress.State.DONE
+                            ? R.string.transcript_exported : R.string.transcript_export_failed,
+                    Toast.LENGTH_SHORT).show();
+        });
+
+        diagnosticsButton.setOnClickListener(v -> showDiagnostics());
+
+        traceButton.setOnClickListener(v -> traceLauncher.launch("memoglitch-trace.json"));
+        sessionViewModel.getTraceExported().observe(this, event -> {
+            Boolean exported = event != null ? event.take() : null;
+            if (exported != null) {
+                Toast.makeText(this, exported ? R.string.trace_exported : R.string.trace_export_failed,
+                        Toast.LENGTH_SHORT).show();
+            }
+        });
+
+        flightRecordButton.setOnClickListener(v ->
+                flightRecordLauncher.launch("memoglitch-flight-recorder.txt"));
+        sessionViewModel.getFlightRecordExported().observe(this, event -> {
+            Boolean exported = event != null ? event.take() : null;
+            if (exported != null) {
+                Toast.makeText(this, exported
+                                ? R.string.flight_record_exported : R.string.flight_record_export_failed,
+                        Toast.LENGTH_SHORT).show();
             }
         });
 
@@ -97,4 +210,24 @@ public class SettingsActivity extends AppCompatActivity {
             finish();
         });
     }
+
+    /**
+     * Shows the metrics dump; the text is small enough to copy into a bug report.
+     */
+    private void showDiagnostics() {
+        final String dump = Metrics.dump();
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.diagnostics_title)
+                .setMessage(dump)
+                .setPositiveButton(R.string.diagnostics_copy, (dialog, which) -> {
+                    ClipboardManager clipboard = (ClipboardManager) getSystemService(CLIPBOARD_SERVICE);
+                    if (clipboard != null) {
+                        clipboard.setPrimaryClip(ClipData.newPlainText("MemoGlitch Diagnostics", dump));
+                        Toast.makeText(this, R.string.diagnostics_copied, Toast.LENGTH_SHORT).show();
+                    }
+                })
+                .setNeutralButton(R.string.diagnostics_reset, (dialog, which) -> Metrics.resetSamples())
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
 }
@@ -1,41 +1,67 @@
 package com.example.memoglitch.viewmodel;
 
 import android.app.Application;
+import android.net.Uri;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 
 import androidx.annotation.NonNull;
 import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
+import androidx.lifecycle.Observer;
 
 import com.example.memoglitch.model.ConversationEngine;
 import com.example.memoglitch.model.ConversationStateStore;
 import com.example.memoglitch.model.DataRepository;
 import com.example.memoglitch.model.DialogueSystem;
 import com.example.memoglitch.model.EmotionCurve;
+import com.example.memoglitch.model.EngineEvent;
 import com.example.memoglitch.model.GlitchEffect;
+import com.example.memoglitch.model.HistoryIndex;
 import com.example.memoglitch.model.Message;
+import com.example.memoglitch.model.MessageBodies;
+import com.example.memoglitch.model.MessageHistory;
 import com.example.memoglitch.model.StoryManager;
+import com.example.memoglitch.model.TranscriptExporter;
+import com.example.memoglitch.model.events.OneShotEvent;
 
-import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Deque;
 import java.util.List;
-import java.util.Locale;
 
 /**
  * Primary ViewModel that sends and receives dialogue messages.
  */
 public class DialogueViewModel extends AndroidViewModel {
 
+    private static final int SEARCH_RESULT_LIMIT = 200;
+    // Typing pause after which the draft is answered speculatively.
+    private static final long DRAFT_DEBOUNCE_MS = 300L;
+
     private final ConversationEngine engine;
     private final ConversationStateStore stateStore;
     private final DataRepository repository;
     private final DialogueSystem dialogueSystem;
     private final StoryManager storyManager;
     private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Object turnToken = new Object();
+    private final Deque<String> pendingInputs = new ArrayDeque<>();
+
+    private final List<String> sendsAwaitingHydration = new ArrayList<>();
+    private final Observer<Boolean> hydrationObserver = loading -> {
+        if (loading != null && !loading) {
+            replaySendsAwaitingHydration();
+        }
+    };
+
+    private final StringBuilder mergedInput = new StringBuilder();
+    private final ReplyTask replyTask = new ReplyTask();
+    private final DraftTask draftTask = new DraftTask();
 
-    private final List<Message> messages = new ArrayList<>();
+    private boolean turnInFlight;
+    private int drainedInputCount;
 
     public DialogueViewModel(@NonNull Application application) {
         super(application);
@@ -44,34 +70,11 @@ public class DialogueViewModel extends AndroidViewModel {
         repository = engine.getRepository();
         dialogueSystem = engine.getDialogueSystem();
         storyManager = engine.getStoryManager();
-        restoreSession();
-    }
-
-    private void restoreSession() {
-        messages.clear();
-        messages.addAll(repository.loadMessages());
-        engine.getNarrativeScript().ingestHistory(messages);
-        storyManager.setUserMessageCount(countUserMessages(messages));
-        StoryManager.Stage savedStage = repository.loadStage();
-        storyManager.setStage(savedStage);
-        storyManager.setFirstFalseMemoryShared(repository.wasFalseMemoryShared());
-        stateStore.setMessages(new ArrayList<>(messages));
-        stateStore.setStage(savedStage);
-        stateStore.setEmotion(engine.getEmotionCurve().stateForStage(savedStage));
-        updateDissonance();
-    }
-
-    private int countUserMessages(List<Message> messageList) {
-        int count = 0;
-        for (Message message : messageList) {
-            if (message.getSender() == Message.Sender.USER) {
-                count++;
-            }
-        }
-        return count;
+        stateStore.getLoadingLiveData().observeForever(hydrationObserver);
+        engine.hydrateSession();
     }
 
-    public LiveData<List<Message>> getMessagesLiveData() {
+    public LiveData<MessageHistory> getMessagesLiveData() {
         return stateStore.getMessagesLiveData();
     }
 
@@ -91,93 +94,305 @@ public class DialogueViewModel extends AndroidViewModel {
         return stateStore.getTypingLiveData();
     }
 
+    public LiveData<Boolean> getLoadingLiveData() {
+        return stateStore.getLoadingLiveData();
+    }
+
+    /**
+     * The store's snapshot is the single source of truth for history, so every ViewModel sharing
+     * the engine appends to the same version.
+     */
+    @NonNull
+    private MessageHistory currentMessages() {
+        return stateStore.getSnapshot().getMessages();
+    }
+
+    /**
+     * Shows the player's message immediately and queues it for Echo. Inputs sent while a reply is
+     * still being typed are answered in order once it lands.
+     */
     public void sendUserMessage(@NonNull final String text) {
         if (text.trim().isEmpty()) {
             return;
         }
-        Message message = new Message(Message.Sender.USER, text.trim(), false,
+        if (stateStore.getSnapshot().isLoading()) {
+            // History is not in memory yet; appending now would drop it on the next save.
+            sendsAwaitingHydration.add(text);
+            return;
+        }
+        String shown = text.trim();
+        MessageHistory history = currentMessages();
+        if (MessageBodies.isLarge(shown)) {
+            // Only a preview joins the history; the engine sees a bounded tail.
+            engine.storeMessageBody(history.size(), shown);
+            shown = MessageBodies.preview(shown);
+        }
+        Message message = new Message(Message.Sender.USER, shown, false,
                 System.currentTimeMillis(), storyManager.getCurrentStage());
-        messages.add(message);
-        stateStore.setMessages(new ArrayList<>(messages));
-        repository.saveMessages(messages);
-        scheduleAiResponse(text);
+        MessageHistory messages = history.append(message);
+        engine.onHistoryChanged(messages);
+        ConversationStateStore.Transaction turn = stateStore.edit()
+                .setMessages(messages);
+        pendingInputs.addLast(MessageBodies.engineInput(text));
+        if (!turnInFlight) {
+            scheduleAiResponse(turn);
+        }
+        turn.commit();
     }
 
-    private void scheduleAiResponse(@NonNull final String userInput) {
-        stateStore.setTyping(true);
-        final DialogueSystem.DialogueResult result = dialogueSystem.buildResponse(userInput);
+    /**
+     * Takes the next queued input, or all of them joined into one engine turn when the story can
+     * absorb a burst without changing which branch it takes. Sets {@link #drainedInputCount}.
+     */
+    @NonNull
+    private String drainInputs() {
+        String first = pendingInputs.removeFirst();
+        drainedInputCount = 1;
+        if (pendingInputs.isEmpty() || !storyManager.canMergeInputs()) {
+            return first;
+        }
+        mergedInput.setLength(0);
+        mergedInput.append(first);
+        while (!pendingInputs.isEmpty()) {
+            mergedInput.append('\n').append(pendingInputs.removeFirst());
+            drainedInputCount++;
+        }
+        return mergedInput.toString();
+    }
+
+    /**
+     * Runs the engine for the next queued input, recording the resulting typing, emotion, glitch
+     * and stage changes in {@code turn} so they publish together with the triggering message.
+     */
+    private void scheduleAiResponse(@NonNull ConversationStateStore.Transaction turn) {
+        String userInput = drainInputs();
+        turnInFlight = true;
+        turn.raise(EngineEvent.turnStarted(storyManager.getCurrentStage(), drainedInputCount));
+        DialogueSystem.DialogueResult result = engine.takeSpeculation(userInput, drainedInputCount);
+        if (result == null) {
+            result = dialogueSystem.buildResponse(userInput, drainedInputCount);
+        }
         long delay = result.getEmotionState().getTypingDelayMillis();
-        stateStore.setEmotion(result.getEmotionState());
-        stateStore.setGlitch(result.getGlitchState());
-        if (result.getFalseMemory() != null) {
+        if (result.isFalseMemoryShared()) {
             repository.saveFalseMemoryShared(true);
+            turn.raise(EngineEvent.falseMemoryShared(storyManager.getCurrentStage()));
         }
         repository.saveStage(storyManager.getCurrentStage());
-        stateStore.setStage(storyManager.getCurrentStage());
-        updateDissonance();
-        handler.postDelayed(new Runnable() {
-            @Override
-            public void run() {
-                messages.add(result.getMessage());
-                stateStore.setMessages(new ArrayList<>(messages));
-                repository.saveMessages(messages);
-                stateStore.setTyping(false);
+        turn.setTyping(true)
+                .setEmotion(result.getEmotionState())
+                .setGlitch(result.getGlitchState())
+                .setStage(storyManager.getCurrentStage())
+                .setDissonance(computeDissonance());
+        replyTask.reply = result.getMessage();
+        replyTask.sessionEpoch = engine.getSessionEpoch();
+        handler.postAtTime(replyTask, turnToken, SystemClock.uptimeMillis() + delay);
+    }
+
+    /**
+     * Delivers the reply of the turn in flight. At most one turn is in flight per ViewModel, so a
+     * single instance is reused instead of allocating a callback per turn.
+     */
+    private final class ReplyTask implements Runnable {
+
+        Message reply;
+        int sessionEpoch;
+
+        @Override
+        public void run() {
+            Message message = reply;
+            reply = null;
+            if (sessionEpoch != engine.getSessionEpoch()) {
+                // The session was reset from another screen while Echo was typing.
+                cancelPendingTurns();
+                return;
+            }
+            MessageHistory messages = currentMessages().append(message);
+            engine.onHistoryChanged(messages);
+            ConversationStateStore.Transaction transaction = stateStore.edit()
+                    .setMessages(messages);
+            if (pendingInputs.isEmpty()) {
+                // Settled: nothing queued is half-answered, so the turn can be rewound to.
+                engine.recordTurn(messages.size());
+                turnInFlight = false;
+                transaction.setTyping(false);
+            } else {
+                scheduleAiResponse(transaction);
             }
-        }, delay);
+            transaction.commit();
+        }
+    }
+
+    /**
+     * Records the text being typed; once typing pauses, its reply is prepared in the background
+     * so sending it skips the pipeline.
+     */
+    public void onDraftChanged(@NonNull CharSequence draft) {
+        handler.removeCallbacks(draftTask);
+        draftTask.draft = MessageBodies.engineInput(draft);
+        handler.postDelayed(draftTask, DRAFT_DEBOUNCE_MS);
+    }
+
+    private final class DraftTask implements Runnable {
+
+        String draft = "";
+
+        @Override
+        public void run() {
+            engine.speculate(draft);
+        }
+    }
+
+    private void replaySendsAwaitingHydration() {
+        if (sendsAwaitingHydration.isEmpty()) {
+            return;
+        }
+        List<String> replay = new ArrayList<>(sendsAwaitingHydration);
+        sendsAwaitingHydration.clear();
+        for (String text : replay) {
+            sendUserMessage(text);
+        }
+    }
+
+    /**
+     * Lands the reply in flight now instead of after its typing delay, then answers the inputs
+     * queued behind it the same way. The engine advanced when the turn started, so dropping the
+     * reply would leave the story ahead of the history.
+     */
+    private void finishPendingTurns() {
+        while (replyTask.reply != null) {
+            handler.removeCallbacksAndMessages(turnToken);
+            replyTask.run();
+        }
+        cancelPendingTurns();
+    }
+
+    private void cancelPendingTurns() {
+        handler.removeCallbacksAndMessages(turnToken);
+        replyTask.reply = null;
+        pendingInputs.clear();
+        turnInFlight = false;
     }
 
     public void resetSession() {
+        cancelPendingTurns();
+        sendsAwaitingHydration.clear();
+        engine.advanceSessionEpoch();
         repository.clearSession();
+        engine.deleteSearchIndex();
         engine.getStoryManager().reset();
         engine.getMemorySystem().reset();
         engine.getNarrativeScript().reset();
-        messages.clear();
-        stateStore.setMessages(new ArrayList<>(messages));
-        stateStore.setStage(StoryManager.Stage.NORMAL);
-        stateStore.setGlitch(new GlitchEffect.GlitchState(false, ""));
-        stateStore.setEmotion(engine.getEmotionCurve().stateForStage(StoryManager.Stage.NORMAL));
-        updateDissonance();
+        engine.startTurnJournal(0);
+        MessageHistory messages = MessageHistory.empty();
+        engine.pruneMessageBodies(messages);
+        stateStore.edit()
+                .setMessages(messages)
+                .setTyping(false)
+                .setStage(StoryManager.Stage.NORMAL)
+                .setGlitch(GlitchEffect.INACTIVE)
+                .setEmotion(engine.getEmotionCurve().stateForStage(StoryManager.Stage.NORMAL))
+                .setDissonance(computeDissonance())
+                .commit();
         repository.saveStage(StoryManager.Stage.NORMAL);
-        repository.saveMessages(messages);
         repository.saveFalseMemoryShared(false);
+        engine.onHistoryChanged(messages);
+    }
+
+    /**
+     * Whether {@link #rewindTo} can cut the conversation back to end at {@code row}.
+     */
+    public boolean canRewindTo(int row) {
+        return !stateStore.getSnapshot().isLoading() && row >= 0 && row < currentMessages().size()
+                && engine.canRewindTo(row + 1);
     }
 
-    private void updateDissonance() {
-        int level = Math.min(100, storyManager.getUserMessageCount() * 15
-                + storyManager.getCurrentStage().ordinal() * 25);
-        stateStore.setDissonance(level);
+    /**
+     * Cuts the conversation back to end at {@code row}, the last row of a settled turn, and
+     * restores the story to where it stood then. Returns false if that turn cannot be rewound to.
+     */
+    public boolean rewindTo(int row) {
+        if (!canRewindTo(row)) {
+            return false;
+        }
+        MessageHistory current = currentMessages();
+        cancelPendingTurns();
+        engine.advanceSessionEpoch();
+        MessageHistory messages = current.truncate(row + 1);
+        if (!engine.rewindTo(messages)) {
+            return false;
+        }
+        StoryManager.Stage stage = storyManager.getCurrentStage();
+        stateStore.edit()
+                .setMessages(messages)
+                .setTyping(false)
+                .setStage(stage)
+                .setGlitch(GlitchEffect.INACTIVE)
+                .setEmotion(engine.getEmotionCurve().stateForStage(stage))
+                .setDissonance(computeDissonance())
+                .commit();
+        repository.saveStage(stage);
+        repository.saveFalseMemoryShared(storyManager.isFirstFalseMemoryShared());
+        engine.onHistoryChanged(messages);
+        return true;
+    }
+
+    @Override
+    protected void onCleared() {
+        super.onCleared();
+        stateStore.getLoadingLiveData().removeObserver(hydrationObserver);
+        finishPendingTurns();
+        handler.removeCallbacks(draftTask);
+    }
+
+    private int computeDissonance() {
+        return engine.computeDissonance();
+    }
+
+    public boolean hasMessages() {
+        return !currentMessages().isEmpty();
     }
 
+    /**
+     * Returns the rows of the current history matching {@code query}, newest first. Rows are
+     * adapter positions in the chat list.
+     */
     @NonNull
-    public String buildTranscript() {
-        if (messages.isEmpty()) {
-            return "";
-        }
-        SimpleDateFormat format = new SimpleDateFormat("HH:mm", Locale.getDefault());
-        StringBuilder builder = new StringBuilder();
-        for (int i = 0; i < messages.size(); i++) {
-            Message message = messages.get(i);
-            builder.append(senderLabel(message.getSender()))
-                    .append(" [")
-                    .append(format.format(new Date(message.getTimestamp())))
-                    .append("] ")
-                    .append(stageLabel(message.getStageAtSend()))
-                    .append(':')
-                    .append('\n')
-                    .append(message.getText().trim());
-            if (i < messages.size() - 1) {
-                builder.append("\n\n");
-            }
+    public int[] searchHistory(@NonNull String query) {
+        HistoryIndex.Query parsed = HistoryIndex.Query.parse(query);
+        if (parsed.isEmpty()) {
+            return new int[0];
         }
-        return builder.toString();
+        return engine.getSearchIndex().search(currentMessages(), parsed, SEARCH_RESULT_LIMIT);
+    }
+
+    /**
+     * Asks for the text of an evicted row that is about to be shown; it is published with a
+     * later history version.
+     */
+    public void requestHistoryPage(int row) {
+        engine.requestHistoryPage(row);
+    }
+
+    public LiveData<TranscriptExporter.Progress> getExportProgressLiveData() {
+        return engine.getExportProgressLiveData();
+    }
+
+    /**
+     * Emits once for each export that finished or failed, however often it is observed.
+     */
+    public LiveData<OneShotEvent<TranscriptExporter.Progress>> getExportFinishedLiveData() {
+        return engine.getExportFinishedLiveData();
     }
 
-    private String senderLabel(@NonNull Message.Sender sender) {
-        return sender == Message.Sender.USER ? "You" : "Echo";
+    /**
+     * Streams the current history to {@code target} in the background, replacing any export that
+     * is still running. The export is not tied to this ViewModel and finishes after it is cleared.
+     */
+    public void exportTranscript(@NonNull Uri target, @NonNull TranscriptExporter.Format format) {
+        engine.exportTranscript(target, format, repository.isTranscriptDistortionEnabled());
     }
 
-    private String stageLabel(@NonNull StoryManager.Stage stage) {
-        String lower = stage.name().toLowerCase(Locale.US);
-        return Character.toUpperCase(lower.charAt(0)) + lower.substring(1);
+    public void cancelExport() {
+        engine.cancelTranscriptExport();
     }
 }
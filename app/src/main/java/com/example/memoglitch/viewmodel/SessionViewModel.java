@@ -1,22 +1,58 @@
 package com.example.memoglitch.viewmodel;
 
 import android.app.Application;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
 
 import androidx.annotation.NonNull;
 import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
 
 import com.example.memoglitch.model.ConversationEngine;
 import com.example.memoglitch.model.ConversationStateStore;
 import com.example.memoglitch.model.DataRepository;
+import com.example.memoglitch.model.events.OneShotEvent;
+import com.example.memoglitch.model.metrics.FlightRecorder;
+import com.example.memoglitch.model.metrics.TraceRecorder;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Handles session persistence values exposed in the settings screen.
  */
 public class SessionViewModel extends AndroidViewModel {
 
+    private static final long SETTINGS_PERSIST_DELAY_MS = 300L;
+    // Shared by every instance and never shut down, so a report being written when the settings
+    // screen closes is still completed.
+    private static final ExecutorService REPORT_EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            runnable.run();
+        }, "report-export");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     private final DataRepository repository;
     private final ConversationStateStore stateStore;
+    private final MutableLiveData<OneShotEvent<Boolean>> traceExportedLiveData = new MutableLiveData<>();
+    private final MutableLiveData<OneShotEvent<Boolean>> flightRecordExportedLiveData =
+            new MutableLiveData<>();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable persistTextSize = this::persistPendingTextSize;
+
+    private float pendingTextSize = Float.NaN;
 
     public SessionViewModel(@NonNull Application application) {
         super(application);
@@ -35,9 +71,30 @@ public class SessionViewModel extends AndroidViewModel {
         return stateStore.getVibrationEnabledLiveData();
     }
 
+    /**
+     * Publishes {@code textSize} in memory right away and persists it once changes settle, so a
+     * slider drag writes preferences once instead of on every tick.
+     */
     public void updateTextSize(float textSize) {
-        repository.saveTextSize(textSize);
         stateStore.setTextSize(textSize);
+        pendingTextSize = textSize;
+        handler.removeCallbacks(persistTextSize);
+        handler.postDelayed(persistTextSize, SETTINGS_PERSIST_DELAY_MS);
+    }
+
+    /**
+     * Persists a pending text size now, e.g. when the slider is released.
+     */
+    public void flushTextSize() {
+        handler.removeCallbacks(persistTextSize);
+        persistPendingTextSize();
+    }
+
+    private void persistPendingTextSize() {
+        if (!Float.isNaN(pendingTextSize)) {
+            repository.saveTextSize(pendingTextSize);
+            pendingTextSize = Float.NaN;
+        }
     }
 
     public void updateVibrationEnabled(boolean enabled) {
@@ -45,6 +102,71 @@ public class SessionViewModel extends AndroidViewModel {
         stateStore.setVibrationEnabled(enabled);
     }
 
+    public boolean isTranscriptDistortionEnabled() {
+        return repository.isTranscriptDistortionEnabled();
+    }
+
+    public void updateTranscriptDistortionEnabled(boolean enabled) {
+        repository.saveTranscriptDistortionEnabled(enabled);
+    }
+
+    /**
+     * Emits {@code true} once a trace has been written, {@code false} if writing failed.
+     */
+    public LiveData<OneShotEvent<Boolean>> getTraceExported() {
+        return traceExportedLiveData;
+    }
+
+    /**
+     * Writes the recorded trace events to {@code target} as Chrome trace JSON, off the main thread.
+     */
+    public void exportTrace(@NonNull Uri target) {
+        export(target, TraceRecorder::writeChromeJson, traceExportedLiveData);
+    }
+
+    /**
+     * Emits {@code true} once a flight recorder report has been written, {@code false} if
+     * writing failed.
+     */
+    public LiveData<OneShotEvent<Boolean>> getFlightRecordExported() {
+        return flightRecordExportedLiveData;
+    }
+
+    /**
+     * Writes the flight recorder's recent events and last crash or stall dumps to {@code target}
+     * as text, off the main thread.
+     */
+    public void exportFlightRecord(@NonNull Uri target) {
+        export(target, FlightRecorder::writeReport, flightRecordExportedLiveData);
+    }
+
+    private interface ReportWriter {
+        void write(@NonNull Writer writer) throws IOException;
+    }
+
+    private void export(@NonNull Uri target, @NonNull ReportWriter report,
+                        @NonNull MutableLiveData<OneShotEvent<Boolean>> exported) {
+        REPORT_EXECUTOR.execute(() -> {
+            try (OutputStream stream = getApplication().getContentResolver().openOutputStream(target, "wt")) {
+                if (stream == null) {
+                    throw new IOException("Cannot open " + target);
+                }
+                Writer writer = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8));
+                report.write(writer);
+                writer.flush();
+                exported.postValue(new OneShotEvent<>(true));
+            } catch (IOException e) {
+                exported.postValue(new OneShotEvent<>(false));
+            }
+        });
+    }
+
+    @Override
+    protected void onCleared() {
+        super.onCleared();
+        flushTextSize();
+    }
+
     public void resetConversation(DialogueViewModel dialogueViewModel) {
         repository.clearSession();
         dialogueViewModel.resetSession();
@@ -7,6 +7,7 @@ import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
 
 import com.example.memoglitch.model.ConversationEngine;
+import com.example.memoglitch.model.ConversationSnapshot;
 import com.example.memoglitch.model.ConversationStateStore;
 import com.example.memoglitch.model.StoryManager;
 
@@ -26,4 +27,8 @@ public class StoryViewModel extends AndroidViewModel {
     public LiveData<StoryManager.Stage> getStageLiveData() {
         return stateStore.getStageLiveData();
     }
+
+    public LiveData<ConversationSnapshot.StageIndicator> getStageIndicator() {
+        return stateStore.getStageIndicatorLiveData();
+    }
 }
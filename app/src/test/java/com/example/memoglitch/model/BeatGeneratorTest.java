@@ -0,0 +1,139 @@
+package com.example.memoglitch.model;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BeatGeneratorTest {
+
+    // Set by ./gradlew :app:generateBeatTables to the shipped copy's source path.
+    private static final String OUTPUT_PROPERTY = "memoglitch.beatTables.output";
+    private static final int SEEDS = 200;
+
+    private static BeatGenerator.Trainer trainer;
+    private static BeatGenerator generator;
+
+    @BeforeClass
+    public static void train() {
+        trainer = new NarrativeScript().newTrainer();
+        generator = trainer.build();
+    }
+
+    private static byte[] bytesOf(BeatGenerator tables) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        tables.write(out);
+        return out.toByteArray();
+    }
+
+    private static String line(BeatGenerator tables, StoryManager.Stage stage, long seed) {
+        StringBuilder out = new StringBuilder();
+        tables.generate(out, stage, seed);
+        return out.toString();
+    }
+
+    @Test
+    public void shippedTablesMatchCorpus() throws IOException {
+        byte[] trained = bytesOf(generator);
+        String output = System.getProperty(OUTPUT_PROPERTY);
+        if (output != null) {
+            try (OutputStream file = new FileOutputStream(output)) {
+                file.write(trained);
+            }
+            return;
+        }
+        ByteArrayOutputStream shipped = new ByteArrayOutputStream();
+        try (InputStream in = BeatGenerator.class.getResourceAsStream(
+                BeatGenerator.TABLES_RESOURCE)) {
+            assertNotNull("No shipped tables; run ./gradlew :app:generateBeatTables", in);
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                shipped.write(buffer, 0, read);
+            }
+        }
+        assertArrayEquals("Shipped tables are stale; run ./gradlew :app:generateBeatTables",
+                trained, shipped.toByteArray());
+        assertNotNull(BeatGenerator.loadShipped(trainer.fingerprint()));
+    }
+
+    @Test
+    public void readTablesGenerateTheSameLines() throws IOException {
+        BeatGenerator read = BeatGenerator.read(
+                new ByteArrayInputStream(bytesOf(generator)), trainer.fingerprint());
+        assertNotNull(read);
+        for (StoryManager.Stage stage : StoryManager.Stage.values()) {
+            for (long seed = 0; seed < 20; seed++) {
+                assertEquals(line(generator, stage, seed), line(read, stage, seed));
+            }
+        }
+    }
+
+    @Test
+    public void tablesFromAnotherCorpusAreRejected() throws IOException {
+        BeatGenerator.Trainer changed = new NarrativeScript().newTrainer()
+                .addLine("a line the shipped tables never saw", 1);
+        assertNotEquals(trainer.fingerprint(), changed.fingerprint());
+        assertNull(BeatGenerator.read(
+                new ByteArrayInputStream(bytesOf(generator)), changed.fingerprint()));
+    }
+
+    @Test
+    public void sameSeedGivesSameLine() {
+        for (StoryManager.Stage stage : StoryManager.Stage.values()) {
+            assertEquals(line(generator, stage, 42L), line(generator, stage, 42L));
+        }
+    }
+
+    @Test
+    public void seedsGiveVariedWellFormedLines() {
+        for (StoryManager.Stage stage : StoryManager.Stage.values()) {
+            Set<String> lines = new HashSet<>();
+            for (long seed = 0; seed < SEEDS; seed++) {
+                String line = line(generator, stage, seed * 0x9E3779B97F4A7C15L);
+                assertFalse(stage + " seed " + seed, line.isEmpty());
+                assertTrue(line, line.split(" ").length <= BeatGenerator.MAX_LINE_WORDS);
+                char last = line.charAt(line.length() - 1);
+                if (last == '"') {
+                    last = line.charAt(line.length() - 2);
+                }
+                assertTrue(line, ".!?…".indexOf(last) >= 0);
+                lines.add(line);
+            }
+            assertTrue(stage + " gave " + lines.size() + " distinct lines",
+                    lines.size() > SEEDS / 2);
+        }
+    }
+
+    @Test
+    public void generatesWellUnderAMillisecond() {
+        StringBuilder out = new StringBuilder();
+        for (long seed = 0; seed < 2000; seed++) {
+            out.setLength(0);
+            generator.generate(out, StoryManager.Stage.LOOP, seed);
+        }
+        int lines = 10000;
+        long start = System.nanoTime();
+        for (long seed = 0; seed < lines; seed++) {
+            out.setLength(0);
+            generator.generate(out, StoryManager.Stage.LOOP, seed);
+        }
+        long perLine = (System.nanoTime() - start) / lines;
+        assertTrue(perLine + " ns per line", perLine < 250_000L);
+    }
+}
@@ -0,0 +1,129 @@
+package com.example.memoglitch.model;
+
+import com.example.memoglitch.model.metrics.Metrics;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class DialogueSystemTest {
+
+    // Shallow sizes on 64-bit HotSpot with compressed oops: 12-byte headers, 8-byte alignment.
+    private static final long STRING_BYTES = 24;
+    private static final long ARRAY_HEADER_BYTES = 16;
+    private static final long MESSAGE_BYTES = 48;
+    private static final long RESULT_BYTES = 32;
+    private static final long SEED_STATE_BYTES = 24;
+    private static final long GLITCH_STATE_BYTES = 40;
+    // One-off allocations across the whole measured run, such as a counter's first slow path.
+    private static final long RUN_SLACK_BYTES = 4096;
+
+    private static final String[] INPUTS = {
+            "hello", "I remember the lake", "who are you", "that never happened",
+            "do you dream", "my name is not that", "tell me about the winter", "why",
+    };
+
+    private static DialogueSystem newDialogue() {
+        return new DialogueSystem(new StoryManager(), new MemorySystem(), new EmotionCurve(),
+                new GlitchEffect(), new NarrativeScript());
+    }
+
+    @Test
+    public void resultsStayValidAfterLaterTurns() {
+        DialogueSystem dialogue = newDialogue();
+        DialogueSystem.DialogueResult first = dialogue.buildResponse(INPUTS[0]);
+        Message firstMessage = first.getMessage();
+        DialogueSystem.DialogueResult second = dialogue.buildResponse(INPUTS[1]);
+        assertNotSame(first, second);
+        assertEquals(firstMessage, first.getMessage());
+    }
+
+    @Test
+    public void speculationLeavesLiveTurnMetricsAlone() {
+        DialogueSystem live = newDialogue();
+        live.buildResponse(INPUTS[0]);
+        DialogueSystem scratch = DialogueSystem.newScratch(new EmotionCurve());
+        long turns = Metrics.counter("dialogue.turns").get();
+        long builds = Metrics.histogram("dialogue.build_response").getCount();
+        long composes = Metrics.histogram("narrative.compose").getCount();
+        long speculations = Metrics.histogram("dialogue.speculate").getCount();
+        for (String input : INPUTS) {
+            scratch.speculate(live.saveState(), input);
+        }
+        assertEquals(turns, Metrics.counter("dialogue.turns").get());
+        assertEquals(builds, Metrics.histogram("dialogue.build_response").getCount());
+        assertEquals(composes, Metrics.histogram("narrative.compose").getCount());
+        assertEquals(speculations + INPUTS.length,
+                Metrics.histogram("dialogue.speculate").getCount());
+    }
+
+    private static boolean vmOption(String name) {
+        try {
+            return Boolean.parseBoolean(ManagementFactory
+                    .getPlatformMXBean(HotSpotDiagnosticMXBean.class).getVMOption(name).getValue());
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    private static long stringBytes(String text) {
+        long valueBytes = text.length();
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) > 0xFF) {
+                valueBytes = 2L * text.length();
+                break;
+            }
+        }
+        return STRING_BYTES + align(ARRAY_HEADER_BYTES + valueBytes);
+    }
+
+    @Test
+    public void steadyStateTurnAllocatesOnlyItsDocumentedObjects() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        // Allocation counters are a HotSpot extension, and the sizes above assume its layout.
+        assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        assumeTrue(vmOption("UseCompressedOops") && !vmOption("UseCompactObjectHeaders"));
+        com.sun.management.ThreadMXBean counters = (com.sun.management.ThreadMXBean) threads;
+        long thread = Thread.currentThread().getId();
+        DialogueSystem dialogue = newDialogue();
+        // Past the scripted beats, into the pinned last beat of the final stage.
+        for (int turn = 0; turn < 2000; turn++) {
+            dialogue.buildResponse(INPUTS[turn % INPUTS.length]);
+        }
+        int turns = 1000;
+        DialogueSystem.DialogueResult[] results = new DialogueSystem.DialogueResult[turns];
+        long before = counters.getThreadAllocatedBytes(thread);
+        for (int turn = 0; turn < turns; turn++) {
+            results[turn] = dialogue.buildResponse(INPUTS[turn % INPUTS.length]);
+        }
+        long allocated = counters.getThreadAllocatedBytes(thread) - before;
+
+        long expected = 0;
+        StringBuilder fragment = new StringBuilder();
+        for (int turn = 0; turn < turns; turn++) {
+            DialogueSystem.DialogueResult result = results[turn];
+            // The fragment MemorySystem.recordUserInput keeps of every input.
+            fragment.setLength(0);
+            TextScan.appendQuotedTail(fragment, INPUTS[turn % INPUTS.length], true, 3, 5);
+            expected += stringBytes(result.getMessage().getText()) + MESSAGE_BYTES + RESULT_BYTES
+                    + SEED_STATE_BYTES + stringBytes(fragment.toString());
+            if (result.getGlitchState().isActive()) {
+                expected += GLITCH_STATE_BYTES;
+            }
+        }
+        assertTrue("allocated " + allocated + " bytes in " + turns + " turns, expected "
+                + expected, allocated >= expected && allocated <= expected + RUN_SLACK_BYTES);
+    }
+}
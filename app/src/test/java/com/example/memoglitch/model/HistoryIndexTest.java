@@ -0,0 +1,169 @@
+package com.example.memoglitch.model;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class HistoryIndexTest {
+
+    private static final String[] LINES = {
+            "I remember the lake",
+            "The lake was frozen that winter",
+            "Do you remember my name?",
+            "Your name was never written down",
+            "Lakes do not freeze in July",
+    };
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("index", "");
+        assertTrue(dir.delete() && dir.mkdir());
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    /** Alternates user and Echo rows, moving to the glitch stage from row 3. */
+    private static MessageHistory append(MessageHistory history, String... lines) {
+        for (String line : lines) {
+            int row = history.size();
+            history = history.append(row % 2 == 0 ? Message.Sender.USER : Message.Sender.AI, line,
+                    false, 0L, 0f, row,
+                    row < 3 ? StoryManager.Stage.NORMAL : StoryManager.Stage.GLITCH);
+        }
+        return history;
+    }
+
+    private static int[] search(HistoryIndex index, MessageHistory history, String query) {
+        return index.search(history, HistoryIndex.Query.parse(query), 10);
+    }
+
+    @Test
+    public void searchMatchesWordPrefixesNewestFirst() {
+        MessageHistory history = append(MessageHistory.empty(), LINES);
+        HistoryIndex index = new HistoryIndex();
+        assertTrue(index.extend(history));
+        assertEquals(LINES.length, index.getIndexedRows());
+
+        assertArrayEquals(new int[] {4, 1, 0}, search(index, history, "lake"));
+        assertArrayEquals(new int[] {1}, search(index, history, "LAKE frozen"));
+        assertArrayEquals(new int[] {3, 2}, search(index, history, "nam"));
+        assertArrayEquals(new int[0], search(index, history, "ocean"));
+        assertArrayEquals(new int[] {4}, index.search(history, HistoryIndex.Query.parse("lake"), 1));
+    }
+
+    @Test
+    public void searchAppliesSenderAndStageFilters() {
+        MessageHistory history = append(MessageHistory.empty(), LINES);
+        HistoryIndex index = new HistoryIndex();
+        assertArrayEquals(new int[] {4, 0}, search(index, history, "lake from:you"));
+        assertArrayEquals(new int[] {3, 1}, search(index, history, "from:echo"));
+        assertArrayEquals(new int[] {4}, search(index, history, "lake stage:glitch"));
+    }
+
+    @Test
+    public void extendIndexesOnlyAppendedRows() {
+        MessageHistory first = append(MessageHistory.empty(), LINES[0], LINES[1]);
+        HistoryIndex index = new HistoryIndex();
+        assertTrue(index.extend(first));
+        MessageHistory second = append(first, LINES[2], LINES[3]);
+        assertTrue(index.extend(second));
+        assertEquals(4, index.getIndexedRows());
+        assertArrayEquals(new int[] {3, 2}, search(index, second, "name"));
+        // An older version of the indexed lineage cannot be followed.
+        assertFalse(index.extend(first));
+    }
+
+    @Test
+    public void unrelatedHistoryIsRebuiltWithUpdate() {
+        MessageHistory history = append(MessageHistory.empty(), LINES);
+        HistoryIndex index = new HistoryIndex();
+        assertTrue(index.extend(history));
+
+        MessageHistory other = append(MessageHistory.empty(), "a frozen name", "nothing else");
+        assertFalse(index.extend(other));
+        assertArrayEquals(new int[0], search(index, other, "frozen"));
+        index.update(other);
+        assertEquals(2, index.getIndexedRows());
+        assertArrayEquals(new int[] {0}, search(index, other, "frozen"));
+        assertArrayEquals(new int[0], search(index, other, "lake"));
+    }
+
+    @Test
+    public void emptyHistoryClearsTheIndex() {
+        HistoryIndex index = new HistoryIndex();
+        assertTrue(index.extend(append(MessageHistory.empty(), LINES)));
+        assertTrue(index.extend(MessageHistory.empty()));
+        assertEquals(0, index.getIndexedRows());
+    }
+
+    @Test
+    public void truncateDropsLaterRowsAndFollowsTheNewBranch() {
+        MessageHistory history = append(MessageHistory.empty(), LINES);
+        HistoryIndex index = new HistoryIndex();
+        assertTrue(index.extend(history));
+
+        MessageHistory truncated = history.truncate(2);
+        index.truncate(truncated);
+        assertEquals(2, index.getIndexedRows());
+        assertArrayEquals(new int[] {1, 0}, search(index, truncated, "lake"));
+        assertArrayEquals(new int[0], search(index, truncated, "name"));
+
+        MessageHistory branch = append(truncated, "A different name");
+        assertTrue(index.extend(branch));
+        assertArrayEquals(new int[] {2}, search(index, branch, "name"));
+    }
+
+    @Test
+    public void evictedRowsAreLeftForABackgroundUpdate() throws IOException {
+        MessageHistory history = append(MessageHistory.empty(), LINES);
+        TextSpill spill = new TextSpill(new File(dir, "s"));
+        spill.append(history, 3);
+        MessageHistory evicted = history.evictBefore(3, spill);
+
+        HistoryIndex index = new HistoryIndex();
+        assertFalse(index.extend(evicted));
+        index.update(evicted);
+        assertArrayEquals(new int[] {4, 1, 0}, search(index, evicted, "lake"));
+        spill.discard();
+    }
+
+    @Test
+    public void writtenIndexReadsBack() throws IOException {
+        MessageHistory history = append(MessageHistory.empty(), LINES);
+        HistoryIndex index = new HistoryIndex();
+        assertTrue(index.extend(history));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        HistoryIndex.write(index.snapshot(), new DataOutputStream(bytes));
+
+        MessageHistory longer = append(history, "The lake again");
+        HistoryIndex read = HistoryIndex.read(
+                new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), longer);
+        assertNotNull(read);
+        assertEquals(LINES.length, read.getIndexedRows());
+        assertArrayEquals(new int[] {5, 4, 1, 0}, search(read, longer, "lake"));
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.memoglitch.model;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MessageBodiesTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("bodies", "");
+        assertTrue(dir.delete());
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void bodiesAreFoundByRowAfterRestart() throws IOException {
+        MessageBodies bodies = new MessageBodies(dir);
+        bodies.write(3, "third");
+        bodies.write(12, "twelfth");
+        MessageBodies reopened = new MessageBodies(dir);
+        assertEquals("third", reopened.read(3));
+        assertEquals("twelfth", reopened.read(12));
+        assertNull(reopened.read(4));
+    }
+
+    @Test
+    public void deleteFromDropsRowsARewindGaveAway() throws IOException {
+        MessageBodies bodies = new MessageBodies(dir);
+        bodies.write(2, "kept");
+        bodies.write(5, "rewound");
+        bodies.write(9, "rewound too");
+        bodies.deleteFrom(5);
+        assertEquals("kept", bodies.read(2));
+        assertFalse(bodies.has(5));
+        assertFalse(new MessageBodies(dir).has(9));
+        bodies.write(5, "the row's new message");
+        assertEquals("the row's new message", new MessageBodies(dir).read(5));
+    }
+}
@@ -0,0 +1,165 @@
+package com.example.memoglitch.model;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+public class MessageHistoryTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("spill", "");
+        assertTrue(dir.delete() && dir.mkdir());
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private static MessageHistory appendRows(MessageHistory history, String prefix, int count) {
+        for (int i = 0; i < count; i++) {
+            int row = history.size();
+            history = history.append(Message.Sender.USER, prefix + row, false, 0L, 0f, row,
+                    StoryManager.Stage.NORMAL);
+        }
+        return history;
+    }
+
+    private static MessageHistory evict(MessageHistory history, TextSpill spill, int windowStart)
+            throws IOException {
+        spill.append(history, windowStart);
+        MessageHistory evicted = history.evictBefore(windowStart, spill);
+        assertNotSame(history, evicted);
+        return evicted;
+    }
+
+    @Test
+    public void appendKeepsEarlierVersionsUnchanged() {
+        MessageHistory first = appendRows(MessageHistory.empty(), "a", 3);
+        MessageHistory second = appendRows(first, "a", 2);
+        assertEquals(3, first.size());
+        assertEquals(5, second.size());
+        assertTrue(first.isPrefixOf(second));
+        assertEquals("a4", second.getText(4));
+    }
+
+    @Test
+    public void appendToOlderVersionForks() {
+        MessageHistory base = appendRows(MessageHistory.empty(), "a", 3);
+        MessageHistory left = appendRows(base, "left", 1);
+        MessageHistory right = appendRows(base, "right", 1);
+        assertEquals("left3", left.getText(3));
+        assertEquals("right3", right.getText(3));
+        assertFalse(left.isPrefixOf(right));
+        assertFalse(left.getId(3) == right.getId(3));
+        assertEquals(left.getId(2), right.getId(2));
+    }
+
+    @Test
+    public void truncateKeepsIdsOfRowsItKeeps() {
+        MessageHistory history = appendRows(MessageHistory.empty(), "a", 6);
+        MessageHistory rewound = appendRows(history.truncate(4), "b", 1);
+        MessageHistory again = appendRows(rewound.truncate(2), "c", 2);
+        assertEquals(history.getId(1), again.getId(1));
+        assertEquals(history.getId(3), rewound.getId(3));
+        assertFalse(history.getId(4) == rewound.getId(4));
+        assertFalse(rewound.getId(2) == again.getId(2));
+        assertFalse(history.getId(2) == again.getId(2));
+    }
+
+    @Test
+    public void evictedTextIsReadBackFromSpill() throws IOException {
+        MessageHistory history = appendRows(MessageHistory.empty(), "a", 10);
+        MessageHistory evicted = evict(history, new TextSpill(new File(dir, "s")), 6);
+        assertEquals(6, evicted.getEvictedRows());
+        assertFalse(evicted.isTextResident(2));
+        for (int row = 0; row < 10; row++) {
+            assertEquals("a" + row, evicted.getText(row));
+        }
+        String[] page = evicted.readEvicted(2, 5);
+        assertEquals("a4", page[2]);
+    }
+
+    @Test
+    public void spillReadsRowsAndRangesAlike() throws IOException {
+        MessageHistory history = MessageHistory.empty();
+        String[] texts = {"", "é✓", "ümlaut \uD83D\uDE00", "plain"};
+        for (String text : texts) {
+            history = history.append(Message.Sender.AI, text, false, 0L, 0f, history.size(),
+                    StoryManager.Stage.NORMAL);
+        }
+        TextSpill spill = new TextSpill(new File(dir, "s"));
+        spill.append(history, texts.length);
+        String[] range = spill.readRange(0, texts.length);
+        for (int row = 0; row < texts.length; row++) {
+            assertEquals(texts[row], spill.read(row));
+            assertEquals(texts[row], range[row]);
+        }
+    }
+
+    @Test
+    public void truncatedLineageSpillsItsOwnRows() throws IOException {
+        MessageHistory history = appendRows(MessageHistory.empty(), "old", 20);
+        MessageHistory evicted = evict(history, new TextSpill(new File(dir, "s")), 16);
+
+        // Rewind into the evicted rows, then grow a new branch past the old spill's end.
+        MessageHistory rewound = evicted.truncate(8);
+        assertEquals(8, rewound.getEvictedRows());
+        MessageHistory branch = appendRows(rewound, "new", 14);
+        MessageHistory branchEvicted = evict(branch, branch.getSpill(), 18);
+
+        for (int row = 0; row < 8; row++) {
+            assertEquals("old" + row, branchEvicted.getText(row));
+        }
+        for (int row = 8; row < 22; row++) {
+            assertEquals("new" + row, branchEvicted.getText(row));
+        }
+        String[] page = branchEvicted.readEvicted(4, 18);
+        assertEquals("old4", page[0]);
+        assertEquals("new17", page[13]);
+        // The abandoned branch still reads its own rows.
+        assertEquals("old12", evicted.getText(12));
+    }
+
+    @Test
+    public void forksOfRetiredBufferDropAbandonedTexts() throws IOException {
+        MessageHistory history = appendRows(MessageHistory.empty(), "a", 10);
+        evict(history, new TextSpill(new File(dir, "s")), 6);
+        // history's buffer is retired now; each fork keeps only the texts of its own rows.
+        MessageHistory first = history.truncate(4);
+        assertEquals(4, first.getTextEntryCount());
+        MessageHistory second = appendRows(history.truncate(7), "b", 1);
+        assertEquals(8, second.getTextEntryCount());
+        assertEquals("a6", second.getText(6));
+        assertEquals("b7", second.getText(7));
+    }
+
+    @Test
+    public void discardingForkReleasesAncestors() throws IOException {
+        TextSpill spill = new TextSpill(new File(dir, "s"));
+        MessageHistory evicted = evict(appendRows(MessageHistory.empty(), "a", 10), spill, 6);
+        MessageHistory branch = appendRows(evicted.truncate(4), "b", 10);
+        MessageHistory branchEvicted = evict(branch, branch.getSpill(), 10);
+        assertTrue(branchEvicted.getSpill().descendsFrom(spill));
+        branchEvicted.getSpill().discard();
+        File[] left = dir.listFiles();
+        assertEquals(0, left == null ? 0 : left.length);
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.memoglitch.model;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class StringTableTest {
+
+    @Test
+    public void acquiringEqualTextSharesOneEntry() {
+        StringTable table = new StringTable();
+        int id = table.acquire("echo");
+        assertEquals(id, table.acquire(new StringBuilder("echo")));
+        assertNotEquals(id, table.acquire("echoes"));
+        assertEquals(2, table.size());
+        assertEquals(2, table.refCount(id));
+        assertEquals("echo", table.entries().get(id));
+    }
+
+    @Test
+    public void releasedEntryStaysReadableUntilCompacted() {
+        StringTable table = new StringTable();
+        int id = table.acquire("lake");
+        table.release(id);
+        table.release(id);
+        assertEquals(0, table.refCount(id));
+        assertEquals("lake", table.entries().get(id));
+        assertEquals(id, table.acquire("lake"));
+        assertEquals(1, table.refCount(id));
+    }
+
+    @Test
+    public void compactDropsUnreferencedEntriesAndRemapsTheRest() {
+        StringTable table = new StringTable();
+        int a = table.acquire("a");
+        int b = table.acquire("b");
+        int c = table.acquire("c");
+        table.acquire("c");
+        table.release(b);
+        int[] remap = new int[table.size()];
+        StringTable compacted = table.compact(remap);
+
+        assertArrayEquals(new int[] {0, -1, 1}, remap);
+        assertEquals(2, compacted.size());
+        assertEquals("a", compacted.entries().get(remap[a]));
+        assertEquals("c", compacted.entries().get(remap[c]));
+        assertEquals(2, compacted.refCount(remap[c]));
+        // Lookups go through the rebuilt hash index.
+        assertEquals(remap[c], compacted.acquire("c"));
+        assertEquals(2, compacted.acquire("b"));
+        // The source table is left for readers still using it.
+        assertEquals(3, table.size());
+        assertEquals("b", table.entries().get(b));
+    }
+
+    @Test
+    public void copyIsIndependent() {
+        StringTable table = new StringTable();
+        int id = table.acquire("memory");
+        StringTable copy = table.copy();
+        copy.release(id);
+        copy.acquire("dream");
+        assertEquals(1, table.refCount(id));
+        assertEquals(1, table.size());
+        assertEquals(0, copy.refCount(id));
+        assertEquals(2, copy.size());
+    }
+
+    @Test
+    public void snapshotsSurviveGrowth() {
+        StringTable table = new StringTable();
+        int first = table.acquire("first");
+        StringTable.Entries before = table.entries();
+        int[] ids = new int[2000];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = table.acquire("line " + i + " of a long conversation");
+        }
+        assertEquals(1, before.count);
+        assertEquals("first", before.get(first));
+        assertEquals("first", before.view(first).toString());
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals(ids[i], table.acquire("line " + i + " of a long conversation"));
+            assertEquals(2, table.refCount(ids[i]));
+        }
+        assertEquals(ids.length + 1, table.size());
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.memoglitch.model;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TextScanTest {
+
+    // NarrativeScript's focus and MemorySystem's fragment.
+    private static final int[][] QUOTE_MODES = {{0, 4, 4}, {1, 3, 5}};
+
+    private static String quoted(String text, boolean stripAll, int keepWhole, int tail) {
+        StringBuilder out = new StringBuilder();
+        return TextScan.appendQuotedTail(out, text, stripAll, keepWhole, tail)
+                ? out.toString() : null;
+    }
+
+    /**
+     * The quoting rule spelled out over the whole text, as appendQuotedTail did before it learned
+     * to walk back from the end.
+     */
+    private static String quotedByCountingAllTokens(String text, boolean stripAll, int keepWhole,
+                                                    int tail) {
+        String trimmed = text.replaceAll("^\\s+|\\s+$", "");
+        trimmed = trimmed.replaceAll(stripAll ? "\\p{Punct}+$" : "\\p{Punct}$", "");
+        if (trimmed.isEmpty()) {
+            return null;
+        }
+        String[] tokens = trimmed.split("\\s+");
+        if (tokens.length <= keepWhole) {
+            return trimmed.replaceAll("[\r\n]+", " ");
+        }
+        StringBuilder out = new StringBuilder();
+        for (int i = Math.max(0, tokens.length - tail); i < tokens.length; i++) {
+            if (out.length() > 0) {
+                out.append(' ');
+            }
+            out.append(tokens[i]);
+        }
+        return out.toString();
+    }
+
+    @Test
+    public void quotedTailKeepsShortInputWhole() {
+        assertEquals("where is the lake?", quoted("  where is\nthe lake?! ", false, 4, 4));
+        assertEquals("where is the lake", quoted("where is the lake?!", true, 3, 5));
+        assertEquals("did you see it", quoted("did you\r\n\r\nsee it.", false, 4, 4));
+    }
+
+    @Test
+    public void quotedTailKeepsLastTokensOfLongInput() {
+        assertEquals("four five six seven", quoted("one two three four five six seven.",
+                false, 4, 4));
+        assertEquals("three four five six seven",
+                quoted("one two three four\tfive six seven!!", true, 3, 5));
+    }
+
+    @Test
+    public void quotedTailOfNothingAppendsNothing() {
+        StringBuilder out = new StringBuilder("kept");
+        assertFalse(TextScan.appendQuotedTail(out, " \n\t", false, 4, 4));
+        assertFalse(TextScan.appendQuotedTail(out, "?!.", true, 3, 5));
+        assertEquals("kept", out.toString());
+        assertTrue(TextScan.appendQuotedTail(out, "?!.", false, 4, 4));
+        assertEquals("kept?!", out.toString());
+    }
+
+    @Test
+    public void quotedTailMatchesCountingEveryToken() {
+        Random random = new Random(48L);
+        String alphabet = "ab !.,\n\t?x";
+        StringBuilder text = new StringBuilder();
+        for (int n = 0; n < 50_000; n++) {
+            text.setLength(0);
+            int length = random.nextInt(16);
+            for (int i = 0; i < length; i++) {
+                text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            String input = text.toString();
+            for (int[] mode : QUOTE_MODES) {
+                boolean stripAll = mode[0] != 0;
+                assertEquals("[" + input + "]",
+                        quotedByCountingAllTokens(input, stripAll, mode[1], mode[2]),
+                        quoted(input, stripAll, mode[1], mode[2]));
+            }
+        }
+    }
+
+    @Test
+    public void quotedTailCostDoesNotGrowWithText() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 1_000_000; i++) {
+            text.append("word ");
+        }
+        String huge = text.append("the last words").toString();
+        StringBuilder out = new StringBuilder();
+        long start = System.nanoTime();
+        for (int i = 0; i < 1000; i++) {
+            out.setLength(0);
+            TextScan.appendQuotedTail(out, huge, true, 3, 5);
+        }
+        long perCall = (System.nanoTime() - start) / 1000;
+        assertEquals("word word the last words", out.toString());
+        assertTrue(perCall + " ns per call", perCall < 100_000L);
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.memoglitch.model;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TurnJournalTest {
+
+    private static final int TURNS = 60;
+
+    private DialogueSystem dialogue;
+    private TurnJournal journal;
+    private final List<String> replies = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        dialogue = new DialogueSystem(new StoryManager(), new MemorySystem(), new EmotionCurve(),
+                new GlitchEffect(), new NarrativeScript());
+        journal = new TurnJournal();
+        journal.start(0, dialogue.saveState());
+        for (int turn = 1; turn <= TURNS; turn++) {
+            replies.add(takeTurn(turn));
+        }
+    }
+
+    private static String input(int turn) {
+        return "I remember a dream about the lake, turn " + turn;
+    }
+
+    /** Plays one turn and records it as a history of two rows per turn. */
+    private String takeTurn(int turn) {
+        String reply = dialogue.buildResponse(input(turn), 1).getMessage().getText();
+        journal.record(turn * 2, dialogue.saveState());
+        return reply;
+    }
+
+    private void rewindTo(int turn) {
+        TurnJournal.EngineState state = journal.stateAt(turn * 2);
+        assertNotNull("turn " + turn, state);
+        dialogue.restoreState(state);
+        journal.truncate(turn * 2);
+    }
+
+    @Test
+    public void rewindThenReplayBuildsTheSameReplies() {
+        // Inside a checkpoint's deltas, on a checkpoint, and at the very start.
+        for (int target : new int[] {40, TurnJournal.CHECKPOINT_INTERVAL, 17, 0}) {
+            rewindTo(target);
+            for (int turn = target + 1; turn <= TURNS; turn++) {
+                assertEquals("turn " + turn + " after rewinding to " + target,
+                        replies.get(turn - 1), takeTurn(turn));
+            }
+        }
+    }
+
+    @Test
+    public void restoredStateMatchesRecordedState() {
+        TurnJournal.EngineState recorded = journal.stateAt(50);
+        rewindTo(25);
+        assertTrue(dialogue.saveState().sameAs(journal.stateAt(50)));
+        assertTrue(recorded.sameAs(journal.stateAt(50)));
+    }
+
+    @Test
+    public void onlyRecordedRowsCanBeRewoundTo() {
+        assertNull(journal.stateAt(3));
+        assertNull(journal.stateAt(TURNS * 2 + 2));
+        assertNotNull(journal.stateAt(TURNS * 2));
+    }
+
+    @Test
+    public void truncateForgetsLaterTurns() {
+        journal.truncate(20);
+        assertNotNull(journal.stateAt(20));
+        assertNull(journal.stateAt(22));
+        assertNull(journal.stateAt(100));
+    }
+
+    @Test
+    public void recordingOverAnEarlierRowReplacesTheTurnsAfterIt() {
+        rewindTo(30);
+        String divergent = dialogue.buildResponse("a different answer entirely", 1)
+                .getMessage().getText();
+        assertNotNull(divergent);
+        journal.record(61, dialogue.saveState());
+        assertNull(journal.stateAt(62));
+        assertTrue(dialogue.saveState().sameAs(journal.stateAt(61)));
+    }
+
+    @Test
+    public void oldestCheckpointsAreDropped() {
+        int turns = TurnJournal.CHECKPOINT_INTERVAL * 40;
+        for (int turn = TURNS + 1; turn <= turns; turn++) {
+            takeTurn(turn);
+        }
+        assertNull(journal.stateAt(2));
+        assertNotNull(journal.stateAt(turns * 2));
+        assertNotNull(journal.stateAt((turns - TurnJournal.CHECKPOINT_INTERVAL * 4) * 2));
+    }
+
+    @Test
+    public void restorableRandomReplaysFromSavedState() {
+        RestorableRandom random = new RestorableRandom();
+        long state = random.getState();
+        long[] first = {random.nextLong(), random.nextInt(7), Double.doubleToLongBits(random.nextDouble())};
+        random.setState(state);
+        long[] second = {random.nextLong(), random.nextInt(7), Double.doubleToLongBits(random.nextDouble())};
+        for (int i = 0; i < first.length; i++) {
+            assertEquals(first[i], second[i]);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.example.memoglitch.model.events;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class EventPublisherTest {
+
+    private static final class Recorder implements Flow.Subscriber<Integer> {
+
+        final List<Integer> received = Collections.synchronizedList(new ArrayList<>());
+        final AtomicBoolean overlapped = new AtomicBoolean();
+        private final long initialDemand;
+        private final boolean requestEach;
+        private final AtomicBoolean inSignal = new AtomicBoolean();
+        Flow.Subscription subscription;
+        Throwable error;
+
+        Recorder(long initialDemand, boolean requestEach) {
+            this.initialDemand = initialDemand;
+            this.requestEach = requestEach;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (initialDemand > 0) {
+                subscription.request(initialDemand);
+            }
+        }
+
+        @Override
+        public void onNext(Integer item) {
+            if (!inSignal.compareAndSet(false, true)) {
+                overlapped.set(true);
+            }
+            received.add(item);
+            if (requestEach) {
+                subscription.request(1);
+            }
+            inSignal.set(false);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+
+    private static EventPublisher<Integer> directPublisher(int capacity) {
+        return new EventPublisher<>(Runnable::run, capacity);
+    }
+
+    private static void publishRange(EventPublisher<Integer> publisher, int from, int to) {
+        for (int i = from; i < to; i++) {
+            publisher.publish(i);
+        }
+    }
+
+    @Test
+    public void deliversOnlyAsFarAsRequested() {
+        EventPublisher<Integer> publisher = directPublisher(8);
+        Recorder none = new Recorder(0, false);
+        Recorder two = new Recorder(2, false);
+        publisher.subscribe(none);
+        publisher.subscribe(two);
+        publishRange(publisher, 0, 5);
+        assertTrue(none.received.isEmpty());
+        assertEquals(Arrays.asList(0, 1), two.received);
+
+        none.subscription.request(3);
+        two.subscription.request(Long.MAX_VALUE);
+        assertEquals(Arrays.asList(0, 1, 2), none.received);
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4), two.received);
+        publisher.publish(5);
+        assertEquals(6, two.received.size());
+        assertEquals(3, none.received.size());
+    }
+
+    @Test
+    public void overflowDiscardsTheBufferAndEndsTheSubscription() {
+        EventPublisher<Integer> publisher = directPublisher(2);
+        Recorder slow = new Recorder(1, false);
+        Recorder fast = new Recorder(Long.MAX_VALUE, false);
+        publisher.subscribe(slow);
+        publisher.subscribe(fast);
+        publishRange(publisher, 0, 3);
+        assertEquals(Collections.singletonList(0), slow.received);
+        assertNull(slow.error);
+
+        publisher.publish(3);
+        assertTrue(slow.error instanceof EventPublisher.OverflowException);
+        slow.subscription.request(Long.MAX_VALUE);
+        publishRange(publisher, 4, 6);
+        assertEquals(Collections.singletonList(0), slow.received);
+        assertEquals(1, publisher.getSubscriberCount());
+        assertEquals(6, fast.received.size());
+
+        Recorder resubscribed = new Recorder(Long.MAX_VALUE, false);
+        publisher.subscribe(resubscribed);
+        publisher.publish(6);
+        assertEquals(Collections.singletonList(6), resubscribed.received);
+    }
+
+    @Test
+    public void cancelledSubscriberReceivesNothingMoreAndIsDropped() {
+        EventPublisher<Integer> publisher = directPublisher(4);
+        Recorder cancelled = new Recorder(Long.MAX_VALUE, false);
+        Recorder kept = new Recorder(Long.MAX_VALUE, false);
+        publisher.subscribe(cancelled);
+        publisher.subscribe(kept);
+        publishRange(publisher, 0, 2);
+        cancelled.subscription.cancel();
+        publishRange(publisher, 2, 4);
+        assertEquals(Arrays.asList(0, 1), cancelled.received);
+        assertEquals(4, kept.received.size());
+        assertEquals(1, publisher.getSubscriberCount());
+        cancelled.subscription.request(1);
+        assertNull(cancelled.error);
+    }
+
+    @Test
+    public void nonPositiveRequestEndsSubscriptionWithError() {
+        EventPublisher<Integer> publisher = directPublisher(4);
+        Recorder recorder = new Recorder(0, false);
+        publisher.subscribe(recorder);
+        recorder.subscription.request(0);
+        assertTrue(recorder.error instanceof IllegalArgumentException);
+        publisher.publish(1);
+        assertTrue(recorder.received.isEmpty());
+        assertEquals(0, publisher.getSubscriberCount());
+    }
+
+    @Test
+    public void signalsOnAPoolStayInOrderAndNeverOverlap() throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            int items = 50_000;
+            // Room for every item: the publisher may run a whole buffer ahead of delivery.
+            EventPublisher<Integer> publisher = new EventPublisher<>(pool, items);
+            Recorder recorder = new Recorder(1, true);
+            publisher.subscribe(recorder);
+            publishRange(publisher, 0, items);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (recorder.received.size() < items && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            assertEquals(items, recorder.received.size());
+            for (int i = 0; i < items; i++) {
+                assertEquals(i, (int) recorder.received.get(i));
+            }
+            assertFalse(recorder.overlapped.get());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.example.memoglitch.ui.glitch;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class GlitchOverlayViewTest {
+
+    private static final long MILLI = 1_000_000L;
+    // Far from nanoTime's origin, as on a device that has been up a while.
+    private static final long TRIGGER = 5_000_000L * MILLI;
+
+    @Test
+    public void glitchBeforeFirstFrameExtendsFromNow() {
+        long now = TRIGGER + 16L * MILLI;
+        assertEquals(now + GlitchOverlayView.DISPLAY_NANOS,
+                GlitchOverlayView.coalescedEndNanos(-1L, TRIGGER, now));
+    }
+
+    @Test
+    public void glitchesBeforeFirstFrameStillCapAtTrigger() {
+        assertEquals(TRIGGER + GlitchOverlayView.MAX_DISPLAY_NANOS,
+                GlitchOverlayView.coalescedEndNanos(-1L, TRIGGER, TRIGGER + 2000L * MILLI));
+    }
+
+    @Test
+    public void glitchAfterFirstFrameCapsAtFirstFrame() {
+        long start = TRIGGER + 8L * MILLI;
+        assertEquals(start + GlitchOverlayView.MAX_DISPLAY_NANOS,
+                GlitchOverlayView.coalescedEndNanos(start, TRIGGER, start + 2500L * MILLI));
+        assertEquals(start + 100L * MILLI + GlitchOverlayView.DISPLAY_NANOS,
+                GlitchOverlayView.coalescedEndNanos(start, TRIGGER, start + 100L * MILLI));
+    }
+}